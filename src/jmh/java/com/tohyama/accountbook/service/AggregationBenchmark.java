@@ -0,0 +1,97 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.ledger.LedgerAggregation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集計 (aggregateBy*) と期間の絞り込み (filter*)
+ * columnar は読み込み結果そのもの (ColumnarLedger)、list は同じ明細をArrayListに詰め替えたもの。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AggregationBenchmark {
+
+    @Param({"12", "36"})
+    public int sheets;
+
+    @Param({"2000"})
+    public int rows;
+
+    @Param({"columnar", "list"})
+    public String layout;
+
+    private ExcelParserImpl parser;
+    private List<AccountDto> entries;
+    private int year;
+    private int month;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        SheetParseExecutor executor = new SheetParseExecutor(1, new SimpleMeterRegistry());
+        parser = SyntheticLedger.parser("stream", executor, new LedgerCache(new LedgerSnapshotStore()));
+        List<AccountDto> ledger = (List<AccountDto>) parser.extractAccountData(
+                SyntheticLedger.generate(sheets, rows).toString(), "month");
+        entries = "list".equals(layout) ? new ArrayList<>(ledger) : ledger;
+        YearMonth previous = YearMonth.now().minusMonths(1);
+        year = previous.getYear();
+        month = previous.getMonthValue();
+    }
+
+    @Benchmark
+    public List<SummaryDto.DaillySummary> aggregateByDay() {
+        return parser.aggregateByDay(entries);
+    }
+
+    @Benchmark
+    public List<SummaryDto.WeeklySummary> aggregateByWeek() {
+        return parser.aggregateByWeek(entries);
+    }
+
+    @Benchmark
+    public List<SummaryDto.MonthlySummary> aggregateByMonth() {
+        return parser.aggregateByMonth(entries);
+    }
+
+    @Benchmark
+    public LedgerAggregation aggregateAll() {
+        return parser.aggregateAll(entries);
+    }
+
+    @Benchmark
+    public SummaryDto.MonthlySummary aggregateByYearMonth() {
+        return parser.aggregateByYearMonth(entries, year, month);
+    }
+
+    @Benchmark
+    public List<AccountDto> filterToday() {
+        return parser.filterToday(entries);
+    }
+
+    @Benchmark
+    public List<AccountDto> filterCurrentWeek() {
+        return parser.filterCurrentWeek(entries);
+    }
+
+    @Benchmark
+    public List<AccountDto> filterByYearMonth() {
+        return parser.filterByYearMonth(entries, year, month);
+    }
+}
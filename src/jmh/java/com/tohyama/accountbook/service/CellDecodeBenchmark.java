@@ -0,0 +1,93 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 月シート1枚分のセル値の変換 (getStringCell / LedgerRowDecoder)
+ * ワークブックは読み込み済みで、セルから値を取り出す部分だけを測る。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CellDecodeBenchmark {
+
+    @Param({"2000"})
+    public int rows;
+
+    private XSSFWorkbook workbook;
+    private Row[] sheetRows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (InputStream is = Files.newInputStream(SyntheticLedger.generate(1, rows))) {
+            workbook = new XSSFWorkbook(is);
+        }
+        Sheet sheet = workbook.getSheetAt(1);
+        List<Row> list = new ArrayList<>();
+        for (int idx = 1; idx <= sheet.getLastRowNum(); idx++) {
+            list.add(sheet.getRow(idx));
+        }
+        sheetRows = list.toArray(new Row[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workbook.close();
+    }
+
+    /**
+     * 日付・品名・ID・備考
+     */
+    @Benchmark
+    public void stringCells(Blackhole bh) {
+        for (Row row : sheetRows) {
+            bh.consume(ExcelParserImpl.getStringCell(row, 0));
+            bh.consume(ExcelParserImpl.getStringCell(row, 1));
+            bh.consume(ExcelParserImpl.getStringCell(row, 2));
+            bh.consume(ExcelParserImpl.getStringCell(row, 5));
+        }
+    }
+
+    /**
+     * 数量・金額 (文字列・数式の金額を含む)
+     */
+    @Benchmark
+    public void intCells(Blackhole bh) {
+        for (Row row : sheetRows) {
+            bh.consume(LedgerRowDecoder.intOf(row.getCell(3)));
+            bh.consume(LedgerRowDecoder.intOf(row.getCell(4)));
+        }
+    }
+
+    /**
+     * 1シート分を台帳に変換するまで (日付の解析を含む)
+     */
+    @Benchmark
+    public ColumnarLedger rows() {
+        LedgerRowDecoder decoder = new LedgerRowDecoder(sheetRows.length, false);
+        for (Row row : sheetRows) {
+            decoder.add(row);
+        }
+        return decoder.build();
+    }
+}
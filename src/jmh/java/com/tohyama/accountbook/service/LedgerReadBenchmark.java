@@ -0,0 +1,80 @@
+package com.tohyama.accountbook.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 台帳ファイルの読み込み (extractExcelData)
+ * cold はキャッシュを捨ててファイルから読み直し、cached はキャッシュ済みの明細から取り出すだけ。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LedgerReadBenchmark {
+
+    @Param({"12"})
+    public int sheets;
+
+    @Param({"500", "2000"})
+    public int rows;
+
+    @Param({"dom", "stream"})
+    public String readMode;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private String path;
+    private SheetParseExecutor executor;
+    private ExcelParserImpl parser;
+    private LedgerCache ledgerCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        path = SyntheticLedger.generate(sheets, rows).toString();
+        executor = new SheetParseExecutor(parallelism, new SimpleMeterRegistry());
+        // スナップショットは無効 (LedgerSnapshotStoreの既定値) のまま
+        ledgerCache = new LedgerCache(new LedgerSnapshotStore());
+        parser = SyntheticLedger.parser(readMode, executor, ledgerCache);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Cold {
+        @Setup(Level.Invocation)
+        public void invalidate(LedgerReadBenchmark benchmark) {
+            benchmark.ledgerCache.invalidate(benchmark.path);
+        }
+    }
+
+    @Benchmark
+    public List<?> cold(Cold cold) throws Exception {
+        return parser.extractAccountData(path, "month");
+    }
+
+    @Benchmark
+    public List<?> cachedMonth() throws Exception {
+        return parser.extractAccountData(path, "month");
+    }
+
+    @Benchmark
+    public List<?> cachedWeek() throws Exception {
+        return parser.extractAccountData(path, "week");
+    }
+}
@@ -0,0 +1,65 @@
+package com.tohyama.accountbook.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tohyama.accountbook.dto.AccountDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gemini APIへ送るプロンプトの作成
+ * encode は1か月分の明細の文字列化 (PromptPayloadEncoder)、requestBody はリクエストJSONのバイト列化。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PromptEncodingBenchmark {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Param({"500", "2000"})
+    public int rows;
+
+    @Param({"json", "table", "dictionary", "by-item", "by-day"})
+    public String encoding;
+
+    private PromptPayloadEncoder encoder;
+    private List<AccountDto> monthEntries;
+    private String promptText;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        SheetParseExecutor executor = new SheetParseExecutor(1, new SimpleMeterRegistry());
+        ExcelParserImpl parser = SyntheticLedger.parser("stream", executor, new LedgerCache(new LedgerSnapshotStore()));
+        List<AccountDto> ledger = (List<AccountDto>) parser.extractAccountData(
+                SyntheticLedger.generate(2, rows).toString(), "month");
+        YearMonth previous = YearMonth.now().minusMonths(1);
+        monthEntries = parser.filterByYearMonth(ledger, previous.getYear(), previous.getMonthValue());
+
+        encoder = new PromptPayloadEncoder();
+        SyntheticLedger.setField(encoder, "encoding", encoding);
+        SyntheticLedger.setField(encoder, "tokenBudget", 8000);
+        promptText = "mode:  monthly data:\n" + encoder.encode(monthEntries).text();
+    }
+
+    @Benchmark
+    public PromptPayloadEncoder.PromptPayload encode() throws Exception {
+        return encoder.encode(monthEntries);
+    }
+
+    @Benchmark
+    public byte[] requestBody() throws Exception {
+        return OBJECT_MAPPER.writeValueAsBytes(GeminiProxyImpl.buildRequestBody(promptText));
+    }
+}
@@ -0,0 +1,157 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の台帳ファイルを作る
+ * 月シートの列は parseAccountEntries と同じ (日付・品名・ID・数量・金額・備考) で、
+ * 日付・IDは文字列/数値/日付書式/数式を混ぜる。同じ引数なら同じ内容になる (最終月は当月)。
+ */
+public final class SyntheticLedger {
+    private static final long SEED = 20240101L;
+    private static final String[] NAMES = {"牛乳", "食パン", "卵", "豆腐", "納豆", "キャベツ", "玉ねぎ", "鶏むね肉",
+            "豚こま", "鮭", "りんご", "バナナ", "コーヒー", "洗剤", "トイレットペーパー", "ティッシュ", "電気代",
+            "ガス代", "水道代", "携帯電話", "ガソリン", "外食", "本", "薬", "クリーニング"};
+    private static final String[] LOCATIONS = {"スーパー", "コンビニ", "ドラッグストア", "口座振替"};
+
+    private SyntheticLedger() {
+    }
+
+    /**
+     * sheets か月分・1シートrows行の台帳を作る (作成済みならそれを返す)
+     */
+    public static Path generate(int sheets, int rows) throws Exception {
+        YearMonth last = YearMonth.now();
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "account-book-jmh");
+        Path path = dir.resolve("ledger-" + last + "-" + sheets + "x" + rows + ".xlsx");
+        if (Files.exists(path)) return path;
+        Files.createDirectories(dir);
+
+        Random random = new Random(SEED);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy/m/d"));
+
+            Sheet itemCode = workbook.createSheet(consts.itemCodeSheetName);
+            header(itemCode, "id", "name", "location", "price");
+            for (int i = 0; i < NAMES.length; i++) {
+                Row row = itemCode.createRow(i + 1);
+                row.createCell(0).setCellValue(idOf(i));
+                row.createCell(1).setCellValue(NAMES[i]);
+                row.createCell(2).setCellValue(LOCATIONS[i % LOCATIONS.length]);
+                row.createCell(3).setCellValue(100 + i * 40);
+            }
+
+            for (int s = 0; s < sheets; s++) {
+                YearMonth ym = last.minusMonths(sheets - 1 - s);
+                Sheet sheet = workbook.createSheet(ym.toString());
+                header(sheet, "date", "name", "id", "cnt", "price", "note");
+                for (int r = 1; r <= rows; r++) {
+                    LocalDate date = ym.atDay(1 + random.nextInt(ym.lengthOfMonth()));
+                    int item = random.nextInt(NAMES.length);
+                    int cnt = 1 + random.nextInt(3);
+                    int price = 100 + random.nextInt(2900);
+                    Row row = sheet.createRow(r);
+                    dateCell(row.createCell(0), date, r, dateStyle);
+                    row.createCell(1).setCellValue(NAMES[item]);
+                    // 数値で入力されたIDもある
+                    if (r % 7 == 0) {
+                        row.createCell(2).setCellValue(1000 + item);
+                    } else {
+                        row.createCell(2).setCellValue(idOf(item));
+                    }
+                    row.createCell(3).setCellValue(cnt);
+                    Cell priceCell = row.createCell(4);
+                    if (r % 5 == 0) {
+                        priceCell.setCellValue(String.valueOf(price));
+                    } else if (r % 11 == 0) {
+                        priceCell.setCellFormula(price + "*" + cnt);
+                    } else {
+                        priceCell.setCellValue(price);
+                    }
+                    if (r % 3 == 0) {
+                        row.createCell(5).setCellValue(LOCATIONS[item % LOCATIONS.length] + " " + r);
+                    }
+                }
+            }
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+            Path tmp = Files.createTempFile(dir, "ledger", ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                workbook.write(os);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return path;
+    }
+
+    /**
+     * Spring無しでExcelParserImplを組み立てる
+     */
+    public static ExcelParserImpl parser(String readMode, SheetParseExecutor executor, LedgerCache ledgerCache)
+            throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExcelParserImpl parser = new ExcelParserImpl(new ExcelStreamReader(executor, registry), ledgerCache,
+                executor, registry);
+        setField(parser, "readMode", readMode);
+        return parser;
+    }
+
+    /**
+     * @Valueで注入される設定値を設定する
+     */
+    public static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static String idOf(int item) {
+        return String.format("A%03d", item + 1);
+    }
+
+    /**
+     * 日付は 日付書式の数値 / yyyy-MM-dd / yyyy/M/d / DATE関数 を順に使い、50行に1行は不正な値にする
+     */
+    private static void dateCell(Cell cell, LocalDate date, int r, CellStyle dateStyle) {
+        if (r % 50 == 0) {
+            cell.setCellValue("不明");
+            return;
+        }
+        switch (r % 4) {
+            case 0 -> {
+                cell.setCellValue(date);
+                cell.setCellStyle(dateStyle);
+            }
+            case 1 -> cell.setCellValue(date.toString());
+            case 2 -> cell.setCellValue(date.getYear() + "/" + date.getMonthValue() + "/" + date.getDayOfMonth());
+            default -> {
+                cell.setCellFormula("DATE(" + date.getYear() + "," + date.getMonthValue() + "," + date.getDayOfMonth() + ")");
+                cell.setCellStyle(dateStyle);
+            }
+        }
+    }
+
+    private static void header(Sheet sheet, String... names) {
+        Row row = sheet.createRow(0);
+        for (int i = 0; i < names.length; i++) {
+            row.createCell(i).setCellValue(names[i]);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.tohyama.accountbook.controller;
+
+import com.tohyama.accountbook.dto.LedgerDto;
+import com.tohyama.accountbook.service.LedgerCache;
+import com.tohyama.accountbook.service.LedgerUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/ledger")
+public class LedgerController {
+    private static final Logger log = LoggerFactory.getLogger(LedgerController.class);
+
+    private final LedgerCache ledgerCache;
+    private final LedgerUploadService ledgerUploadService;
+
+    public LedgerController(LedgerCache ledgerCache, LedgerUploadService ledgerUploadService) {
+        this.ledgerCache = ledgerCache;
+        this.ledgerUploadService = ledgerUploadService;
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<LedgerDto.CacheStats> getCacheStats() {
+        return ResponseEntity.ok(ledgerCache.getStats());
+    }
+
+    @GetMapping("/reload")
+    public ResponseEntity<LedgerDto.ReloadStatus> getReloadStatus() {
+        return ResponseEntity.ok(ledgerCache.getReloadStatus());
+    }
+
+    /**
+     * ワークブックをリクエスト本文 (multipartではなくファイルの中身そのもの) で受け取り、解析を登録する
+     * multipartの上限 (spring.servlet.multipart) は適用されず、ai.excel.upload.max-bytes で制限する。
+     * ledgerIdを省略した場合は既定の台帳を入れ替える。
+     */
+    @PostMapping("/upload")
+    public ResponseEntity<?> upload(@RequestParam(required = false) String fileName,
+                                    @RequestParam(required = false) String ledgerId, HttpServletRequest request) {
+        try {
+            LedgerDto.UploadStatus status = ledgerUploadService.submit(fileName, ledgerId,
+                    request.getContentLengthLong(), request.getInputStream());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (LedgerUploadService.UploadRejectedException e) {
+            HttpStatus status = e.isBusy() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.PAYLOAD_TOO_LARGE;
+            return ResponseEntity.status(status).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("アップロード受信失敗: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "エラー発生: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/upload/{uploadId}")
+    public ResponseEntity<?> getUpload(@PathVariable String uploadId) {
+        LedgerDto.UploadStatus status = ledgerUploadService.getStatus(uploadId);
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "アップロードが見つかりません: " + uploadId));
+        }
+        return ResponseEntity.ok(status);
+    }
+}
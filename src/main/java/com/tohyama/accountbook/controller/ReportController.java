@@ -1,132 +1,331 @@
 package com.tohyama.accountbook.controller;
 
-import com.tohyama.accountbook.service.ReportFileService;
-import com.tohyama.accountbook.service.ReportFileServiceImpl;
-import com.tohyama.accountbook.service.ReportGenerator;
+import com.tohyama.accountbook.dto.GeminiDto;
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import com.tohyama.accountbook.service.CoalescingReportGenerator;
+import com.tohyama.accountbook.service.GeminiResponseCache;
+import com.tohyama.accountbook.service.LedgerRegistry;
+import com.tohyama.accountbook.service.ReportArchive;
+import com.tohyama.accountbook.service.ReportJobService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.YearMonth;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/reports")
 public class ReportController {
     private static final Logger log = LoggerFactory.getLogger(ReportController.class);
-    
-    private final ReportGenerator reportGenerator;
-    private final ReportFileService reportFileService;
 
-    @Value("${report.save.directory:C:/Temp/reports}")
-    private String defaultSaveDirectory;
+    private final ReportJobService reportJobService;
+    private final GeminiResponseCache responseCache;
+    private final CoalescingReportGenerator coalescingReportGenerator;
+    private final ReportArchive reportArchive;
+
+    @Value("${ai.report.stream.timeout:600s}")
+    private Duration streamTimeout;
+
+    @Value("${ai.report.archive.gzip:true}")
+    private boolean archiveGzip;
 
-    public ReportController(ReportGenerator reportGenerator, ReportFileService reportFileService) {
-        this.reportGenerator = reportGenerator;
-        this.reportFileService = reportFileService;
+    @Value("${ai.report.archive.gzip-min-bytes:1024}")
+    private long archiveGzipMinBytes;
+
+    public ReportController(ReportJobService reportJobService, GeminiResponseCache responseCache,
+                            CoalescingReportGenerator coalescingReportGenerator, ReportArchive reportArchive) {
+        this.reportJobService = reportJobService;
+        this.responseCache = responseCache;
+        this.coalescingReportGenerator = coalescingReportGenerator;
+        this.reportArchive = reportArchive;
     }
 
-    @PostMapping("/daily")
-    public ResponseEntity<Map<String, String>> saveDailyReport(
-            @RequestParam(required = false) String directory) {
+    @GetMapping("/cache/stats")
+    public ResponseEntity<GeminiDto.CacheStats> getCacheStats() {
+        return ResponseEntity.ok(responseCache.getStats());
+    }
+
+    @GetMapping("/coalescing/stats")
+    public ResponseEntity<ReportJobDto.CoalescingStats> getCoalescingStats() {
+        return ResponseEntity.ok(coalescingReportGenerator.getStats());
+    }
+
+    /**
+     * 保管庫のリポートを新しい順に返す (索引だけを使い、ファイルには触れない)
+     */
+    @GetMapping("/archive")
+    public ResponseEntity<List<ReportDto>> listArchive(
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) YearMonth from,
+            @RequestParam(required = false) YearMonth to,
+            @RequestParam(required = false) String modelName,
+            @RequestParam(required = false) String ledgerId,
+            @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(reportArchive.list(type, from, to, modelName, ledgerId, Math.max(0, limit)));
+    }
+
+    /**
+     * 保管庫のリポートを返す (ETag・Range・gzipに対応する)
+     * 条件付きリクエストは ServletWebRequest#checkNotModified で判定し、Rangeは本文をResourceで返して
+     * Spring MVC (HttpRange・ResourceRegion) に処理させる。圧縮して保存したリポートはRangeに対応しない。
+     */
+    @GetMapping("/archive/{id}")
+    public ResponseEntity<?> downloadArchive(
+            @PathVariable String id,
+            ServletWebRequest webRequest,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ReportDto report = reportArchive.get(id);
+        if (report == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "リポートが見つかりません: " + id));
+        }
+        Path file = Paths.get(report.getFilePath());
+        long size;
         try {
-            String report = reportGenerator.generateDailyReport();
-            String saveDir = (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
-            String fileName = generateDailyFileName();
-            String filePath = reportFileService.saveReportToFile(report, fileName, saveDir);
-            
-            Map<String, String> response = new HashMap<>();
-            response.put("filePath", filePath);
-            response.put("message", "日別分析を保存しました。");
-            
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            log.error("日別リポート保存失敗: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "エラー発生: " + e.getMessage()));
+            size = Files.size(file);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "リポートのファイルがありません: " + report.getFilePath()));
+        }
+        if (size != report.getSize()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "索引の登録後にファイルが変更されています: " + report.getFilePath()));
+        }
+
+        // 圧縮して保存したリポート (.gz) は、gzipを受け付けるクライアントにはそのまま送り、それ以外には展開して送る
+        boolean storedGzip = report.getFilePath().endsWith(".gz");
+        boolean acceptsGzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        boolean gzip = storedGzip ? acceptsGzip
+                : range == null && archiveGzip && size >= archiveGzipMinBytes && acceptsGzip;
+        String etag = "\"" + report.getChecksum() + (gzip == storedGzip ? "" : gzip ? "-gzip" : "-identity") + "\"";
+        webRequest.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (webRequest.checkNotModified(etag)) {
+            // 304の応答はcheckNotModifiedが設定済み
+            return null;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.set(HttpHeaders.ACCEPT_RANGES, storedGzip ? "none" : "bytes");
+        String fileName = file.getFileName().toString();
+        headers.setContentType(new MediaType("text", "markdown", StandardCharsets.UTF_8));
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename(storedGzip ? fileName.substring(0, fileName.length() - 3) : fileName).build());
+        // If-Rangeが一致しない場合はRangeを無視して全体を返す
+        boolean ignoreRange = range != null && ifRange != null && !ifRange.equals(etag);
+        try {
+            if (gzip) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                // 保存時に圧縮したものはそのまま、それ以外はここで圧縮する (リポートは小さいのでメモリ上で行う)
+                return ResponseEntity.ok().headers(headers).body(storedGzip ? Files.readAllBytes(file) : gzip(file));
+            }
+            if (storedGzip) {
+                return ResponseEntity.ok().headers(headers)
+                        .body(new InputStreamResource(new GZIPInputStream(Files.newInputStream(file), 8192)));
+            }
+            if (ignoreRange) {
+                // InputStreamResourceにはRangeヘッダーが適用されないので、全体を返す
+                headers.setContentLength(size);
+                return ResponseEntity.ok().headers(headers).body(new InputStreamResource(Files.newInputStream(file)));
+            }
+        } catch (IOException e) {
+            log.error("リポートの読み込み失敗 id={}: {}", id, e.getMessage(), e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "エラー発生: " + e.getMessage()));
+        }
+
+        // Rangeがあれば部分応答 (206・416、複数区間はmultipart/byteranges) になる
+        return ResponseEntity.ok().headers(headers).body(new FileSystemResource(file));
+    }
+
+    /**
+     * リポート作成ジョブを登録し、ジョブIDをすぐに返す
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitJob(
+            @RequestParam String type,
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) String modelName,
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        try {
+            ReportJobDto.JobStatus status = reportJobService.submit(
+                    new ReportJobDto.JobRequest(type, year, month, modelName, directory, ledgerId));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId) {
+        ReportJobDto.JobStatus status = reportJobService.getStatus(jobId);
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "ジョブが見つかりません: " + jobId));
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * 生成されたテキストをSSEで逐次返す (chunk: テキスト / done: 保存先 / failed: エラー)
+     * Gemini APIの呼び出しとファイルの保存を伴うので、先読みや再試行で繰り返されないようPOSTで受け付ける
+     * (ブラウザはEventSourceではなくfetchで本文を読む)。
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamReport(
+            @RequestParam String type,
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) String modelName,
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        try {
+            reportJobService.submitStream(new ReportJobDto.JobRequest(type, year, month, modelName, directory, ledgerId),
+                    new ReportJobService.StreamListener() {
+                        // ブラウザが切断してもファイルへの保存は最後まで続ける
+                        private volatile boolean disconnected;
+
+                        @Override
+                        public void onText(String text) {
+                            send(SseEmitter.event().name("chunk").data(Map.of("text", text)));
+                        }
+
+                        @Override
+                        public void onComplete(String filePath, String reportId, String message) {
+                            send(SseEmitter.event().name("done").data(
+                                    Map.of("filePath", filePath, "reportId", reportId, "message", message)));
+                            emitter.complete();
+                        }
+
+                        @Override
+                        public void onError(String error) {
+                            send(SseEmitter.event().name("failed").data(Map.of("error", error)));
+                            emitter.complete();
+                        }
+
+                        private void send(SseEmitter.SseEventBuilder event) {
+                            if (disconnected) return;
+                            try {
+                                emitter.send(event);
+                            } catch (Exception e) {
+                                disconnected = true;
+                                log.info("ストリームの送信先が切断されました: {}", e.getMessage());
+                            }
+                        }
+                    });
+        } catch (IllegalArgumentException e) {
+            try {
+                emitter.send(SseEmitter.event().name("failed").data(Map.of("error", e.getMessage())));
+            } catch (Exception ignored) {
+                // 送信できなければ閉じるだけ
+            }
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 指定した期間・モデルの月別リポートの一括作成をジョブとして登録し、ジョブIDをすぐに返す
+     * 保存結果の一覧は /jobs/{jobId} の manifest で返す。
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> saveBatchReports(
+            @RequestParam YearMonth from,
+            @RequestParam YearMonth to,
+            @RequestParam(required = false) List<String> models,
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        try {
+            ReportJobDto.JobStatus status = reportJobService.submitBatch(from, to, models, directory, ledgerId);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
+
+    @PostMapping("/daily")
+    public ResponseEntity<Map<String, String>> saveDailyReport(
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        return save(new ReportJobDto.JobRequest("daily", null, null, null, directory, ledgerId), "日別");
+    }
     
     @PostMapping("/weekly")
     public ResponseEntity<Map<String, String>> saveWeeklyReport(
-            @RequestParam(required = false) String directory) {
-        try {
-            String report = reportGenerator.generateWeeklyReport();
-            String saveDir = (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
-            String fileName = generateWeeklyFileName();
-            String filePath = reportFileService.saveReportToFile(report, fileName, saveDir);
-            
-            Map<String, String> response = new HashMap<>();
-            response.put("filePath", filePath);
-            response.put("message", "週別分析を保存しました。");
-            
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            log.error("週別リポート保存失敗: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "エラー発生: " + e.getMessage()));
-        }
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        return save(new ReportJobDto.JobRequest("weekly", null, null, null, directory, ledgerId), "週別");
     }
     
     @PostMapping("/monthly")
     public ResponseEntity<Map<String, String>> saveMonthlyReport(
-            @RequestParam(required = false) String directory) {
-        try {
-            String report = reportGenerator.generateMonthlyReport();
-            String saveDir = (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
-            
-            LocalDate now = LocalDate.now();
-            String fileName = ReportFileServiceImpl.generateFileName(now.getYear(), now.getMonthValue());
-            String filePath = reportFileService.saveReportToFile(report, fileName, saveDir);
-            
-            Map<String, String> response = new HashMap<>();
-            response.put("filePath", filePath);
-            response.put("message", "月別分析を保存しました。");
-            
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            log.error("月別リポート保存失敗: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "エラー発生: " + e.getMessage()));
-        }
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        return save(new ReportJobDto.JobRequest("monthly", null, null, null, directory, ledgerId), "月別");
     }
     @PostMapping("/monthly/save")
     public ResponseEntity<Map<String, String>> saveCustomMonthlyReport(
             @RequestParam int year,
             @RequestParam int month,
             @RequestParam(required = false) String modelName,
-            @RequestParam(required = false) String directory) {
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String ledgerId) {
+        return save(new ReportJobDto.JobRequest("monthly", year, month, modelName, directory, ledgerId), "月別");
+    }
+
+    private static byte[] gzip(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(bytes, 8192)) {
+            Files.copy(file, gzipOut);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 同期版の保存 (台帳IDが不正・台帳がない場合は400、台帳の実行枠が空かない場合は429)
+     */
+    private ResponseEntity<Map<String, String>> save(ReportJobDto.JobRequest request, String label) {
         try {
-            String report = reportGenerator.generateMonthlyReport(year, month, modelName);
-            String saveDir = (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
-            String fileName = ReportFileServiceImpl.generateFileName(year, month);
-            String filePath = reportFileService.saveReportToFile(report, fileName, saveDir);
-            
+            ReportDto report = reportJobService.generateAndSave(request);
+
             Map<String, String> response = new HashMap<>();
-            response.put("filePath", filePath);
-            response.put("message", "ファイルを保存しました。");
-            
+            response.put("filePath", report.getFilePath());
+            response.put("reportId", report.getId());
+            response.put("message", ReportJobService.messageOf(request));
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (LedgerRegistry.LedgerBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
-            log.error("月別リポート保存失敗: {}", e.getMessage(), e);
+            log.error("{}リポート保存失敗: {}", label, e.getMessage(), e);
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "エラー発生: " + e.getMessage()));
         }
     }
-
-    private String generateDailyFileName() {
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
-        return String.format("daily-report-%s.md", now.format(dateFormatter));
-    }
-    private String generateWeeklyFileName() {
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
-        return String.format("weekly-report-%s.md", now.format(dateFormatter));
-    }
 }
@@ -24,4 +24,16 @@ public class GeminiDto {
     public static class GeminiProxyResponse {
         private String report;
     }
+
+    @Data
+    @AllArgsConstructor
+    public static class CacheStats {
+        private long hits;
+        private long misses;
+        private double hitRatio;
+        private int entries;
+        private long bytes;
+        private long maxBytes;
+        private long evictions;
+    }
 }
@@ -0,0 +1,53 @@
+package com.tohyama.accountbook.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+public class LedgerDto {
+
+    @Data
+    @AllArgsConstructor
+    public static class CacheStats {
+        private long hits;
+        private long misses;
+        private long loads;
+        private long lastLoadMillis;
+        private long totalLoadMillis;
+        private long snapshotLoads;
+        private int cachedLedgers;
+        private long cachedBytes;
+        private long maxBytes;
+        private long evictions;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ReloadStatus {
+        private LocalDateTime lastReloadAt;
+        private long lastReloadMillis;
+        private int parsedSheets;
+        private int totalSheets;
+        private long reloads;
+        private long failures;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class UploadStatus {
+        private String uploadId;
+        private String ledgerId;
+        private ReportJobDto.Status status;
+        private String fileName;
+        private long bytes;
+        private int totalSheets;
+        private int parsedSheets;
+        private int rows;
+        private LocalDateTime receivedAt;
+        private LocalDateTime finishedAt;
+        private long receiveMillis;
+        private long parseMillis;
+        private String error;
+    }
+}
@@ -16,4 +16,10 @@ public class ReportDto {
     private Integer year;
     private Integer month;
     private String modelUsed;
+    // 以下はリポート保管庫の索引で使う (contentは持たない)
+    private String id;
+    private String filePath;
+    private long size;
+    private String checksum;
+    private String ledgerId;
 }
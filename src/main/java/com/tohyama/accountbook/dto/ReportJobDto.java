@@ -0,0 +1,80 @@
+package com.tohyama.accountbook.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class ReportJobDto {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class JobRequest {
+        private String type;
+        private Integer year;
+        private Integer month;
+        private String modelName;
+        private String directory;
+        private String ledgerId;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class JobStatus {
+        private String jobId;
+        private String type;
+        private Status status;
+        private LocalDateTime queuedAt;
+        private LocalDateTime startedAt;
+        private LocalDateTime finishedAt;
+        private long waitMillis;
+        private long runMillis;
+        private String filePath;
+        private String reportId;
+        private String message;
+        private String error;
+        // 一括作成ジョブの結果 (それ以外のジョブはnull)
+        private BatchManifest manifest;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class CoalescingStats {
+        private long executions;
+        private long coalesced;
+        private long timeouts;
+        private int inFlight;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BatchItem {
+        private int year;
+        private int month;
+        private String modelName;
+        private Status status;
+        private String filePath;
+        private String reportId;
+        private long waitMillis;
+        private long runMillis;
+        private String error;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BatchManifest {
+        private String from;
+        private String to;
+        private List<String> models;
+        private long parseMillis;
+        private long totalMillis;
+        private int succeeded;
+        private int failed;
+        private List<BatchItem> items;
+    }
+}
@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
+import java.util.List;
 
 public class SummaryDto {
     
@@ -30,4 +31,73 @@ public class SummaryDto {
         private LocalDate weekEnd;
         private int totalAmount;
     }
+
+    /**
+     * 品目ごとの合計 (品目マスタにないIDは location・referencePrice が空)
+     */
+    @Data
+    @AllArgsConstructor
+    public static class ItemSummary {
+        private String id;
+        private String name;
+        private String location;
+        private int referencePrice;
+        private int cnt;
+        private int totalAmount;
+        private int rows;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class LocationSummary {
+        private String location;
+        private int totalAmount;
+        private int rows;
+        private int items;
+    }
+
+    /**
+     * 月の合計に、場所別・品目別の内訳と、期間の分析結果を加えたもの
+     */
+    @Data
+    @AllArgsConstructor
+    public static class MonthlyBreakdown {
+        private int year;
+        private int month;
+        private int totalAmount;
+        private int rows;
+        private List<LocationSummary> locations;
+        private List<ItemSummary> items;
+        private PeriodAnalytics analytics;
+    }
+
+    /**
+     * 日ごとの合計の分布 (明細のない日は0として数える。中央値・90パーセンタイルは近似値)
+     */
+    @Data
+    @AllArgsConstructor
+    public static class DailyDistribution {
+        private int days;
+        private int activeDays;
+        private int mean;
+        private int median;
+        private int p90;
+        private int max;
+    }
+
+    /**
+     * 期間の金額・個数の上位品目、金額の大きい明細、日ごとの合計の分布
+     */
+    @Data
+    @AllArgsConstructor
+    public static class PeriodAnalytics {
+        private LocalDate from;
+        private LocalDate to;
+        private int totalAmount;
+        private int rows;
+        private DailyDistribution daily;
+        private List<ItemSummary> topByAmount;
+        private List<ItemSummary> topByCount;
+        private List<AccountDto> largest;
+    }
 }
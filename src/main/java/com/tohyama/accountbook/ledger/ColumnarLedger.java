@@ -0,0 +1,328 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 明細を列ごとのプリミティブ配列で保持する台帳
+ * 日付はエポック日、名前・ID・備考は辞書コードで持つ。
+ * List<AccountDto>としても参照でき、get()のたびにAccountDtoを生成する。
+ * 行は日付順 (同日内は取り込み順) に並べ、金額の累積和と日付→行位置の表を持つため、
+ * 日付範囲の抽出はコピーなしの部分ビュー、範囲の合計はO(1)で求められる。
+ */
+public final class ColumnarLedger extends AbstractList<AccountDto> implements RandomAccess {
+    // 日付→行位置の表を作る日数の上限 (これを超える場合は二分探索)
+    private static final int MAX_DAY_TABLE = 1 << 20;
+
+    private final Columns columns;
+    private final int offset;
+    private final int size;
+
+    /**
+     * 全ビューで共有する列データ
+     */
+    private record Columns(int[] epochDays, int[] prices, int[] counts,
+                           int[] nameCodes, int[] idCodes, int[] noteCodes,
+                           long[] pricePrefix, int minDay, int[] dayStart,
+                           StringDictionary names, StringDictionary ids, StringDictionary notes) {
+    }
+
+    private ColumnarLedger(Columns columns, int offset, int size) {
+        this.columns = columns;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static ColumnarLedger of(List<AccountDto> entries) {
+        if (entries instanceof ColumnarLedger ledger) {
+            return ledger;
+        }
+        Builder builder = new Builder(entries.size());
+        for (AccountDto entry : entries) {
+            builder.add(entry);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 複数の台帳を順に結合する (同日内の並びは引数の順序になる)
+     */
+    public static ColumnarLedger concat(List<ColumnarLedger> parts) {
+        int total = 0;
+        for (ColumnarLedger part : parts) {
+            total += part.size();
+        }
+        if (!parts.isEmpty() && parts.stream().allMatch(part -> part.sharesDictionariesWith(parts.getFirst()))) {
+            // 辞書が共通ならコードをそのまま連結する
+            ColumnarLedger first = parts.getFirst();
+            int[] d = new int[total], p = new int[total], c = new int[total];
+            int[] nm = new int[total], id = new int[total], nt = new int[total];
+            int pos = 0;
+            for (ColumnarLedger part : parts) {
+                part.copyColumns(pos, d, p, c, nm, id, nt);
+                pos += part.size();
+            }
+            return assemble(total, d, p, c, nm, id, nt, first.columns.names, first.columns.ids, first.columns.notes);
+        }
+        Builder builder = new Builder(total);
+        for (ColumnarLedger part : parts) {
+            for (int i = 0; i < part.size(); i++) {
+                int row = part.offset + i;
+                Columns c = part.columns;
+                builder.add(c.epochDays[row], c.names.get(c.nameCodes[row]), c.ids.get(c.idCodes[row]),
+                        c.counts[row], c.prices[row], c.notes.get(c.noteCodes[row]));
+            }
+        }
+        return builder.build();
+    }
+
+    public static Builder builder(int expectedRows) {
+        return new Builder(expectedRows);
+    }
+
+    @Override
+    public AccountDto get(int index) {
+        int row = row(index);
+        return new AccountDto(LocalDate.ofEpochDay(columns.epochDays[row]),
+                columns.names.get(columns.nameCodes[row]),
+                columns.ids.get(columns.idCodes[row]),
+                columns.counts[row],
+                columns.prices[row],
+                columns.notes.get(columns.noteCodes[row]));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int epochDay(int index) {
+        return columns.epochDays[row(index)];
+    }
+
+    public int price(int index) {
+        return columns.prices[row(index)];
+    }
+
+    public int count(int index) {
+        return columns.counts[row(index)];
+    }
+
+    public int nameCode(int index) {
+        return columns.nameCodes[row(index)];
+    }
+
+    public int idCode(int index) {
+        return columns.idCodes[row(index)];
+    }
+
+    public int noteCode(int index) {
+        return columns.noteCodes[row(index)];
+    }
+
+    public StringDictionary names() {
+        return columns.names;
+    }
+
+    public StringDictionary ids() {
+        return columns.ids;
+    }
+
+    public StringDictionary notes() {
+        return columns.notes;
+    }
+
+    /**
+     * 日付が範囲内 (両端を含む) の明細のビューを返す (配列はコピーしない)
+     */
+    public ColumnarLedger range(int fromInclusive, int toInclusive) {
+        int lo = lowerBound(fromInclusive);
+        int hi = toInclusive == Integer.MAX_VALUE ? offset + size : lowerBound(toInclusive + 1);
+        if (hi < lo) hi = lo;
+        return new ColumnarLedger(columns, lo, hi - lo);
+    }
+
+    public ColumnarLedger range(LocalDate from, LocalDate to) {
+        return range((int) from.toEpochDay(), (int) to.toEpochDay());
+    }
+
+    /**
+     * 日付が範囲内 (両端を含む) の金額合計 (累積和の差で求める)
+     */
+    public long sumPrice(int fromInclusive, int toInclusive) {
+        int lo = lowerBound(fromInclusive);
+        int hi = toInclusive == Integer.MAX_VALUE ? offset + size : lowerBound(toInclusive + 1);
+        return hi <= lo ? 0 : columns.pricePrefix[hi] - columns.pricePrefix[lo];
+    }
+
+    public long sumPrice(LocalDate from, LocalDate to) {
+        return sumPrice((int) from.toEpochDay(), (int) to.toEpochDay());
+    }
+
+    /**
+     * ヒープ使用量の概算 (バイト)。ビューの場合も共有している列全体を数える
+     */
+    public long estimatedBytes() {
+        return 64 + 6L * 4 * columns.epochDays.length + 8L * columns.pricePrefix.length
+                + (columns.dayStart == null ? 0 : 4L * columns.dayStart.length)
+                + columns.names.estimatedBytes() + columns.ids.estimatedBytes() + columns.notes.estimatedBytes();
+    }
+
+    boolean sharesDictionariesWith(ColumnarLedger other) {
+        return columns.names == other.columns.names
+                && columns.ids == other.columns.ids
+                && columns.notes == other.columns.notes;
+    }
+
+    /**
+     * このビューの列を指定位置から書き写す
+     */
+    void copyColumns(int dest, int[] d, int[] p, int[] c, int[] nm, int[] id, int[] nt) {
+        System.arraycopy(columns.epochDays, offset, d, dest, size);
+        System.arraycopy(columns.prices, offset, p, dest, size);
+        System.arraycopy(columns.counts, offset, c, dest, size);
+        System.arraycopy(columns.nameCodes, offset, nm, dest, size);
+        System.arraycopy(columns.idCodes, offset, id, dest, size);
+        System.arraycopy(columns.noteCodes, offset, nt, dest, size);
+    }
+
+    private int row(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        return offset + index;
+    }
+
+    /**
+     * このビュー内で日付がday以上になる最初の行位置 (列配列上の位置)
+     */
+    private int lowerBound(int day) {
+        int from = offset;
+        int to = offset + size;
+        int pos;
+        int[] dayStart = columns.dayStart;
+        if (dayStart != null) {
+            long rel = (long) day - columns.minDay;
+            if (rel <= 0) pos = 0;
+            else if (rel >= dayStart.length) pos = columns.epochDays.length;
+            else pos = dayStart[(int) rel];
+        } else {
+            int lo = from;
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (columns.epochDays[mid] < day) lo = mid + 1;
+                else hi = mid;
+            }
+            pos = lo;
+        }
+        return Math.min(Math.max(pos, from), to);
+    }
+
+    public static final class Builder {
+        private int size;
+        private int[] epochDays;
+        private int[] prices;
+        private int[] counts;
+        private int[] nameCodes;
+        private int[] idCodes;
+        private int[] noteCodes;
+        private final StringDictionary.Builder names = new StringDictionary.Builder();
+        private final StringDictionary.Builder ids = new StringDictionary.Builder();
+        private final StringDictionary.Builder notes = new StringDictionary.Builder();
+
+        private Builder(int expectedRows) {
+            int capacity = Math.max(16, expectedRows);
+            epochDays = new int[capacity];
+            prices = new int[capacity];
+            counts = new int[capacity];
+            nameCodes = new int[capacity];
+            idCodes = new int[capacity];
+            noteCodes = new int[capacity];
+        }
+
+        public Builder add(AccountDto entry) {
+            return add((int) entry.getDate().toEpochDay(), entry.getName(), entry.getId(),
+                    entry.getCnt(), entry.getPrice(), entry.getNote());
+        }
+
+        public Builder add(int epochDay, String name, String id, int cnt, int price, String note) {
+            if (size == epochDays.length) {
+                int capacity = size * 2;
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                nameCodes = Arrays.copyOf(nameCodes, capacity);
+                idCodes = Arrays.copyOf(idCodes, capacity);
+                noteCodes = Arrays.copyOf(noteCodes, capacity);
+            }
+            epochDays[size] = epochDay;
+            prices[size] = price;
+            counts[size] = cnt;
+            nameCodes[size] = names.encode(name);
+            idCodes[size] = ids.encode(id);
+            noteCodes[size] = notes.encode(note);
+            size++;
+            return this;
+        }
+
+        /**
+         * 日付順 (同日内は追加順) に並べ替え、累積和と日付→行位置の表を作る
+         */
+        public ColumnarLedger build() {
+            return assemble(size, epochDays, prices, counts, nameCodes, idCodes, noteCodes,
+                    names.build(), ids.build(), notes.build());
+        }
+    }
+
+    /**
+     * 列配列から台帳を作る。日付順 (同日内は元の順) に並べ替え、累積和と日付→行位置の表を作る
+     */
+    static ColumnarLedger assemble(int n, int[] epochDays, int[] prices, int[] counts,
+                                   int[] nameCodes, int[] idCodes, int[] noteCodes,
+                                   StringDictionary names, StringDictionary ids, StringDictionary notes) {
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) epochDays[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[] d = new int[n];
+        int[] p = new int[n];
+        int[] c = new int[n];
+        int[] nm = new int[n];
+        int[] id = new int[n];
+        int[] nt = new int[n];
+        long[] prefix = new long[n + 1];
+        for (int j = 0; j < n; j++) {
+            int i = (int) order[j];
+            d[j] = epochDays[i];
+            p[j] = prices[i];
+            c[j] = counts[i];
+            nm[j] = nameCodes[i];
+            id[j] = idCodes[i];
+            nt[j] = noteCodes[i];
+            prefix[j + 1] = prefix[j] + p[j];
+        }
+
+        int minDay = n == 0 ? 0 : d[0];
+        int[] dayStart = null;
+        long span = n == 0 ? 0 : (long) d[n - 1] - minDay + 1;
+        if (span <= MAX_DAY_TABLE) {
+            dayStart = new int[(int) span];
+            int row = 0;
+            for (int rel = 0; rel < dayStart.length; rel++) {
+                while (row < n && d[row] - minDay < rel) row++;
+                dayStart[rel] = row;
+            }
+        }
+
+        Columns columns = new Columns(d, p, c, nm, id, nt, prefix, minDay, dayStart, names, ids, notes);
+        return new ColumnarLedger(columns, 0, n);
+    }
+}
@@ -0,0 +1,101 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.utils.IntSumMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 品目別・場所別の合計を1回の走査で集計する
+ * 品目のキーは台帳のID辞書コード、場所のキーは品目マスタの場所コード (マスタにないIDは UNKNOWN_LOCATION)。
+ */
+public final class ItemAggregation {
+    public static final String UNKNOWN_LOCATION = "未登録";
+
+    private static final int NO_LOCATION = -1;
+
+    private final ColumnarLedger ledger;
+    private final ItemMaster master;
+    private final int[] itemOfIdCode;
+    private final IntSumMap items;
+    private final IntSumMap itemCounts;
+    private final IntSumMap locations;
+    // マスタにないIDの品名 (最初に出てきた行の名前コード)
+    private final int[] nameCodeOfIdCode;
+
+    private ItemAggregation(ColumnarLedger ledger, ItemMaster master) {
+        this.ledger = ledger;
+        this.master = master;
+        this.itemOfIdCode = master.join(ledger.ids());
+        this.items = new IntSumMap(itemOfIdCode.length);
+        this.itemCounts = new IntSumMap(itemOfIdCode.length);
+        this.locations = new IntSumMap(master.locations().size() + 1);
+        this.nameCodeOfIdCode = new int[itemOfIdCode.length];
+        Arrays.fill(nameCodeOfIdCode, StringDictionary.NULL_CODE);
+    }
+
+    public static ItemAggregation of(List<AccountDto> entries, ItemMaster master) {
+        ItemAggregation aggregation = new ItemAggregation(ColumnarLedger.of(entries), master);
+        ColumnarLedger ledger = aggregation.ledger;
+        for (int i = 0; i < ledger.size(); i++) {
+            aggregation.add(ledger.idCode(i), ledger.nameCode(i), ledger.count(i), ledger.price(i));
+        }
+        return aggregation;
+    }
+
+    private void add(int idCode, int nameCode, int cnt, int price) {
+        items.add(idCode, price);
+        itemCounts.add(idCode, cnt);
+        int item = itemOfIdCode[idCode];
+        locations.add(item == ItemMaster.UNKNOWN ? NO_LOCATION : master.locationCode(item), price);
+        if (nameCodeOfIdCode[idCode] == StringDictionary.NULL_CODE) {
+            nameCodeOfIdCode[idCode] = nameCode;
+        }
+    }
+
+    /**
+     * 品目別の合計 (金額の大きい順)
+     */
+    public List<SummaryDto.ItemSummary> items() {
+        List<SummaryDto.ItemSummary> result = new ArrayList<>(items.size());
+        for (int idCode : items.sortedKeys()) {
+            int item = itemOfIdCode[idCode];
+            boolean known = item != ItemMaster.UNKNOWN;
+            result.add(new SummaryDto.ItemSummary(
+                    ledger.ids().get(idCode),
+                    known ? master.name(item) : ledger.names().get(nameCodeOfIdCode[idCode]),
+                    known ? master.locations().get(master.locationCode(item)) : null,
+                    known ? master.referencePrice(item) : 0,
+                    (int) itemCounts.sum(idCode),
+                    (int) items.sum(idCode),
+                    items.count(idCode)));
+        }
+        result.sort(Comparator.comparingInt(SummaryDto.ItemSummary::getTotalAmount).reversed());
+        return result;
+    }
+
+    /**
+     * 場所別の合計 (金額の大きい順)。items はその場所で買った品目の種類数
+     */
+    public List<SummaryDto.LocationSummary> locations() {
+        IntSumMap itemsPerLocation = new IntSumMap(locations.size());
+        for (int idCode : items.sortedKeys()) {
+            int item = itemOfIdCode[idCode];
+            itemsPerLocation.add(item == ItemMaster.UNKNOWN ? NO_LOCATION : master.locationCode(item), 0);
+        }
+        List<SummaryDto.LocationSummary> result = new ArrayList<>(locations.size());
+        for (int code : locations.sortedKeys()) {
+            result.add(new SummaryDto.LocationSummary(
+                    code == NO_LOCATION ? UNKNOWN_LOCATION : master.locations().get(code),
+                    (int) locations.sum(code),
+                    locations.count(code),
+                    itemsPerLocation.count(code)));
+        }
+        result.sort(Comparator.comparingInt(SummaryDto.LocationSummary::getTotalAmount).reversed());
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.ItemCodeDto;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * item-codeシートの品目マスタ (IDをキーとするハッシュ索引)
+ * 場所は辞書コードで持ち、場所別の集計にそのまま使う。同じIDが複数行ある場合は先の行を使う。
+ */
+public final class ItemMaster {
+    public static final int UNKNOWN = -1;
+
+    private static final ItemMaster EMPTY = of(List.of());
+
+    private final Map<String, Integer> index;
+    private final String[] names;
+    private final int[] locationCodes;
+    private final int[] prices;
+    private final StringDictionary locations;
+
+    private ItemMaster(Map<String, Integer> index, String[] names, int[] locationCodes, int[] prices,
+                       StringDictionary locations) {
+        this.index = index;
+        this.names = names;
+        this.locationCodes = locationCodes;
+        this.prices = prices;
+        this.locations = locations;
+    }
+
+    public static ItemMaster of(List<ItemCodeDto> items) {
+        Map<String, Integer> index = new HashMap<>(items.size() * 2);
+        String[] names = new String[items.size()];
+        int[] locationCodes = new int[items.size()];
+        int[] prices = new int[items.size()];
+        StringDictionary.Builder locations = new StringDictionary.Builder();
+        int n = 0;
+        for (ItemCodeDto item : items) {
+            if (index.putIfAbsent(item.getId(), n) != null) continue;
+            names[n] = item.getName();
+            locationCodes[n] = locations.encode(item.getLocation());
+            prices[n] = item.getPrice();
+            n++;
+        }
+        return new ItemMaster(index, names, locationCodes, prices, locations.build());
+    }
+
+    public static ItemMaster empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 品目の位置。マスタにないIDは UNKNOWN
+     */
+    public int indexOf(String id) {
+        Integer item = id == null ? null : index.get(id);
+        return item == null ? UNKNOWN : item;
+    }
+
+    /**
+     * 台帳のID辞書の各コードに対応する品目の位置 (ハッシュ引きはIDの種類数だけで、行数によらない)
+     */
+    public int[] join(StringDictionary ids) {
+        int[] items = new int[ids.size()];
+        for (int code = 0; code < items.length; code++) {
+            items[code] = indexOf(ids.get(code));
+        }
+        return items;
+    }
+
+    public String name(int item) {
+        return names[item];
+    }
+
+    public int locationCode(int item) {
+        return locationCodes[item];
+    }
+
+    public int referencePrice(int item) {
+        return prices[item];
+    }
+
+    public StringDictionary locations() {
+        return locations;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * ヒープ使用量の概算 (バイト)。索引のエントリ・ID・品目名・場所の辞書を数える
+     */
+    public long estimatedBytes() {
+        long bytes = 64 + 8L * index.size() * 2 + 16L * names.length + locations.estimatedBytes();
+        for (String id : index.keySet()) {
+            // HashMapのエントリ・Integer・IDの文字列
+            bytes += 48 + 16 + 40 + 2L * id.length();
+        }
+        for (int i = 0; i < index.size(); i++) {
+            bytes += names[i] == null ? 0 : 40 + 2L * names[i].length();
+        }
+        return bytes;
+    }
+}
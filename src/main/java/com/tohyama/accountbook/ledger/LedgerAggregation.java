@@ -0,0 +1,133 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.utils.DateUtils;
+import com.tohyama.accountbook.utils.IntSumMap;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 日・週 (月曜始まり)・月の合計と件数を1回の走査で集計する
+ * キーはエポック日・週の月曜日のエポック日・year*12+(month-1)。
+ * 部分集計同士はmergeで合算できる (シート単位・差分取り込みの結果を結合する用途)。
+ * 1つの粒度だけが必要な場合はofDays/ofWeeks/ofMonthsで、その粒度だけを集計する (他の粒度は参照できない)。
+ */
+public final class LedgerAggregation {
+    private final IntSumMap days;
+    private final IntSumMap weeks;
+    private final IntSumMap months;
+
+    // 同じ日付が続く場合は週・月キーの計算を省く
+    private int lastDay = Integer.MIN_VALUE;
+    private int lastMonday;
+    private int lastMonthKey;
+
+    private LedgerAggregation(boolean days, boolean weeks, boolean months) {
+        this.days = days ? new IntSumMap(512) : null;
+        this.weeks = weeks ? new IntSumMap(128) : null;
+        this.months = months ? new IntSumMap(32) : null;
+    }
+
+    public static LedgerAggregation of(List<AccountDto> entries) {
+        return scan(entries, new LedgerAggregation(true, true, true));
+    }
+
+    public static LedgerAggregation ofDays(List<AccountDto> entries) {
+        return scan(entries, new LedgerAggregation(true, false, false));
+    }
+
+    public static LedgerAggregation ofWeeks(List<AccountDto> entries) {
+        return scan(entries, new LedgerAggregation(false, true, false));
+    }
+
+    public static LedgerAggregation ofMonths(List<AccountDto> entries) {
+        return scan(entries, new LedgerAggregation(false, false, true));
+    }
+
+    private static LedgerAggregation scan(List<AccountDto> entries, LedgerAggregation aggregation) {
+        if (entries instanceof ColumnarLedger ledger) {
+            for (int i = 0; i < ledger.size(); i++) {
+                aggregation.add(ledger.epochDay(i), ledger.price(i));
+            }
+        } else {
+            for (AccountDto entry : entries) {
+                aggregation.add((int) entry.getDate().toEpochDay(), entry.getPrice());
+            }
+        }
+        return aggregation;
+    }
+
+    public void add(int epochDay, int price) {
+        if (epochDay != lastDay) {
+            lastDay = epochDay;
+            if (weeks != null) lastMonday = DateUtils.mondayOf(epochDay);
+            if (months != null) lastMonthKey = DateUtils.yearMonthKey(epochDay);
+        }
+        if (days != null) days.add(epochDay, price);
+        if (weeks != null) weeks.add(lastMonday, price);
+        if (months != null) months.add(lastMonthKey, price);
+    }
+
+    /**
+     * 別の部分集計を取り込む (thisを返す)。thisが集計している粒度はotherも集計している必要がある
+     */
+    public LedgerAggregation merge(LedgerAggregation other) {
+        if (days != null) days.merge(require(other.days, "日"));
+        if (weeks != null) weeks.merge(require(other.weeks, "週"));
+        if (months != null) months.merge(require(other.months, "月"));
+        return this;
+    }
+
+    public List<SummaryDto.DaillySummary> daily() {
+        IntSumMap days = require(this.days, "日");
+        List<SummaryDto.DaillySummary> result = new ArrayList<>(days.size());
+        for (int day : days.sortedKeys()) {
+            result.add(new SummaryDto.DaillySummary(LocalDate.ofEpochDay(day), (int) days.sum(day)));
+        }
+        return result;
+    }
+
+    public List<SummaryDto.WeeklySummary> weekly() {
+        IntSumMap weeks = require(this.weeks, "週");
+        List<SummaryDto.WeeklySummary> result = new ArrayList<>(weeks.size());
+        for (int monday : weeks.sortedKeys()) {
+            LocalDate weekStart = LocalDate.ofEpochDay(monday);
+            result.add(new SummaryDto.WeeklySummary(weekStart, weekStart.plusDays(6), (int) weeks.sum(monday)));
+        }
+        return result;
+    }
+
+    public List<SummaryDto.MonthlySummary> monthly() {
+        IntSumMap months = require(this.months, "月");
+        List<SummaryDto.MonthlySummary> result = new ArrayList<>(months.size());
+        for (int key : months.sortedKeys()) {
+            result.add(new SummaryDto.MonthlySummary(DateUtils.yearOf(key), DateUtils.monthOf(key), (int) months.sum(key)));
+        }
+        return result;
+    }
+
+    public SummaryDto.MonthlySummary month(int year, int month) {
+        return new SummaryDto.MonthlySummary(year, month,
+                (int) require(months, "月").sum(DateUtils.yearMonthKey(year, month)));
+    }
+
+    public int dayCount(LocalDate date) {
+        return require(days, "日").count((int) date.toEpochDay());
+    }
+
+    public int weekCount(LocalDate date) {
+        return require(weeks, "週").count(DateUtils.mondayOf((int) date.toEpochDay()));
+    }
+
+    public int monthCount(int year, int month) {
+        return require(months, "月").count(DateUtils.yearMonthKey(year, month));
+    }
+
+    private static IntSumMap require(IntSumMap sums, String unit) {
+        if (sums == null) throw new IllegalStateException(unit + "別の集計はしていません。");
+        return sums;
+    }
+}
@@ -0,0 +1,219 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.utils.IntSumMap;
+import com.tohyama.accountbook.utils.QuantileSketch;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+/**
+ * 期間の明細を1回走査し、金額・個数の上位品目、金額の大きい明細、日ごとの合計の分布を求める
+ * 上位はK件の最小ヒープで選び、日ごとの合計は分位点スケッチに入れるので、時間は行数に比例し、
+ * メモリは品目の種類数・K・スケッチの大きさまでで済む。明細のない日は合計0の日として数える。
+ */
+public final class LedgerAnalytics {
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final int MAX_BUCKETS = 1024;
+
+    private final ColumnarLedger ledger;
+    private final ItemMaster master;
+    private final int k;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final int[] itemOfIdCode;
+    private final IntSumMap prices;
+    private final IntSumMap counts;
+    // マスタにないIDの品名 (最初に出てきた行の名前コード)
+    private final int[] nameCodeOfIdCode;
+    private final TopK largest;
+    private final QuantileSketch dailyTotals = new QuantileSketch(RELATIVE_ACCURACY, MAX_BUCKETS);
+    private long total;
+    private int activeDays;
+
+    private LedgerAnalytics(ColumnarLedger ledger, ItemMaster master, int k, LocalDate from, LocalDate to) {
+        this.ledger = ledger;
+        this.master = master;
+        this.k = Math.max(0, k);
+        this.from = from;
+        this.to = to;
+        this.itemOfIdCode = master.join(ledger.ids());
+        this.prices = new IntSumMap(itemOfIdCode.length);
+        this.counts = new IntSumMap(itemOfIdCode.length);
+        this.nameCodeOfIdCode = new int[itemOfIdCode.length];
+        Arrays.fill(nameCodeOfIdCode, StringDictionary.NULL_CODE);
+        this.largest = new TopK(this.k, ledger::price);
+    }
+
+    /**
+     * fromからtoまで (両端を含む) の明細を集計する。kは上位を返す件数
+     */
+    public static LedgerAnalytics of(List<AccountDto> entries, LocalDate from, LocalDate to, ItemMaster master, int k) {
+        ColumnarLedger period = ColumnarLedger.of(entries).range(from, to);
+        LedgerAnalytics analytics = new LedgerAnalytics(period, master, k, from, to);
+        analytics.scan((int) from.toEpochDay(), (int) to.toEpochDay());
+        return analytics;
+    }
+
+    private void scan(int fromDay, int toDay) {
+        if (toDay < fromDay) return;
+        // 台帳は日付順なので、日が変わるたびに前の日の合計 (間の明細のない日は0) をスケッチに入れる
+        int day = fromDay;
+        long dayTotal = 0;
+        int lastDay = Integer.MIN_VALUE;
+        for (int i = 0; i < ledger.size(); i++) {
+            int epochDay = ledger.epochDay(i);
+            if (epochDay != lastDay) {
+                activeDays++;
+                lastDay = epochDay;
+                if (epochDay != day) {
+                    dailyTotals.add(dayTotal);
+                    dailyTotals.add(0, epochDay - day - 1L);
+                    day = epochDay;
+                    dayTotal = 0;
+                }
+            }
+            int idCode = ledger.idCode(i);
+            int price = ledger.price(i);
+            prices.add(idCode, price);
+            counts.add(idCode, ledger.count(i));
+            if (nameCodeOfIdCode[idCode] == StringDictionary.NULL_CODE) {
+                nameCodeOfIdCode[idCode] = ledger.nameCode(i);
+            }
+            largest.offer(i);
+            dayTotal += price;
+            total += price;
+        }
+        dailyTotals.add(dayTotal);
+        dailyTotals.add(0, (long) toDay - day);
+    }
+
+    public SummaryDto.PeriodAnalytics toSummary() {
+        return new SummaryDto.PeriodAnalytics(from, to, (int) total, ledger.size(), daily(),
+                topItems(prices::sum), topItems(counts::sum), largestRows());
+    }
+
+    /**
+     * 日ごとの合計の分布 (中央値・90パーセンタイルは近似値)
+     */
+    public SummaryDto.DailyDistribution daily() {
+        long days = dailyTotals.count();
+        return new SummaryDto.DailyDistribution((int) days, activeDays,
+                days == 0 ? 0 : (int) (dailyTotals.sum() / days),
+                (int) dailyTotals.quantile(0.5), (int) dailyTotals.quantile(0.9), (int) dailyTotals.max());
+    }
+
+    /**
+     * metricの大きい品目の上位k件 (品目の種類数×log k)
+     */
+    private List<SummaryDto.ItemSummary> topItems(IntToLongFunction metric) {
+        TopK top = new TopK(k, metric);
+        for (int idCode : prices.sortedKeys()) {
+            top.offer(idCode);
+        }
+        List<SummaryDto.ItemSummary> result = new ArrayList<>(k);
+        for (int idCode : top.sorted()) {
+            int item = itemOfIdCode[idCode];
+            boolean known = item != ItemMaster.UNKNOWN;
+            result.add(new SummaryDto.ItemSummary(
+                    ledger.ids().get(idCode),
+                    known ? master.name(item) : ledger.names().get(nameCodeOfIdCode[idCode]),
+                    known ? master.locations().get(master.locationCode(item)) : null,
+                    known ? master.referencePrice(item) : 0,
+                    (int) counts.sum(idCode),
+                    (int) prices.sum(idCode),
+                    prices.count(idCode)));
+        }
+        return result;
+    }
+
+    /**
+     * 金額の大きい明細の上位k件 (同額は日付の早い方)
+     */
+    private List<AccountDto> largestRows() {
+        int[] rows = largest.sorted();
+        List<AccountDto> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(ledger.get(row));
+        }
+        return result;
+    }
+
+    /**
+     * 値の大きい上位k件を保持する最小ヒープ (要素はint、値はmetricで引く。同値は要素の小さい方を上位にする)
+     */
+    private static final class TopK {
+        private final int[] heap;
+        private final IntToLongFunction metric;
+        private int size;
+
+        private TopK(int k, IntToLongFunction metric) {
+            this.heap = new int[k];
+            this.metric = metric;
+        }
+
+        private void offer(int element) {
+            if (size < heap.length) {
+                heap[size] = element;
+                siftUp(size++);
+            } else if (size > 0 && lower(heap[0], element)) {
+                heap[0] = element;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * 上位から順に並べた要素 (kは小さいので挿入ソートで並べる)
+         */
+        private int[] sorted() {
+            int[] result = Arrays.copyOf(heap, size);
+            for (int i = 1; i < result.length; i++) {
+                int element = result[i];
+                int j = i - 1;
+                while (j >= 0 && lower(result[j], element)) {
+                    result[j + 1] = result[j];
+                    j--;
+                }
+                result[j + 1] = element;
+            }
+            return result;
+        }
+
+        // aがbより下位
+        private boolean lower(int a, int b) {
+            long va = metric.applyAsLong(a);
+            long vb = metric.applyAsLong(b);
+            return va != vb ? va < vb : a > b;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!lower(heap[i], heap[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) break;
+                int child = left + 1 < size && lower(heap[left + 1], heap[left]) ? left + 1 : left;
+                if (!lower(heap[child], heap[i])) break;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int t = heap[i];
+            heap[i] = heap[j];
+            heap[j] = t;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.tohyama.accountbook.ledger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 解析済み台帳のバイナリスナップショット
+ * <pre>
+ * ヘッダー   : マジック, バージョン, 元ファイルの更新日時・サイズ・ハッシュ
+ * 差分情報   : スタイルのダイジェスト, 共有文字列
+ * 辞書       : 名前・ID・備考
+ * シート情報 : シート名, ダイジェスト, 行数 (シート情報がない場合は0件)
+ * 行         : 6つのint (エポック日, 金額, 数量, 名前・ID・備考コード) の固定長
+ * </pre>
+ * 読み込みはファイル全体を1回で読み、行はIntBufferからまとめて配列にコピーする。
+ * メモリマップは使わない (解放がGC任せになり、Windowsではその間スナップショットを置き換え・削除できないため)。
+ */
+public final class LedgerSnapshot {
+    private static final int MAGIC = 0x41425331;
+    private static final int VERSION = 1;
+    private static final int ROW_INTS = 6;
+    // マジック, バージョン, 更新日時, サイズ, ハッシュの長さ
+    private static final int HEADER_FIXED_BYTES = 4 + 4 + 8 + 8 + 4;
+
+    /**
+     * 元ファイルの識別情報 (hashは未計算ならnull)
+     */
+    public record Header(long sourceLastModified, long sourceSize, String sourceHash) {
+    }
+
+    public record Loaded(Header header, ColumnarLedger ledger, WorkbookState state) {
+    }
+
+    private LedgerSnapshot() {
+    }
+
+    /**
+     * 同じディレクトリの一時ファイル (書き込みごとに別名) に書き出し、ディスクに書き切ってから置き換える
+     * stateがあればシート単位で、なければ台帳の行順で書く。
+     */
+    public static void write(Path file, Header header, ColumnarLedger ledger, WorkbookState state) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                writeBody(out, header, ledger, state);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeBody(DataOutputStream out, Header header, ColumnarLedger ledger, WorkbookState state)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(header.sourceLastModified());
+        out.writeLong(header.sourceSize());
+        writeString(out, header.sourceHash());
+
+        List<SheetSegment> segments = state == null ? List.of() : state.segments();
+        writeString(out, state == null ? null : state.stylesDigest());
+        writeStrings(out, state == null ? null : state.sharedStrings());
+
+        StringDictionary names = ledger.names();
+        StringDictionary ids = ledger.ids();
+        StringDictionary notes = ledger.notes();
+        writeDictionary(out, names);
+        writeDictionary(out, ids);
+        writeDictionary(out, notes);
+
+        out.writeInt(segments.size());
+        for (SheetSegment segment : segments) {
+            writeString(out, segment.sheetName());
+            writeString(out, segment.digest());
+            out.writeInt(segment.entries().size());
+        }
+
+        out.writeInt(ledger.size());
+        if (segments.isEmpty()) {
+            writeRows(out, ledger, null, null, null);
+        } else {
+            Map<String, Integer> nameCodes = codes(names);
+            Map<String, Integer> idCodes = codes(ids);
+            Map<String, Integer> noteCodes = codes(notes);
+            for (SheetSegment segment : segments) {
+                ColumnarLedger entries = segment.entries();
+                writeRows(out, entries,
+                        translate(entries.names(), nameCodes),
+                        translate(entries.ids(), idCodes),
+                        translate(entries.notes(), noteCodes));
+            }
+        }
+    }
+
+    /**
+     * 先頭のヘッダーだけを読む (元ファイルと一致するかの判定用)
+     */
+    public static Header readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(HEADER_FIXED_BYTES);
+            readFully(channel, fixed);
+            fixed.flip();
+            if (fixed.getInt() != MAGIC || fixed.getInt() != VERSION) {
+                throw new IOException("スナップショットの形式が不正です。");
+            }
+            long sourceLastModified = fixed.getLong();
+            long sourceSize = fixed.getLong();
+            int hashLength = fixed.getInt();
+            if (hashLength < 0) {
+                return new Header(sourceLastModified, sourceSize, null);
+            }
+            if (hashLength > channel.size()) {
+                throw new IOException("スナップショットの形式が不正です。");
+            }
+            ByteBuffer hash = ByteBuffer.allocate(hashLength);
+            readFully(channel, hash);
+            return new Header(sourceLastModified, sourceSize, new String(hash.array(), StandardCharsets.UTF_8));
+        }
+    }
+
+    public static Loaded read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            Header header = readHeader(buffer);
+
+            String stylesDigest = readString(buffer);
+            List<String> sharedStrings = readStrings(buffer);
+            StringDictionary names = StringDictionary.of(readStrings(buffer).toArray(String[]::new));
+            StringDictionary ids = StringDictionary.of(readStrings(buffer).toArray(String[]::new));
+            StringDictionary notes = StringDictionary.of(readStrings(buffer).toArray(String[]::new));
+
+            int segmentCount = buffer.getInt();
+            String[] sheetNames = new String[segmentCount];
+            String[] digests = new String[segmentCount];
+            int[] rowCounts = new int[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                sheetNames[i] = readString(buffer);
+                digests[i] = readString(buffer);
+                rowCounts[i] = buffer.getInt();
+            }
+
+            int n = buffer.getInt();
+            int[] d = new int[n], p = new int[n], c = new int[n];
+            int[] nm = new int[n], id = new int[n], nt = new int[n];
+            IntBuffer rows = buffer.slice(buffer.position(), n * ROW_INTS * Integer.BYTES).asIntBuffer();
+            int[] row = new int[ROW_INTS];
+            for (int i = 0; i < n; i++) {
+                rows.get(row);
+                d[i] = row[0];
+                p[i] = row[1];
+                c[i] = row[2];
+                nm[i] = row[3];
+                id[i] = row[4];
+                nt[i] = row[5];
+            }
+
+            if (segmentCount == 0) {
+                return new Loaded(header, ColumnarLedger.assemble(n, d, p, c, nm, id, nt, names, ids, notes), null);
+            }
+            List<SheetSegment> segments = new ArrayList<>(segmentCount);
+            int from = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                int to = from + rowCounts[i];
+                ColumnarLedger entries = ColumnarLedger.assemble(rowCounts[i],
+                        Arrays.copyOfRange(d, from, to), Arrays.copyOfRange(p, from, to),
+                        Arrays.copyOfRange(c, from, to), Arrays.copyOfRange(nm, from, to),
+                        Arrays.copyOfRange(id, from, to), Arrays.copyOfRange(nt, from, to),
+                        names, ids, notes);
+                segments.add(new SheetSegment(sheetNames[i], digests[i], entries));
+                from = to;
+            }
+            WorkbookState state = new WorkbookState(List.copyOf(segments), stylesDigest, sharedStrings, 0);
+            return new Loaded(header, state.toLedger(), state);
+        } catch (RuntimeException e) {
+            // 途中で切れている・形式が違うファイルは読み込み失敗として扱う
+            throw new IOException("スナップショットの形式が不正です: " + file, e);
+        }
+    }
+
+    private static Header readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("スナップショットの形式が不正です。");
+        }
+        return new Header(buffer.getLong(), buffer.getLong(), readString(buffer));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("スナップショットの形式が不正です。");
+            }
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, ColumnarLedger ledger,
+                                  int[] nameMap, int[] idMap, int[] noteMap) throws IOException {
+        for (int i = 0; i < ledger.size(); i++) {
+            out.writeInt(ledger.epochDay(i));
+            out.writeInt(ledger.price(i));
+            out.writeInt(ledger.count(i));
+            out.writeInt(remap(ledger.nameCode(i), nameMap));
+            out.writeInt(remap(ledger.idCode(i), idMap));
+            out.writeInt(remap(ledger.noteCode(i), noteMap));
+        }
+    }
+
+    private static int remap(int code, int[] map) {
+        return map == null || code == StringDictionary.NULL_CODE ? code : map[code];
+    }
+
+    private static Map<String, Integer> codes(StringDictionary dictionary) {
+        Map<String, Integer> codes = new HashMap<>(dictionary.size() * 2);
+        for (int i = 0; i < dictionary.size(); i++) {
+            codes.put(dictionary.get(i), i);
+        }
+        return codes;
+    }
+
+    /**
+     * シートの辞書コード → 全体の辞書コードの対応表
+     */
+    private static int[] translate(StringDictionary local, Map<String, Integer> global) {
+        int[] map = new int[local.size()];
+        for (int i = 0; i < map.length; i++) {
+            map[i] = global.get(local.get(i));
+        }
+        return map;
+    }
+
+    private static void writeDictionary(DataOutputStream out, StringDictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            writeString(out, dictionary.get(i));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0) return null;
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
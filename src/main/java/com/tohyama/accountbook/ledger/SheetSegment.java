@@ -0,0 +1,7 @@
+package com.tohyama.accountbook.ledger;
+
+/**
+ * 1シート分の明細と、そのシートXMLのダイジェスト
+ */
+public record SheetSegment(String sheetName, String digest, ColumnarLedger entries) {
+}
@@ -0,0 +1,60 @@
+package com.tohyama.accountbook.ledger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 文字列を連番のコードに置き換える辞書 (同じ文字列は1インスタンスだけ保持する)
+ */
+public final class StringDictionary {
+    public static final int NULL_CODE = -1;
+
+    private final String[] values;
+
+    private StringDictionary(String[] values) {
+        this.values = values;
+    }
+
+    public static StringDictionary of(String[] values) {
+        return new StringDictionary(values.clone());
+    }
+
+    public String get(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    long estimatedBytes() {
+        long bytes = 16 + 4L * values.length;
+        for (String value : values) {
+            bytes += 40 + 2L * value.length();
+        }
+        return bytes;
+    }
+
+    static final class Builder {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+
+        int encode(String value) {
+            if (value == null) return NULL_CODE;
+            Integer code = codes.get(value);
+            if (code != null) return code;
+            int next = codes.size();
+            if (next == values.length) {
+                values = Arrays.copyOf(values, next * 2);
+            }
+            values[next] = value;
+            codes.put(value, next);
+            return next;
+        }
+
+        StringDictionary build() {
+            return new StringDictionary(Arrays.copyOf(values, codes.size()));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.tohyama.accountbook.ledger;
+
+import java.util.List;
+
+/**
+ * 差分取り込みのために保持するワークブックの状態
+ * シートごとの明細とダイジェスト、スタイルのダイジェスト、共有文字列の一覧を持つ。
+ * parsedSheetsはこの状態を作ったときに実際に解析したシート数。
+ */
+public record WorkbookState(List<SheetSegment> segments, String stylesDigest, List<String> sharedStrings,
+                            int parsedSheets) {
+
+    /**
+     * 全シートの明細を結合した台帳
+     */
+    public ColumnarLedger toLedger() {
+        return ColumnarLedger.concat(segments.stream().map(SheetSegment::entries).toList());
+    }
+
+    /**
+     * ヒープ使用量の概算 (バイト)。シートごとの明細と共有文字列を数える
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (SheetSegment segment : segments) {
+            bytes += segment.entries().estimatedBytes();
+        }
+        if (sharedStrings != null) {
+            bytes += 16 + 8L * sharedStrings.size();
+            for (String value : sharedStrings) {
+                bytes += value == null ? 0 : 40 + 2L * value.length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,206 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.GeminiDto;
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.ledger.ItemMaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数月・複数モデルの月別リポートをまとめて作成する (ReportJobServiceのジョブとして実行する)
+ * 台帳・品目マスタの読み込みは1回だけ (台帳の実行枠を取って) 行い、
+ * Gemini呼び出しは同時実行数とモデルごとの間隔を制限して並列に行う。
+ * 同時実行数の枠は一括作成全体で共有し、モデルごとの間隔を待ってから枠を取る (待っている間は枠を塞がない)。
+ */
+@Service
+public class BatchReportService {
+    private static final Logger log = LoggerFactory.getLogger(BatchReportService.class);
+    private static final int MAX_ITEMS = 120;
+
+    private final ExcelParser excelParser;
+    private final GeminiProxy geminiProxy;
+    private final ReportFileService reportFileService;
+    private final Environment environment;
+    private final LedgerRegistry ledgerRegistry;
+    private final Semaphore permits;
+    private final Map<String, ModelPacer> pacers = new ConcurrentHashMap<>();
+
+    @Value("${report.save.directory:C:/Temp/reports}")
+    private String defaultSaveDirectory;
+
+    @Value("${ai.report.batch.requests-per-minute.default:10}")
+    private int defaultRequestsPerMinute;
+
+    public BatchReportService(ExcelParser excelParser, GeminiProxy geminiProxy,
+                              ReportFileService reportFileService, Environment environment,
+                              LedgerRegistry ledgerRegistry,
+                              @Value("${ai.report.batch.max-concurrent:3}") int maxConcurrent) {
+        this.excelParser = excelParser;
+        this.geminiProxy = geminiProxy;
+        this.reportFileService = reportFileService;
+        this.environment = environment;
+        this.ledgerRegistry = ledgerRegistry;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    /**
+     * 検証済みの一括作成の条件
+     */
+    public record Plan(YearMonth from, YearMonth to, List<YearMonth> months, List<String> models,
+                       String saveDir, String ledgerId, String excelFilePath) {
+    }
+
+    /**
+     * モデルごとのリクエスト間隔を空ける (直前の予約時刻から一定間隔後に次を予約する)
+     */
+    private static class ModelPacer {
+        private final long intervalNanos;
+        private long nextNanos = System.nanoTime();
+
+        private ModelPacer(int requestsPerMinute) {
+            this.intervalNanos = requestsPerMinute <= 0 ? 0 : TimeUnit.MINUTES.toNanos(1) / requestsPerMinute;
+        }
+
+        private void await() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextNanos);
+                nextNanos = slot + intervalNanos;
+                waitNanos = slot - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    /**
+     * 条件を検証する (不正な場合はIllegalArgumentException)。ジョブの登録前に呼ぶ
+     */
+    public Plan plan(YearMonth from, YearMonth to, List<String> modelNames, String directory, String ledgerId) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("fromはto以前の年月を指定してください。");
+        }
+        List<String> models = modelNames == null || modelNames.isEmpty()
+                ? List.of(consts.geminiFlash3) : List.copyOf(new LinkedHashSet<>(modelNames));
+        for (String modelName : models) {
+            ReportJobService.validateModelName(modelName);
+        }
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth ym = from; !ym.isAfter(to); ym = ym.plusMonths(1)) {
+            months.add(ym);
+        }
+        if (months.size() * models.size() > MAX_ITEMS) {
+            throw new IllegalArgumentException("一度に作成できるリポートは" + MAX_ITEMS + "件までです。");
+        }
+        String saveDir = (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
+        return new Plan(from, to, List.copyOf(months), models, saveDir, ledgerId, ledgerRegistry.pathOf(ledgerId));
+    }
+
+    @SuppressWarnings("unchecked")
+    public ReportJobDto.BatchManifest generate(Plan plan) throws Exception {
+        String excelFilePath = plan.excelFilePath();
+        String ledgerId = plan.ledgerId();
+        List<String> models = plan.models();
+
+        long start = System.nanoTime();
+        List<AccountDto> allData;
+        ItemMaster master;
+        try (LedgerRegistry.Permit ignored = ledgerRegistry.acquireWaiting(ledgerId)) {
+            allData = (List<AccountDto>) excelParser.extractAccountData(excelFilePath, "month");
+            master = excelParser.extractItemMaster(excelFilePath);
+        }
+        long parseNanos = System.nanoTime() - start;
+
+        List<Future<ReportJobDto.BatchItem>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (YearMonth ym : plan.months()) {
+                SummaryDto.MonthlyBreakdown summary = ReportGeneratorImpl.monthlyBreakdown(excelParser, allData, master,
+                        ym.getYear(), ym.getMonthValue());
+                for (String modelName : models) {
+                    futures.add(executor.submit(() -> generateOne(summary, modelName, plan.saveDir(), ledgerId)));
+                }
+            }
+        }
+
+        List<ReportJobDto.BatchItem> items = new ArrayList<>(futures.size());
+        int succeeded = 0;
+        for (Future<ReportJobDto.BatchItem> future : futures) {
+            ReportJobDto.BatchItem item = future.get();
+            items.add(item);
+            if (item.getStatus() == ReportJobDto.Status.SUCCEEDED) {
+                succeeded++;
+            }
+        }
+        long totalNanos = System.nanoTime() - start;
+        log.info("一括リポート作成 {}～{} models={} 成功={} 失敗={} 解析={}ms 合計={}ms", plan.from(), plan.to(), models,
+                succeeded, items.size() - succeeded, parseNanos / 1_000_000, totalNanos / 1_000_000);
+        return new ReportJobDto.BatchManifest(plan.from().toString(), plan.to().toString(), models, parseNanos / 1_000_000,
+                totalNanos / 1_000_000, succeeded, items.size() - succeeded, items);
+    }
+
+    private ReportJobDto.BatchItem generateOne(SummaryDto.MonthlyBreakdown summary, String modelName,
+                                               String saveDir, String ledgerId) {
+        long queued = System.nanoTime();
+        long waitNanos = 0;
+        long started = queued;
+        try {
+            pacerOf(modelName).await();
+            permits.acquire();
+            try {
+                started = System.nanoTime();
+                waitNanos = started - queued;
+                GeminiDto.GeminiProxyRequest request = new GeminiDto.GeminiProxyRequest("monthly", summary, modelName);
+                String report = geminiProxy.analyze(request).getReport();
+                String fileName = ReportFileServiceImpl.generateFileName(summary.getYear(), summary.getMonth(), modelName);
+                if (!LedgerRegistry.isDefault(ledgerId)) {
+                    fileName = ledgerId + "-" + fileName;
+                }
+                ReportDto saved = reportFileService.saveReport(report, fileName, saveDir,
+                        new ReportDto(null, "monthly", null, summary.getYear(), summary.getMonth(), modelName,
+                                null, null, 0, null, LedgerRegistry.idOf(ledgerId)));
+                return new ReportJobDto.BatchItem(summary.getYear(), summary.getMonth(), modelName,
+                        ReportJobDto.Status.SUCCEEDED, saved.getFilePath(), saved.getId(), waitNanos / 1_000_000,
+                        (System.nanoTime() - started) / 1_000_000, null);
+            } finally {
+                permits.release();
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("月別リポート作成失敗 {}-{} model={}: {}", summary.getYear(), summary.getMonth(), modelName, e.getMessage());
+            return new ReportJobDto.BatchItem(summary.getYear(), summary.getMonth(), modelName,
+                    ReportJobDto.Status.FAILED, null, null, waitNanos / 1_000_000,
+                    (System.nanoTime() - started) / 1_000_000, "エラー発生: " + e.getMessage());
+        }
+    }
+
+    /**
+     * ai.report.batch.requests-per-minute.<モデル名> があればそれを、なければdefaultを使う (0は制限なし)
+     */
+    private ModelPacer pacerOf(String modelName) {
+        return pacers.computeIfAbsent(modelName, m -> new ModelPacer(environment.getProperty(
+                "ai.report.batch.requests-per-minute." + m, Integer.class, defaultRequestsPerMinute)));
+    }
+}
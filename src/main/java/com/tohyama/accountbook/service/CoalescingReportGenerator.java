@@ -0,0 +1,145 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportJobDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 同じ条件のリポート作成が同時に来た場合、最初の1件だけを実行し、残りはその結果を待って受け取る
+ * 条件は (種別, 年, 月, モデル, 台帳ファイル, その版)。待機は上限時間で打ち切る。
+ * 実行枠 (generateReportのadmission) は実行する最初の1件だけが取り、結果を待つ呼び出しは取らない
+ * (台帳の枠が1つでも、実行中の作成と同じ条件の要求はその完了を待てる)。
+ */
+@Service
+@Primary
+public class CoalescingReportGenerator implements ReportGenerator {
+    private static final Logger log = LoggerFactory.getLogger(CoalescingReportGenerator.class);
+
+    private final ReportGeneratorImpl delegate;
+    private final LedgerCache ledgerCache;
+    private final Map<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    @Value("${ai.report.coalescing.wait-timeout:360s}")
+    private Duration waitTimeout;
+
+    private record Key(String type, int year, int month, String modelName, String ledger, String ledgerVersion) {
+    }
+
+    @FunctionalInterface
+    private interface Generation {
+        String generate() throws Exception;
+    }
+
+    public CoalescingReportGenerator(ReportGeneratorImpl delegate, LedgerCache ledgerCache) {
+        this.delegate = delegate;
+        this.ledgerCache = ledgerCache;
+    }
+
+    @Override
+    public String generateDailyReport(String excelFilePath) throws Exception {
+        LocalDate now = LocalDate.now();
+        return coalesce(key(excelFilePath, "daily", now.getYear(), now.getMonthValue(), null),
+                () -> delegate.generateDailyReport(excelFilePath));
+    }
+
+    @Override
+    public String generateWeeklyReport(String excelFilePath) throws Exception {
+        LocalDate now = LocalDate.now();
+        return coalesce(key(excelFilePath, "weekly", now.getYear(), now.getMonthValue(), null),
+                () -> delegate.generateWeeklyReport(excelFilePath));
+    }
+
+    @Override
+    public String generateMonthlyReport(String excelFilePath) throws Exception {
+        LocalDate now = LocalDate.now();
+        return coalesce(key(excelFilePath, "monthly", now.getYear(), now.getMonthValue(), null),
+                () -> delegate.generateMonthlyReport(excelFilePath));
+    }
+
+    @Override
+    public String generateMonthlyReport(String excelFilePath, int year, int month, String modelName) throws Exception {
+        return coalesce(key(excelFilePath, "monthly", year, month, modelName),
+                () -> delegate.generateMonthlyReport(excelFilePath, year, month, modelName));
+    }
+
+    @Override
+    public String generateReport(String excelFilePath, String type, Integer year, Integer month, String modelName,
+                                 Admission admission) throws Exception {
+        Key key;
+        if ("daily".equals(type) || "weekly".equals(type) || year == null || month == null) {
+            LocalDate now = LocalDate.now();
+            key = key(excelFilePath, type, now.getYear(), now.getMonthValue(), null);
+        } else {
+            key = key(excelFilePath, type, year, month, modelName);
+        }
+        return coalesce(key, () -> delegate.generateReport(excelFilePath, type, year, month, modelName, admission));
+    }
+
+    /**
+     * ストリームは呼び出し元ごとに受け取るため、まとめずにそのまま実行する
+     */
+    @Override
+    public void generateReportStream(String excelFilePath, String type, Integer year, Integer month, String modelName,
+                                     Consumer<String> onText) throws Exception {
+        delegate.generateReportStream(excelFilePath, type, year, month, modelName, onText);
+    }
+
+    public ReportJobDto.CoalescingStats getStats() {
+        return new ReportJobDto.CoalescingStats(executions.get(), coalesced.get(), timeouts.get(), inFlight.size());
+    }
+
+    private Key key(String excelFilePath, String type, int year, int month, String modelName) throws Exception {
+        return new Key(type, year, month, modelName, excelFilePath, ledgerCache.versionOf(excelFilePath));
+    }
+
+    private String coalesce(Key key, Generation generation) throws Exception {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            log.info("実行中のリポート作成を待機 key={}", key);
+            return await(key, running);
+        }
+
+        executions.incrementAndGet();
+        try {
+            String report = generation.generate();
+            created.complete(report);
+            return report;
+        } catch (Exception e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    private String await(Key key, CompletableFuture<String> running) throws Exception {
+        try {
+            return running.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            throw new Exception("実行中のリポート作成の待機がタイムアウトしました: " + key.type(), e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+}
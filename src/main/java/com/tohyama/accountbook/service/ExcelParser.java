@@ -2,7 +2,11 @@ package com.tohyama.accountbook.service;
 
 import com.tohyama.accountbook.dto.AccountDto;
 import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.ledger.ItemAggregation;
+import com.tohyama.accountbook.ledger.ItemMaster;
+import com.tohyama.accountbook.ledger.LedgerAggregation;
 
+import java.time.LocalDate;
 import java.util.List;
 
 public interface ExcelParser {
@@ -10,6 +14,11 @@ public interface ExcelParser {
     List<SummaryDto.DaillySummary> aggregateByDay(List<AccountDto> entries);
     List<SummaryDto.WeeklySummary> aggregateByWeek(List<AccountDto> entries);
     List<SummaryDto.MonthlySummary> aggregateByMonth(List<AccountDto> entries);
+    LedgerAggregation aggregateAll(List<AccountDto> entries);
+    ItemMaster extractItemMaster(String excelFilePath) throws Exception;
+    void reloadLedger(String excelFilePath) throws Exception;
+    ItemAggregation aggregateByItem(List<AccountDto> entries, ItemMaster master);
+    SummaryDto.PeriodAnalytics analyzePeriod(List<AccountDto> entries, LocalDate from, LocalDate to, ItemMaster master);
     List<AccountDto> filterCurrentWeek(List<AccountDto> entries);
     List<AccountDto> filterToday(List<AccountDto> entries);
     
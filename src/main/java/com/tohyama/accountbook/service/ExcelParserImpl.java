@@ -4,13 +4,20 @@ import com.tohyama.accountbook.constants.consts;
 import com.tohyama.accountbook.dto.AccountDto;
 import com.tohyama.accountbook.dto.ItemCodeDto;
 import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.ledger.ItemAggregation;
+import com.tohyama.accountbook.ledger.ItemMaster;
+import com.tohyama.accountbook.ledger.LedgerAggregation;
+import com.tohyama.accountbook.ledger.LedgerAnalytics;
 import com.tohyama.accountbook.utils.StringUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -23,51 +30,83 @@ import java.util.stream.Collectors;
 @Service
 public class ExcelParserImpl implements ExcelParser {
     private static final Logger log = LoggerFactory.getLogger(ExcelParserImpl.class);
+    private static final DateTimeFormatter DASH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /**
+     * 読み込みモード (dom: XSSFWorkbook全体をロード / stream: SAXで逐次読み込み)
+     */
+    @Value("${ai.excel.read-mode:dom}")
+    private String readMode;
+
+    @Value("${ai.excel.analytics.top-k:10}")
+    private int topK;
+
+    private final ExcelStreamReader excelStreamReader;
+    private final LedgerCache ledgerCache;
+    private final SheetParseExecutor sheetParseExecutor;
+    private final MeterRegistry meterRegistry;
+
+    public ExcelParserImpl(ExcelStreamReader excelStreamReader, LedgerCache ledgerCache,
+                           SheetParseExecutor sheetParseExecutor, MeterRegistry meterRegistry) {
+        this.excelStreamReader = excelStreamReader;
+        this.ledgerCache = ledgerCache;
+        this.sheetParseExecutor = sheetParseExecutor;
+        this.meterRegistry = meterRegistry;
+    }
 
     public List<?> extractAccountData(String excelFilePath, String mode) throws Exception {
-        return extractExcelData(excelFilePath, mode);
-        
+        return Timer.builder("ledger.extract")
+                .description("明細の取得時間 (キャッシュ確認・読み込み・期間の絞り込み)")
+                .tag("mode", mode == null ? "none" : mode.toLowerCase())
+                .register(meterRegistry)
+                .recordCallable(() -> extractExcelData(excelFilePath, mode));
     }
     public List<SummaryDto.DaillySummary> aggregateByDay(List<AccountDto> entries) {
-        Map<LocalDate, Integer> dailyMap = entries.stream()
-                .collect(Collectors.groupingBy(AccountDto::getDate, Collectors.summingInt(AccountDto::getPrice)));
-        List<SummaryDto.DaillySummary> result = new ArrayList<>();
-        for (Map.Entry<LocalDate, Integer> e : dailyMap.entrySet()) {
-            result.add(new SummaryDto.DaillySummary(e.getKey(), e.getValue()));
-        }
-        result.sort(Comparator.comparing(SummaryDto.DaillySummary::getDate));
-        return result;
+        return aggregationTimer("day").record(() -> LedgerAggregation.ofDays(entries)).daily();
     }
     public List<SummaryDto.WeeklySummary> aggregateByWeek(List<AccountDto> entries) {
-        Map<LocalDate, List<AccountDto>> weekMap = new HashMap<>();
-        for (AccountDto entry : entries) {
-            LocalDate date = entry.getDate();
-            LocalDate weekStart = date.with(DayOfWeek.MONDAY);
-            weekMap.computeIfAbsent(weekStart, k -> new ArrayList<>()).add(entry);
-        }
-        List<SummaryDto.WeeklySummary> result = new ArrayList<>();
-        for (Map.Entry<LocalDate, List<AccountDto>> e : weekMap.entrySet()) {
-            LocalDate weekStart = e.getKey();
-            LocalDate weekEnd = weekStart.plusDays(6);
-            int total = e.getValue().stream().mapToInt(AccountDto::getPrice).sum();
-            result.add(new SummaryDto.WeeklySummary(weekStart, weekEnd, total));
-        }
-        result.sort(Comparator.comparing(SummaryDto.WeeklySummary::getWeekStart));
-        return result;
+        return aggregationTimer("week").record(() -> LedgerAggregation.ofWeeks(entries)).weekly();
     }
     public List<SummaryDto.MonthlySummary> aggregateByMonth(List<AccountDto> entries) {
-        Map<String, Integer> monthMap = entries.stream()
-                .collect(Collectors.groupingBy(e -> e.getDate().getYear() + "-" + e.getDate().getMonthValue(),
-                        Collectors.summingInt(AccountDto::getPrice)));
-        List<SummaryDto.MonthlySummary> result = new ArrayList<>();
-        for (Map.Entry<String, Integer> e : monthMap.entrySet()) {
-            String[] parts = e.getKey().split("-");
-            int year = Integer.parseInt(parts[0]);
-            int month = Integer.parseInt(parts[1]);
-            result.add(new SummaryDto.MonthlySummary(year, month, e.getValue()));
+        return aggregationTimer("month").record(() -> LedgerAggregation.ofMonths(entries)).monthly();
+    }
+    /**
+     * 日・週・月を1回の走査でまとめて集計 (複数の粒度が必要な場合はこちらを1回だけ呼ぶ)
+     */
+    public LedgerAggregation aggregateAll(List<AccountDto> entries) {
+        return aggregationTimer("all").record(() -> LedgerAggregation.of(entries));
+    }
+    /**
+     * 品目マスタ (ファイルが変わるまではキャッシュ済みのものを使う)
+     */
+    public ItemMaster extractItemMaster(String excelFilePath) throws Exception {
+        return ledgerCache.getItemMaster(excelFilePath, this::readItemCodes);
+    }
+    /**
+     * ファイルの変更後に明細を読み直す (差分再読み込みが有効なら変更のあった月シートだけ、それ以外は read-mode で全体)
+     */
+    @Override
+    public void reloadLedger(String excelFilePath) throws Exception {
+        if (ledgerCache.isIncremental()) {
+            ledgerCache.reload(excelFilePath, excelStreamReader::readIncremental);
+        } else {
+            ledgerCache.refresh(excelFilePath, this::readAllEntries);
         }
-        result.sort(Comparator.comparing(SummaryDto.MonthlySummary::getYear).thenComparing(SummaryDto.MonthlySummary::getMonth));
-        return result;
+    }
+    /**
+     * 品目別・場所別を1回の走査でまとめて集計
+     */
+    public ItemAggregation aggregateByItem(List<AccountDto> entries, ItemMaster master) {
+        return aggregationTimer("item").record(() -> ItemAggregation.of(entries, master));
+    }
+
+    /**
+     * 期間 (両端を含む) の上位品目・金額の大きい明細・日ごとの合計の分布 (上位は ai.excel.analytics.top-k 件)
+     */
+    @Override
+    public SummaryDto.PeriodAnalytics analyzePeriod(List<AccountDto> entries, LocalDate from, LocalDate to,
+                                                    ItemMaster master) {
+        return aggregationTimer("analytics").record(() -> LedgerAnalytics.of(entries, from, to, master, topK).toSummary());
     }
     /**
      * 月曜～本日まで
@@ -75,12 +114,18 @@ public class ExcelParserImpl implements ExcelParser {
     public List<AccountDto> filterCurrentWeek(List<AccountDto> entries) {
         LocalDate today = LocalDate.now();
         LocalDate monday = today.with(DayOfWeek.MONDAY);
+        if (entries instanceof ColumnarLedger ledger) {
+            return ledger.range(monday, today);
+        }
         return entries.stream()
                 .filter(e -> !e.getDate().isBefore(monday) && !e.getDate().isAfter(today))
                 .collect(Collectors.toList());
     }
     public List<AccountDto> filterToday(List<AccountDto> entries) {
         LocalDate today = LocalDate.now();
+        if (entries instanceof ColumnarLedger ledger) {
+            return ledger.range(today, today);
+        }
         return entries.stream()
                 .filter(e -> e.getDate().isEqual(today))
                 .collect(Collectors.toList());
@@ -90,6 +135,9 @@ public class ExcelParserImpl implements ExcelParser {
     public List<AccountDto> filterByYearMonth(List<AccountDto> entries, int year, int month) {
         LocalDate startDate = LocalDate.of(year, month, 1);
         LocalDate endDate = startDate.plusMonths(1).minusDays(1);
+        if (entries instanceof ColumnarLedger ledger) {
+            return ledger.range(startDate, endDate);
+        }
         
         return entries.stream()
                 .filter(e -> !e.getDate().isBefore(startDate) && !e.getDate().isAfter(endDate))
@@ -98,6 +146,15 @@ public class ExcelParserImpl implements ExcelParser {
 
     @Override
     public SummaryDto.MonthlySummary aggregateByYearMonth(List<AccountDto> entries, int year, int month) {
+        return aggregationTimer("year-month").record(() -> sumByYearMonth(entries, year, month));
+    }
+
+    private SummaryDto.MonthlySummary sumByYearMonth(List<AccountDto> entries, int year, int month) {
+        if (entries instanceof ColumnarLedger ledger) {
+            LocalDate startDate = LocalDate.of(year, month, 1);
+            long total = ledger.sumPrice(startDate, startDate.plusMonths(1).minusDays(1));
+            return new SummaryDto.MonthlySummary(year, month, (int) total);
+        }
         List<AccountDto> filtered = filterByYearMonth(entries, year, month);
         
         int totalAmount = filtered.stream()
@@ -107,11 +164,61 @@ public class ExcelParserImpl implements ExcelParser {
         return new SummaryDto.MonthlySummary(year, month, totalAmount);
     }
 
+    private Timer aggregationTimer(String kind) {
+        return Timer.builder("ledger.aggregation")
+                .description("集計の実行時間")
+                .tag("kind", kind)
+                .register(meterRegistry);
+    }
+
     private List<?>  extractExcelData(String excelFilePath, String mode) throws Exception {
-        List<AccountDto> allEntries = new ArrayList<>();
+        // ファイルが変わっていなければキャッシュ済みの明細を使う
+        List<AccountDto> allEntries = ledgerCache.get(excelFilePath, this::readAllEntries);
+
+        if ("day".equalsIgnoreCase(mode)) {
+            return filterToday(allEntries);
+        } else if ("week".equalsIgnoreCase(mode)) {
+            return filterCurrentWeek(allEntries);
+        } else if ("month".equalsIgnoreCase(mode)) {
+            return allEntries;
+        } else {
+            return filterCurrentWeek(allEntries);
+        }
+    }
+    private LedgerCache.LoadedWorkbook readAllEntries(String excelFilePath) throws Exception {
+        long start = System.nanoTime();
+        LedgerCache.LoadedWorkbook loaded = "stream".equalsIgnoreCase(readMode)
+                ? new LedgerCache.LoadedWorkbook(excelStreamReader.read(excelFilePath), null)
+                : readWorkbook(excelFilePath);
+        log.info("読み込み完了 mode={} parallelism={} rows={} {}ms", readMode,
+                "stream".equalsIgnoreCase(readMode) ? sheetParseExecutor.getParallelism() : 1, loaded.entries().size(), (System.nanoTime() - start) / 1_000_000);
+        return loaded;
+    }
+
+    /**
+     * item-codeシートがない台帳は、品目マスタを空として扱う
+     * domモードでも明細と別に読む場合 (スナップショットから明細を復元した後など) は、
+     * ワークブック全体を読み直さずにitem-codeシートだけをSAXで読む。
+     */
+    private List<ItemCodeDto> readItemCodes(String excelFilePath) throws Exception {
+        try {
+            return excelStreamReader.readItemCodes(excelFilePath);
+        } catch (IllegalArgumentException e) {
+            log.warn("{}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * XSSFWorkbookで全シートを読み込む (item-codeシートの品目も同じワークブックから読む)
+     * 共有文字列・スタイル・数式の評価はワークブック全体で共有され、POIの通常APIはスレッドセーフではないので、
+     * ai.excel.parallelism によらず1枚ずつ解析する。
+     */
+    private LedgerCache.LoadedWorkbook readWorkbook(String excelFilePath) throws Exception {
         try (InputStream is = new FileInputStream(excelFilePath);
              Workbook workbook = new XSSFWorkbook(is)) {
             log.info("ファイルロード成功");
+            List<SheetParseExecutor.SheetTask> tasks = new ArrayList<>();
             for (int idx = 0; idx < workbook.getNumberOfSheets(); idx++) {
                 Sheet sheet = workbook.getSheetAt(idx);
                 String sheetName = sheet.getSheetName();
@@ -120,51 +227,33 @@ public class ExcelParserImpl implements ExcelParser {
                 if(StringUtils.equals(consts.itemCodeSheetName, sheetName)) {
                     continue;
                 }
-
-                try {
-                    List<AccountDto> entries = parseAccountEntries(workbook, sheetName);
-                    if (CollectionUtils.isEmpty(entries)) {
-                        log.warn("'{}'にデータがありません！", sheetName);
-                        continue;
-                    }
-                    allEntries.addAll(entries);
-                } catch (Exception e) {
-                    log.error("エラー発生");
-                    throw new Exception("データ抽出失敗", e);
-                }
+                tasks.add(new SheetParseExecutor.SheetTask(sheetName, () -> parseAccountEntries(workbook, sheetName)));
             }
+            List<AccountDto> entries = sheetParseExecutor.parseAllSequentially(tasks);
+            Sheet itemCodeSheet = workbook.getSheet(consts.itemCodeSheetName);
+            if (itemCodeSheet == null) {
+                log.warn("item-codeシートがありません。");
+            }
+            return new LedgerCache.LoadedWorkbook(entries, itemCodeSheet == null ? List.of() : extractItemCode(itemCodeSheet));
         } catch (Exception e) {
             throw new Exception("ファイル読み込みに失敗しました。", e);
         }
-        
-        if ("day".equalsIgnoreCase(mode)) {
-            return filterToday(allEntries);
-        } else if ("week".equalsIgnoreCase(mode)) {
-            return filterCurrentWeek(allEntries);
-        } else if ("month".equalsIgnoreCase(mode)) {
-            return allEntries;
-        } else {
-            return filterCurrentWeek(allEntries);
-        }
     }
+
     /**
      * Item-Codeを抽出
      */
-    private List<ItemCodeDto> extractItemCode(InputStream excelStream) throws Exception {
+    private List<ItemCodeDto> extractItemCode(Sheet sheet) {
         List<ItemCodeDto> itemCodes = new ArrayList<>();
-        try (Workbook workbook = new XSSFWorkbook(excelStream)) {
-            Sheet sheet = workbook.getSheet("item-code");
-            if (sheet == null) throw new IllegalArgumentException("item-codeシートがありません。");
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-                String id = getStringCell(row, 0);
-                String name = getStringCell(row, 1);
-                String location = getStringCell(row, 2);
-                int price = getIntCell(row, 3);
-                if (StringUtils.isEmpty(id) || StringUtils.isEmpty(name) || StringUtils.isEmpty(location)) continue;
-                itemCodes.add(new ItemCodeDto(id, name, location, price));
-            }
+        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
+            Row row = sheet.getRow(i);
+            if (row == null) continue;
+            String id = getStringCell(row, 0);
+            String name = getStringCell(row, 1);
+            String location = getStringCell(row, 2);
+            int price = getIntCell(row, 3);
+            if (StringUtils.isEmpty(id) || StringUtils.isEmpty(name) || StringUtils.isEmpty(location)) continue;
+            itemCodes.add(new ItemCodeDto(id, name, location, price));
         }
         return itemCodes;
     }
@@ -172,43 +261,36 @@ public class ExcelParserImpl implements ExcelParser {
      * 月シートのデータを抽出
      */
     private List<AccountDto> parseAccountEntries(Workbook workbook, String monthSheet) throws Exception {
-        List<AccountDto> entries = new ArrayList<>();
         Sheet sheet = workbook.getSheet(monthSheet);
         if (sheet == null) throw new IllegalArgumentException(monthSheet + "シートが存在しません。");
-        DateTimeFormatter dashFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter slashFormatter = DateTimeFormatter.ofPattern("yyyy/M/d");
+        boolean use1904Windowing = workbook instanceof XSSFWorkbook xssf && xssf.isDate1904();
+        LedgerRowDecoder decoder = new LedgerRowDecoder(sheet.getLastRowNum(), use1904Windowing);
         for (int idx = 1; idx <= sheet.getLastRowNum(); idx++) {
             Row row = sheet.getRow(idx);
             if (row == null) continue;
-            String dateStr = getStringCell(row, 0);
-            String name = getStringCell(row, 1);
-            String id = getStringCell(row, 2);
-            int cnt = getIntCell(row, 3);
-            int price = getIntCell(row, 4);
-            String note = getStringCell(row, 5);
-
-            if (dateStr == null || name == null || id == null) {
-                continue;
-            }
-            LocalDate date;
-            try {
-                date = LocalDate.parse(dateStr, dashFormatter);
-            } catch (Exception e1) {
-                try {
-                    date = LocalDate.parse(dateStr, slashFormatter);
-                } catch (Exception e2) {
-                    continue;
-                }
-            }
-            entries.add(new AccountDto(date, name, id, cnt, price, note));
+            decoder.add(row);
         }
+        ColumnarLedger entries = decoder.build();
+        recordRows(meterRegistry, entries.size(), decoder);
         return entries;
     }
 
+    /**
+     * シート1枚分の読み込み行数・スキップ行数 (日付・名前・IDの欠落 / 日付の形式不正) と、
+     * 0として読んだ数量・金額の不正セル数を記録
+     */
+    static void recordRows(MeterRegistry meterRegistry, int read, LedgerRowDecoder decoder) {
+        meterRegistry.counter("ledger.rows", "result", "read").increment(read);
+        meterRegistry.counter("ledger.rows", "result", "skipped-missing").increment(decoder.missing());
+        meterRegistry.counter("ledger.rows", "result", "skipped-bad-date").increment(decoder.badDate());
+        meterRegistry.counter("ledger.cells.malformed", "column", "cnt").increment(decoder.badCount());
+        meterRegistry.counter("ledger.cells.malformed", "column", "price").increment(decoder.badPrice());
+    }
+
     /**
      * 文字列を抽出
      */
-    private String getStringCell(Row row, int idx) {
+    static String getStringCell(Row row, int idx) {
         Cell cell = row.getCell(idx);
         if (cell == null) return null;
 
@@ -221,7 +303,7 @@ public class ExcelParserImpl implements ExcelParser {
         if (cellType == CellType.NUMERIC) {
             if (DateUtil.isCellDateFormatted(cell)) {
                 LocalDate date = cell.getLocalDateTimeCellValue().toLocalDate();
-                return date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                return date.format(DASH_FORMATTER);
             }
             return String.valueOf((int)cell.getNumericCellValue());
         }
@@ -233,7 +315,7 @@ public class ExcelParserImpl implements ExcelParser {
             if (cachedType == CellType.NUMERIC) {
                 if (DateUtil.isCellDateFormatted(cell)) {
                     LocalDate date = cell.getLocalDateTimeCellValue().toLocalDate();
-                    return date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                    return date.format(DASH_FORMATTER);
                 }
                 return String.valueOf((int)cell.getNumericCellValue());
             }
@@ -243,31 +325,8 @@ public class ExcelParserImpl implements ExcelParser {
     /**
      * 数字を抽出
      */
-    private int getIntCell(Row row, int idx) {
-        Cell cell = row.getCell(idx);
-        if (cell == null) return 0;
-
-        CellType cellType = cell.getCellType();
-        if (cellType == CellType.BLANK) return 0;
-        if (cellType == CellType.NUMERIC) {
-            return (int)cell.getNumericCellValue();
-        }
-        if (cellType == CellType.STRING) {
-            try {
-                return Integer.parseInt(cell.getStringCellValue());
-            } catch (Exception e) {
-                return 0;
-            }
-        }
-        if (cellType == CellType.FORMULA) {
-            CellType cachedType = cell.getCachedFormulaResultType();
-            if (cachedType == CellType.NUMERIC) {
-                return (int)cell.getNumericCellValue();
-            }
-            if (cachedType == CellType.STRING) {
-                try { return Integer.parseInt(cell.getStringCellValue()); } catch (Exception e) { return 0; }
-            }
-        }
-        return 0;
+    static int getIntCell(Row row, int idx) {
+        long value = LedgerRowDecoder.intOf(row.getCell(idx));
+        return value == LedgerRowDecoder.INVALID_INT ? 0 : (int) value;
     }
 }
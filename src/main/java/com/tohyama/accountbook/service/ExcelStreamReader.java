@@ -0,0 +1,409 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.ItemCodeDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.ledger.SheetSegment;
+import com.tohyama.accountbook.ledger.WorkbookState;
+import com.tohyama.accountbook.utils.DateUtils;
+import com.tohyama.accountbook.utils.DigestUtils;
+import com.tohyama.accountbook.utils.StringUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.poi.ooxml.POIXMLTypeLoader;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * POIのイベントAPIで月シートを逐次読み込む (ワークブック全体はメモリに展開しない)
+ */
+@Component
+public class ExcelStreamReader {
+    private static final Logger log = LoggerFactory.getLogger(ExcelStreamReader.class);
+    private static final DateTimeFormatter DASH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final SheetParseExecutor sheetParseExecutor;
+    private final MeterRegistry meterRegistry;
+
+    public ExcelStreamReader(SheetParseExecutor sheetParseExecutor, MeterRegistry meterRegistry) {
+        this.sheetParseExecutor = sheetParseExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public List<AccountDto> read(String excelFilePath) throws Exception {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(excelFilePath, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            boolean date1904 = isDate1904(reader);
+            log.info("ファイルロード成功");
+
+            List<SheetParseExecutor.SheetTask> tasks = new ArrayList<>();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                String sheetName = sheets.getSheetName();
+
+                // item-codeは不要
+                if (StringUtils.equals(consts.itemCodeSheetName, sheetName)) {
+                    continue;
+                }
+
+                PackagePart sheetPart = sheets.getSheetPart();
+                tasks.add(new SheetParseExecutor.SheetTask(sheetName, () -> {
+                    try (InputStream sheetStream = sheetPart.getInputStream()) {
+                        return parseSheet(styles, strings, date1904, sheetStream);
+                    }
+                }));
+            }
+            return sheetParseExecutor.parseAll(tasks);
+        } catch (Exception e) {
+            throw new Exception("ファイル読み込みに失敗しました。", e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    /**
+     * item-codeシートだけを読み込む (ID・名前・場所のいずれかが空の行は除く)
+     */
+    public List<ItemCodeDto> readItemCodes(String excelFilePath) throws Exception {
+        List<ItemCodeDto> itemCodes;
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(excelFilePath, PackageAccess.READ);
+            itemCodes = readItemCodes(pkg);
+        } catch (Exception e) {
+            throw new Exception("ファイル読み込みに失敗しました。", e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+        if (itemCodes == null) {
+            throw new IllegalArgumentException("item-codeシートがありません。");
+        }
+        return itemCodes;
+    }
+
+    /**
+     * 開いているパッケージからitem-codeシートを読み込む。シートがなければnull (パッケージは閉じない)
+     */
+    public List<ItemCodeDto> readItemCodes(OPCPackage pkg) throws Exception {
+        XSSFReader reader = new XSSFReader(pkg);
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (sheets.hasNext()) {
+            try (InputStream sheetStream = sheets.next()) {
+                if (!StringUtils.equals(consts.itemCodeSheetName, sheets.getSheetName())) {
+                    continue;
+                }
+                ItemCodeHandler handler = new ItemCodeHandler();
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(),
+                        new ReadOnlySharedStringsTable(pkg), handler, new LedgerDataFormatter(isDate1904(reader)), false));
+                parser.parse(new InputSource(sheetStream));
+                return handler.itemCodes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 前回の状態から内容が変わった月シートだけを解析し直す
+     * 共有文字列が追記以外で変わった場合やスタイル・日付方式 (1904年方式) が変わった場合は全シートを解析する。
+     */
+    public WorkbookState readIncremental(String excelFilePath, WorkbookState previous) throws Exception {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(excelFilePath, PackageAccess.READ);
+            return readIncremental(pkg, previous, SheetParseExecutor.Progress.NONE);
+        } catch (Exception e) {
+            throw new Exception("ファイル読み込みに失敗しました。", e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    /**
+     * 開いているパッケージ (メモリ上のものを含む) を差分で解析する。パッケージは閉じない
+     */
+    public WorkbookState readIncremental(OPCPackage pkg, WorkbookState previous,
+                                         SheetParseExecutor.Progress progress) throws Exception {
+        XSSFReader reader = new XSSFReader(pkg);
+        ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+        StylesTable styles = reader.getStylesTable();
+        boolean date1904 = isDate1904(reader);
+        String stylesDigest;
+        try (InputStream stylesStream = reader.getStylesData()) {
+            // 日付方式が変わると日付セルの値の意味が変わるので、スタイルと一緒に比べる
+            stylesDigest = DigestUtils.sha256Hex(stylesStream) + (date1904 ? "-1904" : "");
+        }
+        List<String> sharedStrings = sharedStrings(strings);
+        boolean reusable = previous != null
+                && StringUtils.equals(previous.stylesDigest(), stylesDigest)
+                && isAppendOnly(previous.sharedStrings(), sharedStrings);
+        Map<String, SheetSegment> previousSegments = new HashMap<>();
+        if (reusable) {
+            for (SheetSegment segment : previous.segments()) {
+                previousSegments.put(segment.sheetName(), segment);
+            }
+        }
+
+        List<SheetSegment> ordered = new ArrayList<>();
+        List<Integer> changedPositions = new ArrayList<>();
+        List<String> changedDigests = new ArrayList<>();
+        List<SheetParseExecutor.SheetTask> tasks = new ArrayList<>();
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (sheets.hasNext()) {
+            sheets.next().close();
+            String sheetName = sheets.getSheetName();
+
+            // item-codeは不要
+            if (StringUtils.equals(consts.itemCodeSheetName, sheetName)) {
+                continue;
+            }
+
+            PackagePart sheetPart = sheets.getSheetPart();
+            String sheetDigest;
+            try (InputStream sheetStream = sheetPart.getInputStream()) {
+                sheetDigest = DigestUtils.sha256Hex(sheetStream);
+            }
+            SheetSegment reused = previousSegments.get(sheetName);
+            if (reused != null && reused.digest().equals(sheetDigest)) {
+                ordered.add(reused);
+                continue;
+            }
+            changedPositions.add(ordered.size());
+            changedDigests.add(sheetDigest);
+            ordered.add(null);
+            tasks.add(new SheetParseExecutor.SheetTask(sheetName, () -> {
+                try (InputStream sheetStream = sheetPart.getInputStream()) {
+                    return parseSheet(styles, strings, date1904, sheetStream);
+                }
+            }));
+        }
+
+        List<List<AccountDto>> parsed = sheetParseExecutor.parseEach(tasks, progress);
+        for (int i = 0; i < tasks.size(); i++) {
+            List<AccountDto> entries = parsed.get(i);
+            if (entries.isEmpty()) {
+                log.warn("'{}'にデータがありません！", tasks.get(i).sheetName());
+            }
+            ordered.set(changedPositions.get(i),
+                    new SheetSegment(tasks.get(i).sheetName(), changedDigests.get(i), ColumnarLedger.of(entries)));
+        }
+        return new WorkbookState(List.copyOf(ordered), stylesDigest, sharedStrings, tasks.size());
+    }
+
+    private List<AccountDto> parseSheet(StylesTable styles, ReadOnlySharedStringsTable strings, boolean date1904,
+                                        InputStream sheetStream) throws Exception {
+        AccountRowHandler rowHandler = new AccountRowHandler(date1904);
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, rowHandler, rowHandler.formatter, false));
+        parser.parse(new InputSource(sheetStream));
+        ColumnarLedger entries = rowHandler.decoder.build();
+        ExcelParserImpl.recordRows(meterRegistry, entries.size(), rowHandler.decoder);
+        return entries;
+    }
+
+    /**
+     * ワークブックが1904年方式の日付か (workbook.xmlのworkbookPr/@date1904)
+     */
+    private static boolean isDate1904(XSSFReader reader) throws Exception {
+        try (InputStream workbookStream = reader.getWorkbookData()) {
+            CTWorkbookPr workbookPr = WorkbookDocument.Factory.parse(workbookStream, POIXMLTypeLoader.DEFAULT_XML_OPTIONS)
+                    .getWorkbook().getWorkbookPr();
+            return workbookPr != null && workbookPr.getDate1904();
+        }
+    }
+
+    /**
+     * 共有文字列の一覧 (uniqueCount属性がない・実数と合わない場合はnullとし、差分判定に使わない)
+     */
+    private static List<String> sharedStrings(ReadOnlySharedStringsTable strings) {
+        int uniqueCount = strings.getUniqueCount();
+        if (uniqueCount <= 0) return null;
+        List<String> values = new ArrayList<>(uniqueCount);
+        try {
+            for (int i = 0; i < uniqueCount; i++) {
+                values.add(strings.getItemAt(i).getString());
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        return values;
+    }
+
+    /**
+     * 共有文字列が末尾への追加だけなら、変更のないシートの文字列インデックスはそのまま有効
+     */
+    private static boolean isAppendOnly(List<String> before, List<String> after) {
+        if (before == null || after == null || before.size() > after.size()) return false;
+        return before.equals(after.subList(0, before.size()));
+    }
+
+    /**
+     * 1行ずつセル値を受け取り明細に変換する (列の意味はExcelParserImpl#parseAccountEntriesと同じ)
+     * 数値の日付セルは文字列にせず、書式化の呼び出しで受け取ったシリアル値と書式からエポック日にする。
+     */
+    private static class AccountRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private static final int COLUMN_COUNT = 6;
+        // 日付書式の数値セルの書式化結果 (日付列以外に現れた場合だけyyyy-MM-ddにする)
+        private static final String DATE_CELL = "date";
+
+        private final boolean date1904;
+        private final LedgerRowDecoder decoder;
+        private final String[] values = new String[COLUMN_COUNT];
+        private int epochDay;
+        // 直前に書式化した数値セル (XSSFSheetXMLHandlerは書式化の直後にそのセルのcellを呼ぶ)
+        private boolean numeric;
+        private double serial;
+        private int formatIndex;
+        private String formatString;
+
+        private final DataFormatter formatter = new DataFormatter() {
+            @Override
+            public String formatRawCellContents(double value, int formatIndex, String formatString) {
+                numeric = true;
+                serial = value;
+                AccountRowHandler.this.formatIndex = formatIndex;
+                AccountRowHandler.this.formatString = formatString;
+                return DateUtil.isADateFormat(formatIndex, formatString) ? DATE_CELL : String.valueOf((int) value);
+            }
+        };
+
+        private AccountRowHandler(boolean date1904) {
+            this.date1904 = date1904;
+            this.decoder = new LedgerRowDecoder(256, date1904);
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(values, null);
+            epochDay = LedgerRowDecoder.MISSING_DAY;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            // 1行目はヘッダー
+            if (rowNum == 0) return;
+            decoder.add(epochDay, values[1], values[2], values[3], values[4], values[5]);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            boolean numericCell = numeric;
+            numeric = false;
+            int col = columnIndex(cellReference);
+            if (col < 0 || col >= COLUMN_COUNT) return;
+            if (col == 0) {
+                epochDay = numericCell
+                        ? decoder.epochDayOf(serial, formatIndex, formatString)
+                        : decoder.epochDayOf(StringUtils.isEmpty(formattedValue) ? null : formattedValue);
+                return;
+            }
+            if (numericCell && DATE_CELL.equals(formattedValue)) {
+                formattedValue = LocalDate.ofEpochDay(DateUtils.epochDayOfSerial(serial, date1904)).format(DASH_FORMATTER);
+            }
+            values[col] = StringUtils.isEmpty(formattedValue) ? null : formattedValue;
+        }
+
+        private static int columnIndex(String cellReference) {
+            int col = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char c = cellReference.charAt(i);
+                if (c < 'A' || c > 'Z') break;
+                col = col * 26 + (c - 'A' + 1);
+            }
+            return col - 1;
+        }
+    }
+
+    /**
+     * item-codeシートの行を品目に変換する (列の意味はExcelParserImpl#extractItemCodeと同じ)
+     */
+    private static class ItemCodeHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private static final int COLUMN_COUNT = 4;
+
+        private final List<ItemCodeDto> itemCodes = new ArrayList<>();
+        private final String[] values = new String[COLUMN_COUNT];
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(values, null);
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            // 1行目はヘッダー
+            if (rowNum == 0) return;
+            if (values[0] == null || values[1] == null || values[2] == null) return;
+            long price = values[3] == null ? 0 : LedgerRowDecoder.parseInt(values[3]);
+            itemCodes.add(new ItemCodeDto(values[0], values[1], values[2],
+                    price == LedgerRowDecoder.INVALID_INT ? 0 : (int) price));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int col = AccountRowHandler.columnIndex(cellReference);
+            if (col < 0 || col >= COLUMN_COUNT) return;
+            values[col] = StringUtils.isEmpty(formattedValue) ? null : formattedValue;
+        }
+    }
+
+    /**
+     * 数値セルをDOM読み込み時と同じ文字列にする (日付はyyyy-MM-dd、それ以外は整数。item-codeシート用)
+     * XSSFSheetXMLHandlerは日付方式を渡さない (常に1900年方式の) 3引数版を呼ぶので、ワークブックの方式を使う。
+     */
+    private static class LedgerDataFormatter extends DataFormatter {
+        private final boolean date1904;
+
+        private LedgerDataFormatter(boolean date1904) {
+            this.date1904 = date1904;
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            return formatRawCellContents(value, formatIndex, formatString, date1904);
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                return LocalDate.ofEpochDay(DateUtils.epochDayOfSerial(value, use1904Windowing)).format(DASH_FORMATTER);
+            }
+            return String.valueOf((int) value);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.tohyama.accountbook.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.tohyama.accountbook.constants.consts;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Gemini APIのHTTPクライアント (java.net.http.HttpClientを1つ共有し、接続はKeep-Alive・HTTP/2で再利用する)
+ * 応答待ち・全体のタイムアウトはモデルごとに設定でき、同時に送信するリクエスト数はSemaphoreで制限する。
+ * 計測値のmodelタグは既知のモデル名だけにし、それ以外は "other" にまとめる (タグの種類を増やさない)。
+ */
+@Component
+public class GeminiHttpClient {
+    private static final Logger log = LoggerFactory.getLogger(GeminiHttpClient.class);
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+    private static final String OTHER_MODEL = "other";
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore inFlight;
+    private final String baseUrl;
+    private final Duration readTimeout;
+    private final Duration totalTimeout;
+    private final Duration acquireTimeout;
+    private final Set<String> metricModels;
+
+    @Value("${gemini.api.key}")
+    private String apiKey;
+
+    public GeminiHttpClient(Environment environment, MeterRegistry meterRegistry,
+                            @Value("${ai.gemini.http.base-url:https://generativelanguage.googleapis.com}") String baseUrl,
+                            @Value("${ai.gemini.http.connect-timeout:5s}") Duration connectTimeout,
+                            @Value("${ai.gemini.http.read-timeout.default:60s}") Duration readTimeout,
+                            @Value("${ai.gemini.http.total-timeout.default:120s}") Duration totalTimeout,
+                            @Value("${ai.gemini.http.max-in-flight:4}") int maxInFlight,
+                            @Value("${ai.gemini.http.acquire-timeout:30s}") Duration acquireTimeout,
+                            @Value("${ai.gemini.http.metric-models:}") List<String> metricModels) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.readTimeout = readTimeout;
+        this.totalTimeout = totalTimeout;
+        this.acquireTimeout = acquireTimeout;
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight), true);
+        Set<String> models = new HashSet<>(List.of(consts.geminiPro3, consts.geminiFlash3, consts.geminiFlash2));
+        for (String model : metricModels) {
+            if (!model.isBlank()) {
+                models.add(model.trim());
+            }
+        }
+        this.metricModels = Set.copyOf(models);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    /**
+     * generateContentを呼び出し、応答のJSONを返す
+     */
+    public Map<String, Object> generateContent(String modelName, Map<String, Object> requestBody) throws Exception {
+        byte[] requestBytes = objectMapper.writeValueAsBytes(requestBody);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(modelUrl(modelName, "generateContent")))
+                .timeout(readTimeoutOf(modelName))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBytes))
+                .build();
+        if (!inFlight.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new RuntimeException("Gemini API 同時リクエスト数の上限に達しました。");
+        }
+        long start = System.nanoTime();
+        String status = "error";
+        long responseBytes = 0;
+        CompletableFuture<HttpResponse<byte[]>> future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        try {
+            HttpResponse<byte[]> response = future.get(totalTimeoutOf(modelName).toMillis(), TimeUnit.MILLISECONDS);
+            status = String.valueOf(response.statusCode());
+            responseBytes = response.body().length;
+            log.info("Gemini API model={} status={} {}ms", modelName, response.statusCode(),
+                    (System.nanoTime() - start) / 1_000_000);
+            if (response.statusCode() / 100 != 2) {
+                throw new RuntimeException("Gemini API 呼び出し失敗: " + response.statusCode());
+            }
+            return objectMapper.readValue(response.body(), MAP_TYPE);
+        } catch (TimeoutException e) {
+            status = "timeout";
+            future.cancel(true);
+            throw new RuntimeException("Gemini API タイムアウト: " + totalTimeoutOf(modelName), e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            inFlight.release();
+            record(modelName, false, status, System.nanoTime() - start, requestBytes.length, responseBytes);
+        }
+    }
+
+    /**
+     * streamGenerateContent (SSE) を呼び出し、届いた応答チャンクのJSONを順にonChunkへ渡す
+     * 行単位で読み流すので、応答全体をメモリに保持しない。全体のタイムアウトを過ぎたら接続を閉じる。
+     */
+    public void streamGenerateContent(String modelName, Map<String, Object> requestBody,
+                                      Consumer<Map<String, Object>> onChunk) throws Exception {
+        byte[] requestBytes = objectMapper.writeValueAsBytes(requestBody);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(modelUrl(modelName, "streamGenerateContent") + "&alt=sse"))
+                .timeout(readTimeoutOf(modelName))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBytes))
+                .build();
+        if (!inFlight.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new RuntimeException("Gemini API 同時リクエスト数の上限に達しました。");
+        }
+        long start = System.nanoTime();
+        String status = "error";
+        long responseBytes = 0;
+        Duration timeout = totalTimeoutOf(modelName);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            status = String.valueOf(response.statusCode());
+            try (InputStream body = response.body();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                if (response.statusCode() / 100 != 2) {
+                    throw new RuntimeException("Gemini API 呼び出し失敗: " + response.statusCode());
+                }
+                // 読み込みがブロックしたままにならないよう、期限で本文のストリームを閉じる
+                CompletableFuture<Void> watchdog = CompletableFuture.runAsync(() -> {
+                    timedOut.set(true);
+                    closeQuietly(body);
+                }, CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+                try {
+                    boolean first = true;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.startsWith("data:")) continue;
+                        if (first) {
+                            log.info("Gemini API (stream) model={} 最初の応答 {}ms", modelName, (System.nanoTime() - start) / 1_000_000);
+                            first = false;
+                        }
+                        responseBytes += line.length();
+                        onChunk.accept(objectMapper.readValue(line.substring(5).trim(), MAP_TYPE));
+                    }
+                } finally {
+                    watchdog.cancel(false);
+                }
+            }
+            log.info("Gemini API (stream) model={} status={} {}ms", modelName, response.statusCode(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                status = "timeout";
+                throw new RuntimeException("Gemini API タイムアウト: " + timeout, e);
+            }
+            throw e;
+        } finally {
+            inFlight.release();
+            record(modelName, true, status, System.nanoTime() - start, requestBytes.length, responseBytes);
+        }
+    }
+
+    /**
+     * モデル・応答ステータスごとの所要時間と送受信サイズを記録する (streamの受信サイズは文字数で概算)
+     */
+    private void record(String modelName, boolean stream, String status, long nanos,
+                        long requestBytes, long responseBytes) {
+        String model = metricModels.contains(modelName) ? modelName : OTHER_MODEL;
+        Timer.builder("gemini.request")
+                .description("Gemini APIの呼び出し時間")
+                .tags("model", model, "status", status, "stream", String.valueOf(stream))
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("gemini.request.size")
+                .baseUnit("bytes")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(requestBytes);
+        DistributionSummary.builder("gemini.response.size")
+                .baseUnit("bytes")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(responseBytes);
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException ignored) {
+            // 閉じるだけなので無視する
+        }
+    }
+
+    /**
+     * モデル名はパスの一部としてエンコードする (/・?・# などでURLの構造を変えられないようにする)
+     */
+    private String modelUrl(String modelName, String method) {
+        return String.format("%s/v1beta/models/%s:%s?key=%s", baseUrl,
+                UriUtils.encodePathSegment(modelName, StandardCharsets.UTF_8), method,
+                UriUtils.encodeQueryParam(apiKey, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * ai.gemini.http.read-timeout.<モデル名> があればそれを、なければdefaultを使う
+     */
+    private Duration readTimeoutOf(String modelName) {
+        return environment.getProperty("ai.gemini.http.read-timeout." + modelName, Duration.class, readTimeout);
+    }
+
+    private Duration totalTimeoutOf(String modelName) {
+        return environment.getProperty("ai.gemini.http.total-timeout." + modelName, Duration.class, totalTimeout);
+    }
+}
@@ -2,6 +2,13 @@ package com.tohyama.accountbook.service;
 
 import com.tohyama.accountbook.dto.GeminiDto;
 
+import java.util.function.Consumer;
+
 public interface GeminiProxy {
     GeminiDto.GeminiProxyResponse analyze(GeminiDto.GeminiProxyRequest request);
+
+    /**
+     * 生成されたテキストを届いた順にonTextへ渡す
+     */
+    void analyzeStream(GeminiDto.GeminiProxyRequest request, Consumer<String> onText);
 }
@@ -1,32 +1,25 @@
 package com.tohyama.accountbook.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.tohyama.accountbook.constants.consts;
 import com.tohyama.accountbook.dto.GeminiDto;
 import com.tohyama.accountbook.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class GeminiProxyImpl implements GeminiProxy {
     private static final Logger log = LoggerFactory.getLogger(GeminiProxyImpl.class);
 
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper;
-
-    @Value("${gemini.api.key}")
-    private String apiKey;
+    private final PromptPayloadEncoder promptPayloadEncoder;
+    private final GeminiResponseCache responseCache;
+    private final GeminiHttpClient geminiHttpClient;
 
     @Value("${ai.prompt.daily:#{null}}")
     private String dailyPrompt;
@@ -37,55 +30,92 @@ public class GeminiProxyImpl implements GeminiProxy {
     @Value("${ai.prompt.monthly:#{null}}")
     private String monthlyPrompt;
 
-    public GeminiProxyImpl() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    public GeminiProxyImpl(GeminiResponseCache responseCache, GeminiHttpClient geminiHttpClient,
+                           PromptPayloadEncoder promptPayloadEncoder) {
+        this.responseCache = responseCache;
+        this.geminiHttpClient = geminiHttpClient;
+        this.promptPayloadEncoder = promptPayloadEncoder;
     }
 
     public GeminiDto.GeminiProxyResponse analyze(GeminiDto.GeminiProxyRequest request) {
         try {
-            String summaryDataJson = objectMapper.writeValueAsString(request.getSummaryData());
-            
-            String selectedPrompt = selectPromptByType(request.getType());
-            
-            String promptText = selectedPrompt + "\n" +
-                    "mode:  " + request.getType() + " data:\n" + summaryDataJson;
-            
-            String modelName = request.getModelName() != null ? request.getModelName() : consts.geminiFlash3;
-            
-            String url = String.format("https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s",
-                    modelName, apiKey);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            Map<String, Object> part = new HashMap<>();
-            part.put("text", promptText);
-            Map<String, Object> content = new HashMap<>();
-            content.put("parts", List.of(part));
-            requestBody.put("contents", List.of(content));
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    entity,
-                    new ParameterizedTypeReference<>() {}
-            );
-
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                String result = extractTextFromResponse(response.getBody());
-                return new GeminiDto.GeminiProxyResponse(result);
-            } else {
-                throw new RuntimeException("Gemini API 呼び出し失敗: " + response.getStatusCode());
+            String promptText = buildPrompt(request);
+            String modelName = modelNameOf(request);
+
+            // 同じモデル・同じプロンプトなら前回の応答を返す
+            String cacheKey = GeminiResponseCache.keyOf(modelName, promptText);
+            String cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                log.info("Gemini応答キャッシュ使用 type={} model={}", request.getType(), modelName);
+                return new GeminiDto.GeminiProxyResponse(cached);
+            }
+
+            Map<String, Object> responseBody = geminiHttpClient.generateContent(modelName, buildRequestBody(promptText));
+            String result = extractTextFromResponse(responseBody);
+            if (result == null) {
+                return new GeminiDto.GeminiProxyResponse("失敗しました。");
+            }
+            responseCache.put(cacheKey, request.getType(), result);
+            return new GeminiDto.GeminiProxyResponse(result);
+        } catch (Exception e) {
+            throw new RuntimeException("Gemini API 呼び出し失敗: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * キャッシュにあればそれを1チャンクとして渡す。ストリームの応答は全体を保持しないためキャッシュには入れない
+     */
+    public void analyzeStream(GeminiDto.GeminiProxyRequest request, Consumer<String> onText) {
+        try {
+            String promptText = buildPrompt(request);
+            String modelName = modelNameOf(request);
+
+            String cached = responseCache.get(GeminiResponseCache.keyOf(modelName, promptText));
+            if (cached != null) {
+                log.info("Gemini応答キャッシュ使用 type={} model={}", request.getType(), modelName);
+                onText.accept(cached);
+                return;
             }
+
+            geminiHttpClient.streamGenerateContent(modelName, buildRequestBody(promptText), chunk -> {
+                String text = extractTextFromResponse(chunk);
+                if (!StringUtils.isEmpty(text)) {
+                    onText.accept(text);
+                }
+            });
         } catch (Exception e) {
             throw new RuntimeException("Gemini API 呼び出し失敗: " + e.getMessage(), e);
         }
     }
 
+    private String buildPrompt(GeminiDto.GeminiProxyRequest request) throws Exception {
+        PromptPayloadEncoder.PromptPayload payload = promptPayloadEncoder.encode(request.getSummaryData());
+        log.info("プロンプトデータ type={} format={} bytes={} tokens={}", request.getType(), payload.format(),
+                payload.bytes(), payload.estimatedTokens());
+
+        String selectedPrompt = selectPromptByType(request.getType());
+
+        return selectedPrompt + "\n" +
+                "mode:  " + request.getType() + " format: " + payload.format() + " data:\n" + payload.text();
+    }
+
+    private static String modelNameOf(GeminiDto.GeminiProxyRequest request) {
+        return request.getModelName() != null ? request.getModelName() : consts.geminiFlash3;
+    }
+
+    static Map<String, Object> buildRequestBody(String promptText) {
+        Map<String, Object> requestBody = new HashMap<>();
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", promptText);
+        Map<String, Object> content = new HashMap<>();
+        content.put("parts", List.of(part));
+        requestBody.put("contents", List.of(content));
+        return requestBody;
+    }
+
+    /**
+     * 応答本文のテキストを取り出す。取り出せなければnull
+     */
     @SuppressWarnings("unchecked")
     private String extractTextFromResponse(Map<String, Object> responseBody) {
         try {
@@ -97,9 +127,10 @@ public class GeminiProxyImpl implements GeminiProxy {
                     return (String) parts.getFirst().get("text");
                 }
             }
-            return "失敗しました。";
+            return null;
         } catch (Exception e) {
-            return e.getMessage();
+            log.warn("Gemini応答の解析失敗: {}", e.getMessage());
+            return null;
         }
     }
     
@@ -0,0 +1,281 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.GeminiDto;
+import com.tohyama.accountbook.utils.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Gemini APIの応答をキャッシュする (モデル名とプロンプト全文のハッシュをキーとする)
+ * 合計バイト数の上限を超えたら最も古く参照されたものから捨てる。
+ * 応答はディレクトリに1件1ファイルで保存し、起動時に読み込み直す。
+ * ファイルの書き込み・削除はキーごとのロックの中で行い、メモリ上の登録・破棄と同じ順序にする
+ * (ロックの順序は常にキーごとのロック → this)。
+ */
+@Component
+public class GeminiResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(GeminiResponseCache.class);
+    private static final String SUFFIX = ".cache";
+    private static final int FILE_LOCK_STRIPES = 64;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Path directory;
+    private final Map<String, Duration> ttls;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // キーのハッシュで分けたファイル操作用のロック
+    private final Object[] fileLocks = new Object[FILE_LOCK_STRIPES];
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private record Entry(String type, long createdAt, String report, long bytes) {
+    }
+
+    public GeminiResponseCache(@Value("${ai.gemini.cache.enabled:false}") boolean enabled,
+                               @Value("${ai.gemini.cache.max-bytes:16777216}") long maxBytes,
+                               @Value("${ai.gemini.cache.directory:C:/Temp/account-book/gemini-cache}") String directory,
+                               @Value("${ai.gemini.cache.ttl.daily:0}") Duration dailyTtl,
+                               @Value("${ai.gemini.cache.ttl.weekly:0}") Duration weeklyTtl,
+                               @Value("${ai.gemini.cache.ttl.monthly:0}") Duration monthlyTtl) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.directory = Paths.get(directory);
+        this.ttls = Map.of("daily", dailyTtl, "weekly", weeklyTtl, "monthly", monthlyTtl);
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
+        if (enabled) {
+            loadAll();
+        }
+    }
+
+    /**
+     * キャッシュのキー (モデル名とプロンプト全文のSHA-256)
+     */
+    public static String keyOf(String modelName, String promptText) {
+        return DigestUtils.sha256Hex((modelName + "\n" + promptText).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 有効期限内の応答を返す。なければnull
+     */
+    public String get(String key) {
+        if (!enabled) return null;
+        Entry entry;
+        boolean expired = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                remove(key);
+                entry = null;
+                expired = true;
+            }
+            if (entry == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (entry == null) {
+            if (expired) {
+                delete(key);
+            }
+            return null;
+        }
+        touch(key);
+        return entry.report;
+    }
+
+    public void put(String key, String type, String report) {
+        if (!enabled) return;
+        Entry entry = new Entry(normalizeType(type), System.currentTimeMillis(), report,
+                report.getBytes(StandardCharsets.UTF_8).length);
+        if (entry.bytes > maxBytes) return;
+        List<String> evicted = new ArrayList<>();
+        // 同じキーの登録と書き込みをまとめて行い、後から登録した応答のファイルが古い応答で上書きされないようにする
+        synchronized (fileLock(key)) {
+            synchronized (this) {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    bytes -= previous.bytes;
+                }
+                bytes += entry.bytes;
+                evictOverflow(evicted);
+            }
+            write(key, entry);
+        }
+        for (String evictedKey : evicted) {
+            delete(evictedKey);
+        }
+    }
+
+    public synchronized GeminiDto.CacheStats getStats() {
+        long total = hits + misses;
+        return new GeminiDto.CacheStats(hits, misses, total == 0 ? 0 : (double) hits / total,
+                entries.size(), bytes, maxBytes, evictions);
+    }
+
+    private boolean isExpired(Entry entry) {
+        Duration ttl = ttls.get(entry.type);
+        return ttl != null && !ttl.isZero()
+                && System.currentTimeMillis() - entry.createdAt > ttl.toMillis();
+    }
+
+    private void evictOverflow(List<String> evicted) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            bytes -= eldest.getValue().bytes;
+            evicted.add(eldest.getKey());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * メモリ上から破棄する (ファイルはロックの外でdeleteを呼んで消す)
+     */
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    private static String normalizeType(String type) {
+        return type == null ? "daily" : type.toLowerCase();
+    }
+
+    // ---- ファイル保存 (1行目: 種別と作成日時、2行目以降: 応答本文) ----
+
+    private void loadAll() {
+        if (!Files.isDirectory(directory)) return;
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            // 更新日時を最終参照日時として、古い順に入れて参照順を復元する
+            files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(GeminiResponseCache::lastModified))
+                    .toList();
+        } catch (IOException e) {
+            log.warn("Geminiキャッシュの読み込み失敗: {}", e.getMessage());
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String key = name.substring(0, name.length() - SUFFIX.length());
+                Entry entry = read(file);
+                if (entry == null || isExpired(entry)) {
+                    evicted.add(key);
+                    continue;
+                }
+                entries.put(key, entry);
+                bytes += entry.bytes;
+            }
+            evictOverflow(evicted);
+        }
+        for (String key : evicted) {
+            delete(key);
+        }
+        log.info("Geminiキャッシュ読み込み entries={} bytes={}", entries.size(), bytes);
+    }
+
+    private static Entry read(Path file) {
+        try {
+            String content = Files.readString(file);
+            int newline = content.indexOf('\n');
+            String[] header = content.substring(0, newline).split("\t");
+            String report = content.substring(newline + 1);
+            return new Entry(header[0], Long.parseLong(header[1]), report,
+                    report.getBytes(StandardCharsets.UTF_8).length);
+        } catch (Exception e) {
+            log.warn("Geminiキャッシュの形式が不正です: {}", file);
+            return null;
+        }
+    }
+
+    /**
+     * 書き込みごとに別名の一時ファイルに書いてから置き換える (キーのロックの中で呼ぶ)
+     */
+    private void write(String key, Entry entry) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.writeString(tmp, entry.type + "\t" + entry.createdAt + "\n" + entry.report);
+            Files.move(tmp, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Geminiキャッシュの保存失敗: {}", e.getMessage());
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private void touch(String key) {
+        try {
+            Files.setLastModifiedTime(directory.resolve(key + SUFFIX), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // 参照順の記録だけなので失敗しても続行する
+        }
+    }
+
+    /**
+     * 破棄したキーのファイルを消す。その間に同じキーが登録し直されていれば、新しいファイルなので消さない
+     */
+    private void delete(String key) {
+        synchronized (fileLock(key)) {
+            synchronized (this) {
+                if (entries.containsKey(key)) return;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(key + SUFFIX));
+            } catch (IOException e) {
+                log.warn("Geminiキャッシュの削除失敗: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // 置き換え済みなら一時ファイルは残っていない
+        }
+    }
+
+    private Object fileLock(String key) {
+        return fileLocks[Math.floorMod(key.hashCode(), fileLocks.length)];
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
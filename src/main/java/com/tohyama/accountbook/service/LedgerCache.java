@@ -0,0 +1,516 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.ItemCodeDto;
+import com.tohyama.accountbook.dto.LedgerDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.ledger.ItemMaster;
+import com.tohyama.accountbook.ledger.LedgerSnapshot;
+import com.tohyama.accountbook.ledger.WorkbookState;
+import com.tohyama.accountbook.utils.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 解析済みの明細をファイル単位でキャッシュする (パス・更新日時・サイズ・任意でハッシュが一致する間は再解析しない)
+ * 明細は列指向のColumnarLedgerに変換して保持する。
+ * 保持する明細・差分用の状態 (共有文字列を含む)・品目マスタの推定バイト数の合計が上限を超えたら、
+ * 最後に参照されたのが古いものから破棄する (破棄した台帳は次の参照でスナップショットから読み直す)。
+ * 破棄するときは、その台帳の品目マスタと (使われていなければ) ロックも一緒に削除する。
+ * 差分再読み込み用のシートごとの状態 (WorkbookState) は、streamモードで差分再読み込みが有効な場合だけ保持する。
+ * 明細と同じ読み込みで品目も読んだ場合は、品目マスタも同じ版で登録する (item-codeシートを読み直さない)。
+ */
+@Component
+public class LedgerCache {
+    private static final Logger log = LoggerFactory.getLogger(LedgerCache.class);
+
+    @Value("${ai.excel.cache.verify-hash:false}")
+    private boolean verifyHash;
+
+    @Value("${ai.excel.cache.verify-hash-interval:1m}")
+    private Duration verifyHashInterval;
+
+    @Value("${ai.excel.cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${ai.excel.read-mode:dom}")
+    private String readMode;
+
+    @Value("${ai.excel.watch.enabled:false}")
+    private boolean watchEnabled;
+
+    @Value("${ai.excel.watch.incremental:true}")
+    private boolean watchIncremental;
+
+    private final Map<String, CachedLedger> ledgers = new ConcurrentHashMap<>();
+    private final Map<String, CachedMaster> masters = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> staleListeners = new ConcurrentHashMap<>();
+    // verify-hashが有効な場合に、ファイルごとに最後に計算したハッシュ
+    private final Map<String, HashedFile> hashes = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong lastLoadNanos = new AtomicLong();
+    private final AtomicLong totalLoadNanos = new AtomicLong();
+    private final AtomicLong snapshotLoads = new AtomicLong();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong reloadFailures = new AtomicLong();
+    private volatile LedgerDto.ReloadStatus lastReload;
+
+    private final LedgerSnapshotStore snapshotStore;
+
+    public LedgerCache(LedgerSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * 全シートの読み込み結果 (itemCodesは明細と同時に読まなかった場合はnull)
+     */
+    public record LoadedWorkbook(List<AccountDto> entries, List<ItemCodeDto> itemCodes) {
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        LoadedWorkbook load(String excelFilePath) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ItemMasterLoader {
+        List<ItemCodeDto> load(String excelFilePath) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface IncrementalLoader {
+        WorkbookState load(String excelFilePath, WorkbookState previous) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface SourceWriter {
+        void write(Path excelFile) throws Exception;
+    }
+
+    /**
+     * キャッシュ済みの明細を返す。ファイルが変わっていればloaderで読み直す
+     */
+    public ColumnarLedger get(String excelFilePath, Loader loader) throws Exception {
+        String key = normalize(excelFilePath);
+        FileIdentity identity = identify(key);
+        CachedLedger cached = ledgers.get(key);
+        if (cached != null && cached.identity.equals(identity)) {
+            hits.incrementAndGet();
+            return cached.touch();
+        }
+        // 監視中のファイルはバックグラウンドで読み直すので、それまでは現在の明細を返す
+        Runnable staleListener = staleListeners.get(key);
+        if (cached != null && staleListener != null) {
+            hits.incrementAndGet();
+            staleListener.run();
+            return cached.touch();
+        }
+
+        ReentrantLock lock = lock(key);
+        try {
+            // 待っている間に他のスレッドが読み込んでいればそれを使う
+            cached = ledgers.get(key);
+            if (cached != null && cached.identity.equals(identity)) {
+                hits.incrementAndGet();
+                return cached.touch();
+            }
+            misses.incrementAndGet();
+            if (cached == null) {
+                CachedLedger restored = restoreSnapshot(key, identity);
+                if (restored != null) {
+                    return restored.entries;
+                }
+            }
+            return load(key, identity, excelFilePath, loader);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 差分再読み込みを使わない場合の再読み込み。ファイルが変わっていればloaderで全シートを読み直し、明細を入れ替える
+     */
+    public void refresh(String excelFilePath, Loader loader) throws Exception {
+        String key = normalize(excelFilePath);
+        ReentrantLock lock = lock(key);
+        try {
+            FileIdentity identity = identify(key);
+            CachedLedger cached = ledgers.get(key);
+            if (cached != null && cached.identity.equals(identity)) {
+                return;
+            }
+            if (cached == null && restoreSnapshot(key, identity) != null) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                load(key, identity, excelFilePath, loader);
+            } catch (Exception e) {
+                reloadFailures.incrementAndGet();
+                throw e;
+            }
+            lastReload = new LedgerDto.ReloadStatus(LocalDateTime.now(), (System.nanoTime() - start) / 1_000_000,
+                    0, 0, reloads.incrementAndGet(), reloadFailures.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 差分再読み込み用の状態を保持するか (streamモードで監視し、差分再読み込みが有効な場合だけ)
+     * domモードでは全体を読み直すので、シートごとの明細・共有文字列を台帳と二重に持たない。
+     */
+    public boolean isIncremental() {
+        return watchEnabled && watchIncremental && "stream".equalsIgnoreCase(readMode);
+    }
+
+    private ColumnarLedger load(String key, FileIdentity identity, String excelFilePath, Loader loader) throws Exception {
+        long start = System.nanoTime();
+        LoadedWorkbook loaded = loader.load(excelFilePath);
+        ColumnarLedger entries = ColumnarLedger.of(loaded.entries());
+        long elapsed = System.nanoTime() - start;
+        loads.incrementAndGet();
+        lastLoadNanos.set(elapsed);
+        totalLoadNanos.addAndGet(elapsed);
+        put(key, new CachedLedger(identity, entries, null));
+        if (loaded.itemCodes() != null) {
+            putMaster(key, new CachedMaster(identity, ItemMaster.of(loaded.itemCodes())));
+        }
+        snapshotStore.save(key, identity.lastModified(), identity.size(), entries, null);
+        log.info("明細キャッシュ更新 path={} rows={} {}ms", key, entries.size(), elapsed / 1_000_000);
+        return entries;
+    }
+
+    /**
+     * 品目マスタを返す。明細と同時に読んだものがなく、ファイルが変わっていればloaderで読み直す (item-codeシートだけを読む)
+     */
+    public ItemMaster getItemMaster(String excelFilePath, ItemMasterLoader loader) throws Exception {
+        String key = normalize(excelFilePath);
+        FileIdentity identity = identify(key);
+        CachedMaster cached = masters.get(key);
+        if (cached != null && cached.identity.equals(identity)) {
+            return cached.master;
+        }
+        ReentrantLock lock = lock(key);
+        try {
+            cached = masters.get(key);
+            if (cached != null && cached.identity.equals(identity)) {
+                return cached.master;
+            }
+            long start = System.nanoTime();
+            ItemMaster master = ItemMaster.of(loader.load(excelFilePath));
+            putMaster(key, new CachedMaster(identity, master));
+            log.info("品目マスタ更新 path={} items={} {}ms", key, master.size(), (System.nanoTime() - start) / 1_000_000);
+            return master;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 前回の状態を渡して差分で読み直し、明細を入れ替える (読み込み中も参照側は旧明細を使える)
+     */
+    public void reload(String excelFilePath, IncrementalLoader loader) throws Exception {
+        String key = normalize(excelFilePath);
+        ReentrantLock lock = lock(key);
+        try {
+            FileIdentity identity = identify(key);
+            CachedLedger cached = ledgers.get(key);
+            if (cached != null && cached.identity.equals(identity) && cached.state != null) {
+                return;
+            }
+            if (cached == null) {
+                CachedLedger restored = restoreSnapshot(key, identity);
+                if (restored != null && restored.state != null) {
+                    return;
+                }
+                cached = restored;
+            }
+            long start = System.nanoTime();
+            WorkbookState state;
+            try {
+                state = loader.load(excelFilePath, cached == null ? null : cached.state);
+            } catch (Exception e) {
+                reloadFailures.incrementAndGet();
+                throw e;
+            }
+            ColumnarLedger entries = state.toLedger();
+            long elapsed = System.nanoTime() - start;
+            loads.incrementAndGet();
+            lastLoadNanos.set(elapsed);
+            totalLoadNanos.addAndGet(elapsed);
+            put(key, new CachedLedger(identity, entries, kept(state)));
+            snapshotStore.save(key, identity.lastModified(), identity.size(), entries, kept(state));
+            lastReload = new LedgerDto.ReloadStatus(LocalDateTime.now(), elapsed / 1_000_000,
+                    state.parsedSheets(), state.segments().size(), reloads.incrementAndGet(), reloadFailures.get());
+            log.info("明細再読み込み path={} rows={} sheets={}/{} {}ms", key, entries.size(),
+                    state.parsedSheets(), state.segments().size(), elapsed / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 解析済みの状態で明細・品目マスタを入れ替える (アップロード用)
+     * writerで元ファイルを書き換えた後の版で登録するので、監視による再読み込みや次回の参照で解析し直さない。
+     * itemCodesがnullの場合は品目マスタを破棄し、次回の参照で読み直す。
+     */
+    public ColumnarLedger replace(String excelFilePath, SourceWriter writer, WorkbookState state,
+                                  List<ItemCodeDto> itemCodes) throws Exception {
+        String key = normalize(excelFilePath);
+        ReentrantLock lock = lock(key);
+        try {
+            writer.write(Paths.get(key));
+            FileIdentity identity = identify(key);
+            ColumnarLedger entries = state.toLedger();
+            put(key, new CachedLedger(identity, entries, kept(state)));
+            if (itemCodes != null) {
+                putMaster(key, new CachedMaster(identity, ItemMaster.of(itemCodes)));
+            } else {
+                removeMaster(key);
+            }
+            snapshotStore.save(key, identity.lastModified(), identity.size(), entries, kept(state));
+            log.info("明細入れ替え path={} rows={} sheets={}", key, entries.size(), state.segments().size());
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * ファイルの変更を検知したときに呼ぶ処理を登録する
+     */
+    public void watch(String excelFilePath, Runnable onStale) {
+        staleListeners.put(normalize(excelFilePath), onStale);
+    }
+
+    public void unwatch(String excelFilePath) {
+        staleListeners.remove(normalize(excelFilePath));
+    }
+
+    public LedgerDto.ReloadStatus getReloadStatus() {
+        LedgerDto.ReloadStatus status = lastReload;
+        if (status == null) {
+            return new LedgerDto.ReloadStatus(null, 0, 0, 0, reloads.get(), reloadFailures.get());
+        }
+        return new LedgerDto.ReloadStatus(status.getLastReloadAt(), status.getLastReloadMillis(),
+                status.getParsedSheets(), status.getTotalSheets(), reloads.get(), reloadFailures.get());
+    }
+
+    /**
+     * ファイルの版 (更新日時とサイズ)。ファイルが書き換わると値が変わる
+     */
+    public String versionOf(String excelFilePath) throws Exception {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(normalize(excelFilePath)), BasicFileAttributes.class);
+            return attrs.lastModifiedTime().toMillis() + "-" + attrs.size();
+        } catch (IOException e) {
+            throw new Exception("ファイル読み込みに失敗しました。", e);
+        }
+    }
+
+    public void invalidate(String excelFilePath) {
+        String key = normalize(excelFilePath);
+        CachedLedger removed = ledgers.remove(key);
+        if (removed != null) {
+            cachedBytes.addAndGet(-removed.bytes);
+        }
+        removeMaster(key);
+        hashes.remove(key);
+    }
+
+    public LedgerDto.CacheStats getStats() {
+        return new LedgerDto.CacheStats(
+                hits.get(),
+                misses.get(),
+                loads.get(),
+                lastLoadNanos.get() / 1_000_000,
+                totalLoadNanos.get() / 1_000_000,
+                snapshotLoads.get(),
+                ledgers.size(),
+                cachedBytes.get(),
+                maxBytes,
+                evictions.get());
+    }
+
+    /**
+     * 元ファイルと一致するスナップショットがあれば、それを台帳として登録する
+     */
+    private CachedLedger restoreSnapshot(String key, FileIdentity identity) {
+        LedgerSnapshot.Loaded loaded = snapshotStore.load(key, identity.lastModified(), identity.size(), identity.hash());
+        if (loaded == null) return null;
+        CachedLedger restored = new CachedLedger(identity, loaded.ledger(), kept(loaded.state()));
+        put(key, restored);
+        snapshotLoads.incrementAndGet();
+        return restored;
+    }
+
+    private WorkbookState kept(WorkbookState state) {
+        return isIncremental() ? state : null;
+    }
+
+    /**
+     * 明細を登録し、上限を超えた分を最後の参照が古い順に破棄する (登録したものは破棄しない)
+     */
+    private void put(String key, CachedLedger cached) {
+        CachedLedger previous = ledgers.put(key, cached);
+        cachedBytes.addAndGet(cached.bytes - (previous == null ? 0 : previous.bytes));
+        if (cachedBytes.get() <= maxBytes) return;
+        synchronized (evictionLock) {
+            // 参照時刻は並べ替え中にも変わるので、先に値を写してから並べる
+            List<Candidate> candidates = new ArrayList<>(ledgers.size());
+            ledgers.forEach((k, v) -> candidates.add(new Candidate(k, v, v.lastAccess)));
+            candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+            for (Candidate candidate : candidates) {
+                if (cachedBytes.get() <= maxBytes) break;
+                if (candidate.key().equals(key) || !ledgers.remove(candidate.key(), candidate.cached())) continue;
+                cachedBytes.addAndGet(-candidate.cached().bytes);
+                removeMaster(candidate.key());
+                removeLock(candidate.key());
+                hashes.remove(candidate.key());
+                evictions.incrementAndGet();
+                log.info("明細キャッシュ破棄 path={} bytes={} total={}/{}", candidate.key(), candidate.cached().bytes,
+                        cachedBytes.get(), maxBytes);
+            }
+            // 明細を持たない品目マスタだけの登録も、まだ上限を超えていれば破棄する
+            for (String masterKey : List.copyOf(masters.keySet())) {
+                if (cachedBytes.get() <= maxBytes) break;
+                if (masterKey.equals(key) || ledgers.containsKey(masterKey)) continue;
+                removeMaster(masterKey);
+                removeLock(masterKey);
+            }
+        }
+    }
+
+    private void putMaster(String key, CachedMaster cached) {
+        CachedMaster previous = masters.put(key, cached);
+        cachedBytes.addAndGet(cached.bytes() - (previous == null ? 0 : previous.bytes()));
+    }
+
+    private void removeMaster(String key) {
+        CachedMaster removed = masters.remove(key);
+        if (removed != null) {
+            cachedBytes.addAndGet(-removed.bytes());
+        }
+    }
+
+    /**
+     * ファイルごとのロックを取る。取った後に破棄されていた (台帳と一緒に削除された) 場合は取り直す
+     */
+    private ReentrantLock lock(String key) {
+        while (true) {
+            ReentrantLock lock = locks.computeIfAbsent(key, k -> new ReentrantLock());
+            lock.lock();
+            if (locks.get(key) == lock) {
+                return lock;
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 誰も使っていなければロックを削除する (使用中なら次の破棄まで残す)
+     */
+    private void removeLock(String key) {
+        ReentrantLock lock = locks.get(key);
+        if (lock != null && lock.tryLock()) {
+            try {
+                locks.remove(key, lock);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private FileIdentity identify(String path) throws Exception {
+        Path file = Paths.get(path);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            String hash = verifyHash ? hashOf(path, file, lastModified, attrs.size()) : null;
+            return new FileIdentity(lastModified, attrs.size(), hash);
+        } catch (IOException e) {
+            throw new Exception("ファイル読み込みに失敗しました。", e);
+        }
+    }
+
+    /**
+     * ファイル全体のハッシュ。更新日時・サイズが前回の計算時と同じで、verify-hash-intervalが経っていなければ前回の値を使う
+     */
+    private String hashOf(String key, Path file, long lastModified, long size) throws IOException {
+        long now = System.nanoTime();
+        HashedFile previous = hashes.get(key);
+        if (previous != null && previous.lastModified() == lastModified && previous.size() == size
+                && now - previous.hashedAt() < verifyHashInterval.toNanos()) {
+            return previous.hash();
+        }
+        String hash = DigestUtils.sha256Hex(file);
+        hashes.put(key, new HashedFile(lastModified, size, hash, now));
+        return hash;
+    }
+
+    private static String normalize(String excelFilePath) {
+        return Paths.get(excelFilePath).toAbsolutePath().normalize().toString();
+    }
+
+    private record FileIdentity(long lastModified, long size, String hash) {
+    }
+
+    private record HashedFile(long lastModified, long size, String hash, long hashedAt) {
+    }
+
+    private record Candidate(String key, CachedLedger cached, long lastAccess) {
+    }
+
+    private record CachedMaster(FileIdentity identity, ItemMaster master, long bytes) {
+        private CachedMaster(FileIdentity identity, ItemMaster master) {
+            this(identity, master, master.estimatedBytes());
+        }
+    }
+
+    private static final class CachedLedger {
+        private final FileIdentity identity;
+        private final ColumnarLedger entries;
+        private final WorkbookState state;
+        // 差分取り込み用の状態はシートごとの明細と共有文字列を別に持つので、その分も数える
+        private final long bytes;
+        private volatile long lastAccess = System.nanoTime();
+
+        private CachedLedger(FileIdentity identity, ColumnarLedger entries, WorkbookState state) {
+            this.identity = identity;
+            this.entries = entries;
+            this.state = state;
+            this.bytes = entries.estimatedBytes() + (state == null ? 0 : state.estimatedBytes());
+        }
+
+        private ColumnarLedger touch() {
+            lastAccess = System.nanoTime();
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.tohyama.accountbook.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 台帳IDからワークブックのパスを引き、台帳ごとのリポート作成の同時実行数を制限する
+ * パスは ai.ledgers.path.<台帳ID> があればそれを、なければ ai.ledgers.directory/<台帳ID>.xlsx を使う。
+ * 台帳IDを省略した場合は既定の台帳 (ai.excel.path)。
+ */
+@Component
+public class LedgerRegistry {
+    public static final String DEFAULT_ID = "default";
+
+    // パスの一部になるので、区切り文字や..を含まない名前に限る
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Environment environment;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    @Value("${ai.excel.path}")
+    private String excelFilePath;
+
+    @Value("${ai.ledgers.directory:C:/Temp/account-book/ledgers}")
+    private String directory;
+
+    @Value("${ai.ledgers.max-concurrent.default:1}")
+    private int defaultMaxConcurrent;
+
+    @Value("${ai.ledgers.acquire-timeout:60s}")
+    private Duration acquireTimeout;
+
+    public LedgerRegistry(Environment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * 台帳の実行枠の空きを待つ時間を超えた場合
+     */
+    public static class LedgerBusyException extends RuntimeException {
+        LedgerBusyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 取得した実行枠 (closeで返す)
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * 台帳ID (省略時は DEFAULT_ID)。使えない文字を含む場合はIllegalArgumentException
+     */
+    public static String idOf(String ledgerId) {
+        if (ledgerId == null || ledgerId.isBlank()) return DEFAULT_ID;
+        if (!ID_PATTERN.matcher(ledgerId).matches()) {
+            throw new IllegalArgumentException("台帳IDは英数字・_・-の64文字以内で指定してください: " + ledgerId);
+        }
+        return ledgerId;
+    }
+
+    public static boolean isDefault(String ledgerId) {
+        return ledgerId == null || ledgerId.isBlank() || DEFAULT_ID.equals(ledgerId);
+    }
+
+    /**
+     * ワークブックのパス。ファイルがない場合はIllegalArgumentException
+     */
+    public String pathOf(String ledgerId) {
+        String path = resolve(ledgerId);
+        if (!Files.isRegularFile(Paths.get(path))) {
+            throw new IllegalArgumentException("台帳が見つかりません: " + idOf(ledgerId));
+        }
+        return path;
+    }
+
+    /**
+     * ワークブックのパス (アップロード先など、ファイルがまだなくてもよい場合)
+     */
+    public String resolve(String ledgerId) {
+        String id = idOf(ledgerId);
+        if (DEFAULT_ID.equals(id)) return excelFilePath;
+        String configured = environment.getProperty("ai.ledgers.path." + id);
+        return configured != null ? configured : Paths.get(directory, id + ".xlsx").toString();
+    }
+
+    /**
+     * 台帳の実行枠を取得する (大きな台帳のリポート作成が他の台帳の分まで塞がないようにする)
+     * ai.ledgers.max-concurrent.<台帳ID> があればそれを、なければdefaultを使う。
+     * 同期版のエンドポイント用で、acquire-timeout までに空かなければ LedgerBusyException。
+     */
+    public Permit acquire(String ledgerId) throws InterruptedException {
+        String id = idOf(ledgerId);
+        Semaphore semaphore = semaphoreOf(id);
+        if (!semaphore.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new LedgerBusyException("台帳 " + id + " のリポート作成が混み合っています。しばらくしてから実行してください。");
+        }
+        return semaphore::release;
+    }
+
+    /**
+     * 台帳の実行枠が空くまで待って取得する (ジョブ用。待っている間も実行待ちのまま失敗にしない)
+     */
+    public Permit acquireWaiting(String ledgerId) throws InterruptedException {
+        Semaphore semaphore = semaphoreOf(idOf(ledgerId));
+        semaphore.acquire();
+        return semaphore::release;
+    }
+
+    private Semaphore semaphoreOf(String id) {
+        return permits.computeIfAbsent(id, k -> new Semaphore(Math.max(1, environment.getProperty(
+                "ai.ledgers.max-concurrent." + k, Integer.class, defaultMaxConcurrent)), true));
+    }
+}
@@ -0,0 +1,186 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.utils.DateUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * 月シートの行を型付きで読み取り、明細をColumnarLedgerに直接積む
+ * 日付はエポック日のまま扱い (文字列・LocalDateを経由しない)、数値も例外を使わずに解析する。
+ * 不正な値は行・セル単位で数えるだけで、読み込みは止めない。
+ */
+final class LedgerRowDecoder {
+    static final long INVALID_INT = Long.MIN_VALUE;
+
+    // 日付セルが空 (欠落扱い)
+    static final int MISSING_DAY = Integer.MIN_VALUE + 1;
+
+    private final ColumnarLedger.Builder builder;
+    private final boolean use1904Windowing;
+    private int missing;
+    private int badDate;
+    private int badCount;
+    private int badPrice;
+
+    LedgerRowDecoder(int expectedRows, boolean use1904Windowing) {
+        this.builder = ColumnarLedger.builder(expectedRows);
+        this.use1904Windowing = use1904Windowing;
+    }
+
+    /**
+     * DOM (XSSFWorkbook) の1行
+     */
+    void add(Row row) {
+        add(epochDayOf(row.getCell(0)), ExcelParserImpl.getStringCell(row, 1), ExcelParserImpl.getStringCell(row, 2),
+                row.getCell(3), row.getCell(4), ExcelParserImpl.getStringCell(row, 5));
+    }
+
+    private void add(int epochDay, String name, String id, Cell cnt, Cell price, String note) {
+        if (!accept(epochDay, name, id)) return;
+        builder.add(epochDay, name, id, count(intOf(cnt)), price(intOf(price)), note);
+    }
+
+    /**
+     * イベントAPIの1行 (日付はepochDayOfで変換済みのエポック日、それ以外のセル値は書式適用後の文字列)
+     */
+    void add(int epochDay, String name, String id, String cnt, String price, String note) {
+        if (!accept(epochDay, name, id)) return;
+        builder.add(epochDay, name, id, count(cnt == null ? 0 : parseInt(cnt)),
+                price(price == null ? 0 : parseInt(price)), note);
+    }
+
+    ColumnarLedger build() {
+        return builder.build();
+    }
+
+    int missing() {
+        return missing;
+    }
+
+    int badDate() {
+        return badDate;
+    }
+
+    int badCount() {
+        return badCount;
+    }
+
+    int badPrice() {
+        return badPrice;
+    }
+
+    /**
+     * 日付・名前・IDが欠けている行、日付が不正な行は数えて読み飛ばす
+     */
+    private boolean accept(int epochDay, String name, String id) {
+        if (epochDay == MISSING_DAY || name == null || id == null) {
+            missing++;
+            return false;
+        }
+        if (epochDay == DateUtils.INVALID_DAY) {
+            badDate++;
+            return false;
+        }
+        return true;
+    }
+
+    private int count(long value) {
+        if (value == INVALID_INT) {
+            badCount++;
+            return 0;
+        }
+        return (int) value;
+    }
+
+    private int price(long value) {
+        if (value == INVALID_INT) {
+            badPrice++;
+            return 0;
+        }
+        return (int) value;
+    }
+
+    /**
+     * イベントAPIの文字列の日付セル (yyyy-MM-dd / yyyy/M/d) をエポック日にする。nullは欠落
+     */
+    int epochDayOf(String text) {
+        return text == null ? MISSING_DAY : DateUtils.parseEpochDay(text);
+    }
+
+    /**
+     * イベントAPIの数値の日付セル (シリアル値と書式) をエポック日にする。日付書式でなければ不正
+     */
+    int epochDayOf(double serial, int formatIndex, String formatString) {
+        if (formatString == null || !DateUtil.isADateFormat(formatIndex, formatString)) return DateUtils.INVALID_DAY;
+        return DateUtils.epochDayOfSerial(serial, use1904Windowing);
+    }
+
+    /**
+     * 日付セルをエポック日にする (文字列はyyyy-MM-dd / yyyy/M/d、数値は日付書式のもののみ)
+     */
+    private int epochDayOf(Cell cell) {
+        if (cell == null) return MISSING_DAY;
+        CellType type = cell.getCellType();
+        if (type == CellType.FORMULA) {
+            type = cell.getCachedFormulaResultType();
+        } else if (type == CellType.STRING && cell.getStringCellValue().isEmpty()) {
+            return MISSING_DAY;
+        }
+        if (type == CellType.STRING) {
+            return DateUtils.parseEpochDay(cell.getStringCellValue());
+        }
+        if (type == CellType.NUMERIC) {
+            if (!DateUtil.isCellDateFormatted(cell)) return DateUtils.INVALID_DAY;
+            return DateUtils.epochDayOfSerial(cell.getNumericCellValue(), use1904Windowing);
+        }
+        return MISSING_DAY;
+    }
+
+    /**
+     * 数値セルの整数値 (空は0、数値に読めない文字列は INVALID_INT)
+     */
+    static long intOf(Cell cell) {
+        if (cell == null) return 0;
+        CellType type = cell.getCellType();
+        if (type == CellType.FORMULA) {
+            type = cell.getCachedFormulaResultType();
+        }
+        if (type == CellType.NUMERIC) {
+            return (int) cell.getNumericCellValue();
+        }
+        if (type == CellType.STRING) {
+            String value = cell.getStringCellValue();
+            return value.isEmpty() ? 0 : parseInt(value);
+        }
+        return 0;
+    }
+
+    /**
+     * Integer.parseIntと同じ形式 (符号・10進数字、全角数字を含む) を例外なしで解析する。解析できなければ INVALID_INT
+     */
+    static long parseInt(CharSequence text) {
+        int length = text.length();
+        if (length == 0) return INVALID_INT;
+        int i = 0;
+        boolean negative = false;
+        char first = text.charAt(0);
+        if (first == '-' || first == '+') {
+            if (length == 1) return INVALID_INT;
+            negative = first == '-';
+            i = 1;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            int digit = c < 0x80 ? c - '0' : Character.digit(c, 10);
+            if (digit < 0 || digit > 9) return INVALID_INT;
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) return INVALID_INT;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? INVALID_INT : value;
+    }
+}
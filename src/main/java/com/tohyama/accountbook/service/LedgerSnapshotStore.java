@@ -0,0 +1,84 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.ledger.LedgerSnapshot;
+import com.tohyama.accountbook.ledger.WorkbookState;
+import com.tohyama.accountbook.utils.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 台帳スナップショットの保存先を管理する
+ * 解析に成功したらバックグラウンドで書き出し、起動後の最初の読み込みではワークブックより先にこちらを使う。
+ */
+@Component
+public class LedgerSnapshotStore {
+    private static final Logger log = LoggerFactory.getLogger(LedgerSnapshotStore.class);
+
+    @Value("${ai.excel.snapshot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.excel.snapshot.directory:C:/Temp/account-book}")
+    private String directory;
+
+    /**
+     * 元ファイルの更新日時・サイズ (hashを渡した場合はハッシュも) が一致するスナップショットを読み込む。なければnull
+     */
+    public LedgerSnapshot.Loaded load(String sourcePath, long lastModified, long size, String hash) {
+        if (!enabled) return null;
+        Path file = snapshotFile(sourcePath);
+        if (!Files.exists(file)) return null;
+        try {
+            long start = System.nanoTime();
+            LedgerSnapshot.Header header = LedgerSnapshot.readHeader(file);
+            if (header.sourceLastModified() != lastModified || header.sourceSize() != size
+                    || (hash != null && !hash.equals(header.sourceHash()))) {
+                log.info("スナップショットが古いため使用しません: {}", file);
+                return null;
+            }
+            LedgerSnapshot.Loaded loaded = LedgerSnapshot.read(file);
+            log.info("スナップショット読み込み rows={} {}ms", loaded.ledger().size(), (System.nanoTime() - start) / 1_000_000);
+            return loaded;
+        } catch (Exception e) {
+            log.warn("スナップショット読み込み失敗: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * バックグラウンドでスナップショットを書き出す
+     */
+    public void save(String sourcePath, long lastModified, long size, ColumnarLedger ledger, WorkbookState state) {
+        if (!enabled) return;
+        Thread.ofVirtual().name("ledger-snapshot").start(() -> {
+            try {
+                Path source = Paths.get(sourcePath);
+                String hash = DigestUtils.sha256Hex(source);
+                // ハッシュ計算中にファイルが更新された場合は書かない
+                BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+                if (attrs.lastModifiedTime().toMillis() != lastModified || attrs.size() != size) {
+                    return;
+                }
+                Path file = snapshotFile(sourcePath);
+                Files.createDirectories(file.getParent());
+                LedgerSnapshot.write(file, new LedgerSnapshot.Header(lastModified, size, hash), ledger, state);
+                log.info("スナップショット保存: {}", file);
+            } catch (Exception e) {
+                log.warn("スナップショット保存失敗: {}", e.getMessage());
+            }
+        });
+    }
+
+    private Path snapshotFile(String sourcePath) {
+        String key = DigestUtils.sha256Hex(sourcePath.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        return Paths.get(directory).resolve("ledger-" + key + ".snapshot");
+    }
+}
@@ -0,0 +1,335 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ItemCodeDto;
+import com.tohyama.accountbook.dto.LedgerDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import com.tohyama.accountbook.ledger.WorkbookState;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * アップロードされたワークブックをメモリ上で解析し、リポートが参照する台帳と入れ替える
+ * リクエスト本文は上限付きのバッファに受け取り、一時ファイルを経由せずにイベントAPIで解析する。
+ * 受け取りから解析完了までの同時実行数はSemaphoreで制限し、ヒープの使用量を抑える。
+ * 入れ替え先は台帳IDで指定する (LedgerRegistry)。まだファイルのない台帳にもアップロードできる。
+ * 明細が1行もない、またはitem-codeシートがないワークブックは台帳として受け付けない。
+ * 入れ替える前に元のファイルを同じディレクトリに <ファイル名>.bak-<日時> として残す (新しいものから指定の世代数まで)。
+ */
+@Service
+public class LedgerUploadService implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(LedgerUploadService.class);
+
+    // Content-Lengthがない場合の初期バッファ
+    private static final int INITIAL_BUFFER = 1 << 20;
+    private static final DateTimeFormatter BACKUP_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final ExcelStreamReader excelStreamReader;
+    private final LedgerCache ledgerCache;
+    private final LedgerRegistry ledgerRegistry;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    @Value("${ai.excel.upload.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${ai.excel.upload.acquire-timeout:5s}")
+    private Duration acquireTimeout;
+
+    @Value("${ai.excel.upload.retention:1h}")
+    private Duration retention;
+
+    @Value("${ai.excel.upload.backups:5}")
+    private int backups;
+
+    public LedgerUploadService(ExcelStreamReader excelStreamReader, LedgerCache ledgerCache,
+                               LedgerRegistry ledgerRegistry, MeterRegistry meterRegistry,
+                               @Value("${ai.excel.upload.max-concurrent:1}") int maxConcurrent) {
+        this.excelStreamReader = excelStreamReader;
+        this.ledgerCache = ledgerCache;
+        this.ledgerRegistry = ledgerRegistry;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    /**
+     * 同時アップロード数の上限に達している (busy) か、サイズの上限を超えた場合
+     */
+    public static class UploadRejectedException extends RuntimeException {
+        private final boolean busy;
+
+        UploadRejectedException(String message, boolean busy) {
+            super(message);
+            this.busy = busy;
+        }
+
+        public boolean isBusy() {
+            return busy;
+        }
+    }
+
+    /**
+     * 状態は解析スレッドが書き込み、照会側はスナップショットを返す
+     */
+    private static class Upload implements SheetParseExecutor.Progress {
+        private final String uploadId = UUID.randomUUID().toString();
+        private final String ledgerId;
+        private final String excelFilePath;
+        private final String fileName;
+        private volatile ReportJobDto.Status status = ReportJobDto.Status.QUEUED;
+        private volatile long bytes;
+        private volatile int totalSheets;
+        private volatile int parsedSheets;
+        private volatile int rows;
+        private volatile LocalDateTime receivedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile long receiveNanos;
+        private volatile long parseNanos;
+        private volatile String error;
+
+        private Upload(String ledgerId, String excelFilePath, String fileName) {
+            this.ledgerId = ledgerId;
+            this.excelFilePath = excelFilePath;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void start(int sheets) {
+            totalSheets = sheets;
+        }
+
+        @Override
+        public synchronized void sheetParsed(String sheetName, int sheetRows) {
+            parsedSheets++;
+            rows += sheetRows;
+        }
+
+        private LedgerDto.UploadStatus toStatus() {
+            return new LedgerDto.UploadStatus(uploadId, ledgerId, status, fileName, bytes, totalSheets, parsedSheets, rows,
+                    receivedAt, finishedAt, receiveNanos / 1_000_000, parseNanos / 1_000_000, error);
+        }
+    }
+
+    /**
+     * 本文を受け取り、解析を登録してすぐに状態を返す (本文の読み込みは呼び出し元のスレッドで行う)
+     *
+     * @param contentLength 本文のバイト数 (不明な場合は負の値)
+     */
+    public LedgerDto.UploadStatus submit(String fileName, String ledgerId, long contentLength, InputStream body)
+            throws IOException {
+        if (fileName != null && !fileName.toLowerCase().endsWith(".xlsx")) {
+            throw new IllegalArgumentException("xlsx形式のファイルを指定してください: " + fileName);
+        }
+        String excelFilePath = ledgerRegistry.resolve(ledgerId);
+        if (contentLength > maxBytes) {
+            throw new UploadRejectedException("ファイルサイズが上限 (" + maxBytes + "バイト) を超えています。", false);
+        }
+        purgeFinished();
+        try {
+            if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new UploadRejectedException("同時アップロード数の上限に達しました。", true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("中断されました。", e);
+        }
+        boolean submitted = false;
+        try {
+            Upload upload = new Upload(LedgerRegistry.idOf(ledgerId), excelFilePath, fileName);
+            long start = System.nanoTime();
+            Received received = receive(body, contentLength);
+            upload.bytes = received.length();
+            upload.receiveNanos = System.nanoTime() - start;
+            upload.receivedAt = LocalDateTime.now();
+            uploads.put(upload.uploadId, upload);
+            executor.submit(() -> run(upload, received.buffer(), received.length()));
+            submitted = true;
+            return upload.toStatus();
+        } finally {
+            if (!submitted) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * アップロードの状態。存在しない (期限切れを含む) 場合はnull
+     */
+    public LedgerDto.UploadStatus getStatus(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        return upload == null ? null : upload.toStatus();
+    }
+
+    private void run(Upload upload, byte[] buffer, int length) {
+        upload.status = ReportJobDto.Status.RUNNING;
+        long start = System.nanoTime();
+        String result = "failed";
+        OPCPackage pkg = null;
+        try {
+            WorkbookState state;
+            List<ItemCodeDto> itemCodes;
+            try {
+                pkg = OPCPackage.open(new ByteArrayInputStream(buffer, 0, length));
+                state = excelStreamReader.readIncremental(pkg, null, upload);
+                itemCodes = excelStreamReader.readItemCodes(pkg);
+            } finally {
+                if (pkg != null) {
+                    pkg.revert();
+                }
+            }
+            validate(state, itemCodes);
+            ColumnarLedger entries = ledgerCache.replace(upload.excelFilePath, file -> write(file, buffer, length),
+                    state, itemCodes);
+            upload.rows = entries.size();
+            upload.parseNanos = System.nanoTime() - start;
+            finish(upload, ReportJobDto.Status.SUCCEEDED, null);
+            result = "succeeded";
+            log.info("アップロード取り込み完了 id={} ledger={} file={} bytes={} rows={} sheets={} receive={}ms parse={}ms",
+                    upload.uploadId, upload.ledgerId, upload.fileName, length, entries.size(), upload.totalSheets,
+                    upload.receiveNanos / 1_000_000, upload.parseNanos / 1_000_000);
+        } catch (Exception e) {
+            upload.parseNanos = System.nanoTime() - start;
+            log.error("アップロード取り込み失敗 id={} file={}: {}", upload.uploadId, upload.fileName, e.getMessage(), e);
+            finish(upload, ReportJobDto.Status.FAILED, "エラー発生: " + e.getMessage());
+        } finally {
+            permits.release();
+            Timer.builder("ledger.upload")
+                    .description("アップロードされたワークブックの解析・入れ替え時間")
+                    .tag("result", result)
+                    .register(meterRegistry)
+                    .record(upload.parseNanos, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("ledger.upload.size")
+                    .baseUnit("bytes")
+                    .register(meterRegistry)
+                    .record(length);
+        }
+    }
+
+    /**
+     * 本文を上限付きのバッファに読み込む (Content-Lengthが分かればその大きさで1回だけ確保する)
+     */
+    private Received receive(InputStream body, long contentLength) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(contentLength > 0 ? contentLength : INITIAL_BUFFER, maxBytes)];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                if (length >= maxBytes) {
+                    if (body.read() < 0) break;
+                    throw new UploadRejectedException("ファイルサイズが上限 (" + maxBytes + "バイト) を超えています。", false);
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) length * 2, maxBytes));
+            }
+            int n = body.read(buffer, length, buffer.length - length);
+            if (n < 0) break;
+            length += n;
+        }
+        return new Received(buffer, length);
+    }
+
+    private record Received(byte[] buffer, int length) {
+    }
+
+    /**
+     * 台帳として使えるワークブックか (明細が1行以上あり、item-codeシートがある)
+     */
+    private static void validate(WorkbookState state, List<ItemCodeDto> itemCodes) {
+        if (itemCodes == null) {
+            throw new IllegalArgumentException("item-codeシートがありません。");
+        }
+        if (state.segments().stream().allMatch(segment -> segment.entries().isEmpty())) {
+            throw new IllegalArgumentException("明細が1行もありません (月シートの1行目はヘッダー、2行目以降が明細です)。");
+        }
+    }
+
+    /**
+     * 同じディレクトリの一時ファイルに書いてから置き換え、書きかけのファイルを読まれないようにする
+     * 元のファイルがあれば先に <ファイル名>.bak-<日時> にコピーして残す。
+     */
+    private void write(Path file, byte[] buffer, int length) throws IOException {
+        Path directory = Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(directory, ".upload-", ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                os.write(buffer, 0, length);
+            }
+            if (backups > 0 && Files.exists(file)) {
+                backup(file);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 元のファイルをコピーし、指定の世代数を超えた古いバックアップを削除する
+     * (日時はファイル名の辞書順と同じ順になる形式なので、名前順で古いものを決める)
+     */
+    private void backup(Path file) throws IOException {
+        String prefix = file.getFileName() + ".bak-";
+        Path backup = file.resolveSibling(prefix + LocalDateTime.now().format(BACKUP_SUFFIX));
+        Files.copy(file, backup, StandardCopyOption.COPY_ATTRIBUTES);
+        log.info("台帳のバックアップ作成 {}", backup);
+
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(file.toAbsolutePath().getParent())) {
+            existing = files.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+        for (Path old : existing.subList(0, Math.max(0, existing.size() - backups))) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                log.warn("古いバックアップを削除できません {}: {}", old, e.getMessage());
+            }
+        }
+    }
+
+    private static void finish(Upload upload, ReportJobDto.Status status, String error) {
+        upload.error = error;
+        upload.finishedAt = LocalDateTime.now();
+        upload.status = status;
+    }
+
+    /**
+     * 完了から保持期間を過ぎた状態を削除する
+     */
+    private void purgeFinished() {
+        LocalDateTime limit = LocalDateTime.now().minus(retention);
+        uploads.values().removeIf(upload -> upload.finishedAt != null && upload.finishedAt.isBefore(limit));
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,114 @@
+package com.tohyama.accountbook.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ai.excel.pathのディレクトリを監視し、保存が落ち着いたら明細を読み直す
+ * streamモードで差分再読み込みが有効なら変更のあった月シートだけ、それ以外は read-mode で全体を読み直す。
+ */
+@Component
+public class LedgerWatcher implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(LedgerWatcher.class);
+
+    @Value("${ai.excel.path}")
+    private String excelFilePath;
+
+    @Value("${ai.excel.watch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.excel.watch.debounce-ms:1000}")
+    private long debounceMs;
+
+    private final LedgerCache ledgerCache;
+    private final ExcelParser excelParser;
+
+    private volatile boolean running;
+    private volatile boolean reloadRequested;
+    private Thread thread;
+
+    public LedgerWatcher(LedgerCache ledgerCache, ExcelParser excelParser) {
+        this.ledgerCache = ledgerCache;
+        this.excelParser = excelParser;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        running = true;
+        thread = Thread.ofPlatform().name("ledger-watcher").daemon().start(this::watchLoop);
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        ledgerCache.unwatch(excelFilePath);
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void watchLoop() {
+        Path file = Paths.get(excelFilePath).toAbsolutePath().normalize();
+        Path dir = file.getParent();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            log.info("ファイル監視開始: {}", file);
+
+            // 起動直後に読み込んでおき、最初のリポートで解析待ちにならないようにする
+            reload();
+            ledgerCache.watch(excelFilePath, () -> reloadRequested = true);
+
+            long lastEventAt = 0;
+            while (running) {
+                WatchKey key = watchService.poll(debounceMs, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path changed && file.getFileName().equals(changed)) {
+                            lastEventAt = System.currentTimeMillis();
+                        }
+                    }
+                    key.reset();
+                }
+                if (reloadRequested && lastEventAt == 0) {
+                    lastEventAt = System.currentTimeMillis();
+                }
+                // 保存中は書き込みが続くので、一定時間イベントが来なくなってから読み直す
+                if (lastEventAt > 0 && System.currentTimeMillis() - lastEventAt >= debounceMs) {
+                    lastEventAt = 0;
+                    reloadRequested = false;
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("ファイル監視失敗: {}", e.getMessage(), e);
+        } finally {
+            ledgerCache.unwatch(excelFilePath);
+        }
+    }
+
+    private void reload() {
+        try {
+            excelParser.reloadLedger(excelFilePath);
+        } catch (Exception e) {
+            // 保存途中などで読めない場合は現在の明細を使い続け、次の変更で再試行する
+            log.warn("明細の再読み込み失敗: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.tohyama.accountbook.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * プロンプトに埋め込む集計データを文字列にする
+ * 明細のリストは、キーを毎行繰り返すJSONの代わりにヘッダー行＋区切り文字の表にする。
+ * auto では情報量の多い順 (明細 → 品名を辞書化した明細 → 品名別集計 → 日別集計) に試し、
+ * 推定トークン数が上限に収まる最初の形式を使う。
+ * 月の内訳 (MonthlyBreakdown) は場所別・品目別の表にする。
+ * 期間の分析結果 (PeriodAnalytics) は日ごとの分布・上位品目・金額の大きい明細の表にする。
+ */
+@Component
+public class PromptPayloadEncoder {
+    private static final String SEPARATOR = "|";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${ai.prompt.encoding:auto}")
+    private String encoding;
+
+    @Value("${ai.prompt.token-budget:8000}")
+    private int tokenBudget;
+
+    public PromptPayloadEncoder() {
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    public record PromptPayload(String format, String text, int bytes, int estimatedTokens) {
+        static PromptPayload of(String format, String text) {
+            return new PromptPayload(format, text, text.getBytes(StandardCharsets.UTF_8).length, estimateTokens(text));
+        }
+    }
+
+    public PromptPayload encode(Object summaryData) throws Exception {
+        if (summaryData instanceof SummaryDto.MonthlyBreakdown breakdown && !"json".equalsIgnoreCase(encoding)) {
+            return breakdown(breakdown);
+        }
+        if (summaryData instanceof SummaryDto.PeriodAnalytics analytics && !"json".equalsIgnoreCase(encoding)) {
+            StringBuilder sb = new StringBuilder(1024);
+            sb.append("period: from|to|price|rows\n")
+                    .append(analytics.getFrom()).append(SEPARATOR)
+                    .append(analytics.getTo()).append(SEPARATOR)
+                    .append(analytics.getTotalAmount()).append(SEPARATOR)
+                    .append(analytics.getRows()).append('\n');
+            appendAnalytics(sb, analytics);
+            appendItems(sb, "top_price", analytics.getTopByAmount());
+            return PromptPayload.of("analytics", sb.toString());
+        }
+        List<AccountDto> entries = asEntries(summaryData);
+        if (entries == null || "json".equalsIgnoreCase(encoding)) {
+            return PromptPayload.of("json", objectMapper.writeValueAsString(summaryData));
+        }
+        return switch (encoding.toLowerCase()) {
+            case "table" -> PromptPayload.of("table", table(entries));
+            case "dictionary" -> PromptPayload.of("dictionary", dictionaryTable(entries));
+            case "by-item" -> PromptPayload.of("by-item", byItem(entries));
+            case "by-day" -> PromptPayload.of("by-day", byDay(entries));
+            default -> densestWithinBudget(entries);
+        };
+    }
+
+    /**
+     * 推定トークン数 (ASCIIは4文字で1トークン、それ以外は1文字1トークンとして概算する)
+     */
+    public static int estimateTokens(CharSequence text) {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 0x80) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    private PromptPayload densestWithinBudget(List<AccountDto> entries) {
+        PromptPayload payload = PromptPayload.of("table", table(entries));
+        if (payload.estimatedTokens() <= tokenBudget) return payload;
+        payload = PromptPayload.of("dictionary", dictionaryTable(entries));
+        if (payload.estimatedTokens() <= tokenBudget) return payload;
+        payload = PromptPayload.of("by-item", byItem(entries));
+        if (payload.estimatedTokens() <= tokenBudget) return payload;
+        // 日別集計は日数分の行にしかならないので、これ以上は縮めない
+        return PromptPayload.of("by-day", byDay(entries));
+    }
+
+    /**
+     * 月の内訳 (場所別・品目別の表)。上限を超える場合は金額の小さい品目を「その他」にまとめる
+     * 品目は金額順に並んでいるので、分析結果からは日ごとの分布・個数の上位・金額の大きい明細だけを加える。
+     */
+    private PromptPayload breakdown(SummaryDto.MonthlyBreakdown breakdown) {
+        StringBuilder sb = new StringBuilder(256 + breakdown.getItems().size() * 40);
+        sb.append("month|price|rows\n")
+                .append(breakdown.getYear()).append('-').append(breakdown.getMonth()).append(SEPARATOR)
+                .append(breakdown.getTotalAmount()).append(SEPARATOR)
+                .append(breakdown.getRows()).append('\n');
+        sb.append("locations: location|price|rows|items\n");
+        for (SummaryDto.LocationSummary location : breakdown.getLocations()) {
+            sb.append(cell(location.getLocation())).append(SEPARATOR)
+                    .append(location.getTotalAmount()).append(SEPARATOR)
+                    .append(location.getRows()).append(SEPARATOR)
+                    .append(location.getItems()).append('\n');
+        }
+        if (breakdown.getAnalytics() != null) {
+            appendAnalytics(sb, breakdown.getAnalytics());
+        }
+        sb.append("items: id|name|location|ref_price|cnt|price|rows\n");
+        int tokens = estimateTokens(sb);
+        List<SummaryDto.ItemSummary> items = breakdown.getItems();
+        int written = 0;
+        for (; written < items.size(); written++) {
+            SummaryDto.ItemSummary item = items.get(written);
+            int start = sb.length();
+            sb.append(cell(item.getId())).append(SEPARATOR)
+                    .append(cell(item.getName())).append(SEPARATOR)
+                    .append(cell(item.getLocation())).append(SEPARATOR)
+                    .append(item.getReferencePrice()).append(SEPARATOR)
+                    .append(item.getCnt()).append(SEPARATOR)
+                    .append(item.getTotalAmount()).append(SEPARATOR)
+                    .append(item.getRows()).append('\n');
+            tokens += estimateTokens(sb.subSequence(start, sb.length()));
+            if (tokens > tokenBudget) {
+                sb.setLength(start);
+                break;
+            }
+        }
+        if (written < items.size()) {
+            long price = 0;
+            long rows = 0;
+            for (SummaryDto.ItemSummary item : items.subList(written, items.size())) {
+                price += item.getTotalAmount();
+                rows += item.getRows();
+            }
+            sb.append("*|その他").append(items.size() - written).append("品目||||")
+                    .append(price).append(SEPARATOR).append(rows).append('\n');
+        }
+        return PromptPayload.of("breakdown", sb.toString());
+    }
+
+    /**
+     * 日ごとの合計の分布・個数の上位品目・金額の大きい明細
+     */
+    private static void appendAnalytics(StringBuilder sb, SummaryDto.PeriodAnalytics analytics) {
+        SummaryDto.DailyDistribution daily = analytics.getDaily();
+        sb.append("daily: days|active_days|mean|median|p90|max\n")
+                .append(daily.getDays()).append(SEPARATOR)
+                .append(daily.getActiveDays()).append(SEPARATOR)
+                .append(daily.getMean()).append(SEPARATOR)
+                .append(daily.getMedian()).append(SEPARATOR)
+                .append(daily.getP90()).append(SEPARATOR)
+                .append(daily.getMax()).append('\n');
+        appendItems(sb, "top_cnt", analytics.getTopByCount());
+        sb.append("largest: date|name|id|cnt|price|note\n");
+        for (AccountDto e : analytics.getLargest()) {
+            sb.append(e.getDate()).append(SEPARATOR)
+                    .append(cell(e.getName())).append(SEPARATOR)
+                    .append(cell(e.getId())).append(SEPARATOR)
+                    .append(e.getCnt()).append(SEPARATOR)
+                    .append(e.getPrice()).append(SEPARATOR)
+                    .append(cell(e.getNote())).append('\n');
+        }
+    }
+
+    private static void appendItems(StringBuilder sb, String label, List<SummaryDto.ItemSummary> items) {
+        sb.append(label).append(": id|name|cnt|price|rows\n");
+        for (SummaryDto.ItemSummary item : items) {
+            sb.append(cell(item.getId())).append(SEPARATOR)
+                    .append(cell(item.getName())).append(SEPARATOR)
+                    .append(item.getCnt()).append(SEPARATOR)
+                    .append(item.getTotalAmount()).append(SEPARATOR)
+                    .append(item.getRows()).append('\n');
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<AccountDto> asEntries(Object summaryData) {
+        if (!(summaryData instanceof List<?> list)) return null;
+        for (Object element : list) {
+            if (!(element instanceof AccountDto)) return null;
+        }
+        return (List<AccountDto>) list;
+    }
+
+    private static String table(List<AccountDto> entries) {
+        StringBuilder sb = new StringBuilder(entries.size() * 32);
+        sb.append("date|name|id|cnt|price|note\n");
+        for (AccountDto e : entries) {
+            sb.append(e.getDate()).append(SEPARATOR)
+                    .append(cell(e.getName())).append(SEPARATOR)
+                    .append(cell(e.getId())).append(SEPARATOR)
+                    .append(e.getCnt()).append(SEPARATOR)
+                    .append(e.getPrice()).append(SEPARATOR)
+                    .append(cell(e.getNote())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 品名とIDを番号に置き換えた明細 (品名の一覧を先頭に1回だけ書く)
+     */
+    private static String dictionaryTable(List<AccountDto> entries) {
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        int[] itemCodes = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            AccountDto e = entries.get(i);
+            String item = cell(e.getName()) + SEPARATOR + cell(e.getId());
+            itemCodes[i] = codes.computeIfAbsent(item, k -> codes.size());
+        }
+        StringBuilder sb = new StringBuilder(entries.size() * 20 + codes.size() * 24);
+        sb.append("items: code|name|id\n");
+        int code = 0;
+        for (String item : codes.keySet()) {
+            sb.append(code++).append(SEPARATOR).append(item).append('\n');
+        }
+        sb.append("rows: date|item|cnt|price|note\n");
+        for (int i = 0; i < entries.size(); i++) {
+            AccountDto e = entries.get(i);
+            sb.append(e.getDate()).append(SEPARATOR)
+                    .append(itemCodes[i]).append(SEPARATOR)
+                    .append(e.getCnt()).append(SEPARATOR)
+                    .append(e.getPrice()).append(SEPARATOR)
+                    .append(cell(e.getNote())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String byItem(List<AccountDto> entries) {
+        Map<String, long[]> items = new HashMap<>();
+        for (AccountDto e : entries) {
+            long[] totals = items.computeIfAbsent(cell(e.getName()), k -> new long[3]);
+            totals[0] += e.getCnt();
+            totals[1] += e.getPrice();
+            totals[2]++;
+        }
+        // 金額の大きい順
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(items.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+        StringBuilder sb = new StringBuilder(sorted.size() * 24);
+        sb.append("name|cnt|price|rows\n");
+        for (Map.Entry<String, long[]> item : sorted) {
+            long[] totals = item.getValue();
+            sb.append(item.getKey()).append(SEPARATOR)
+                    .append(totals[0]).append(SEPARATOR)
+                    .append(totals[1]).append(SEPARATOR)
+                    .append(totals[2]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String byDay(List<AccountDto> entries) {
+        Map<LocalDate, long[]> days = new TreeMap<>();
+        for (AccountDto e : entries) {
+            long[] totals = days.computeIfAbsent(e.getDate(), k -> new long[2]);
+            totals[0] += e.getPrice();
+            totals[1]++;
+        }
+        StringBuilder sb = new StringBuilder(days.size() * 24);
+        sb.append("date|price|rows\n");
+        for (Map.Entry<LocalDate, long[]> day : days.entrySet()) {
+            sb.append(day.getKey()).append(SEPARATOR)
+                    .append(day.getValue()[0]).append(SEPARATOR)
+                    .append(day.getValue()[1]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 区切り文字・改行を含む値は空白に置き換える (nullは空文字)
+     */
+    private static String cell(String value) {
+        if (value == null) return "";
+        if (value.indexOf('|') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+        return value.replace('|', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,172 @@
+package com.tohyama.accountbook.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tohyama.accountbook.dto.ReportDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 保存したリポートの索引 (種別・対象年月・モデル・作成日時・サイズ・チェックサム)
+ * 索引は1件1行のJSONを追記するだけのファイルで、起動時に読み込んでメモリ上に保持する。
+ * 一覧の取得はメモリ上の索引だけを使い、リポートのファイルには触れない。
+ * 1つのファイルを複数のIDが指さないよう、登録済みのパスは登録できない。
+ */
+@Component
+public class ReportArchive {
+    private static final Logger log = LoggerFactory.getLogger(ReportArchive.class);
+
+    private final Path indexFile;
+    private final ObjectMapper objectMapper;
+
+    // 追記順 (古い順)
+    private final List<ReportDto> entries = new ArrayList<>();
+    private final Map<String, ReportDto> byId = new HashMap<>();
+    private final Map<String, ReportDto> byPath = new HashMap<>();
+    // 索引の末尾が書き込み途中の行で終わっている場合は、次の追記の前に改行を入れる
+    private boolean needsNewline;
+
+    public ReportArchive(@Value("${ai.report.archive.index:C:/Temp/account-book/report-index.jsonl}") String indexFile) {
+        this.indexFile = Paths.get(indexFile);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        loadAll();
+    }
+
+    /**
+     * 保存済みのリポートを索引に追加する (reportの種別・年月・モデル・作成日時・パス・サイズ・チェックサムを使う)
+     * 同じパスが登録済みの場合はIOException (ファイルが上書きされ、既存のIDの内容が変わっている)
+     */
+    public ReportDto register(ReportDto report) throws IOException {
+        ReportDto entry = new ReportDto(report.getCreatedAt(), report.getType(), null, report.getYear(),
+                report.getMonth(), report.getModelUsed(), UUID.randomUUID().toString(), report.getFilePath(),
+                report.getSize(), report.getChecksum(), report.getLedgerId());
+        String json = objectMapper.writeValueAsString(entry);
+        synchronized (this) {
+            ReportDto registered = byPath.get(pathKey(entry.getFilePath()));
+            if (registered != null) {
+                throw new IOException("同じパスのリポートが登録済みです (ID: " + registered.getId() + "): "
+                        + entry.getFilePath());
+            }
+            byte[] line = ((needsNewline ? "\n" : "") + json + "\n").getBytes(StandardCharsets.UTF_8);
+            Files.createDirectories(indexFile.toAbsolutePath().getParent());
+            // 1行を1回の書き込みで追記する
+            try (OutputStream os = Files.newOutputStream(indexFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                os.write(line);
+            }
+            needsNewline = false;
+            add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * IDで引く。なければnull
+     */
+    public synchronized ReportDto get(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * 条件に合うリポートを新しい順に返す (nullの条件は絞り込まない)
+     * 期間は対象年月で比べ、対象年月のないリポート (日別・週別) は作成日時の年月で比べる。
+     * 台帳IDのないリポートは既定の台帳のものとして扱う。
+     */
+    public List<ReportDto> list(String type, YearMonth from, YearMonth to, String modelName, String ledgerId,
+                                int limit) {
+        List<ReportDto> result = new ArrayList<>();
+        synchronized (this) {
+            for (int i = entries.size() - 1; i >= 0 && result.size() < limit; i--) {
+                ReportDto entry = entries.get(i);
+                if (type != null && !type.equals(entry.getType())) continue;
+                if (modelName != null && !modelName.equals(entry.getModelUsed())) continue;
+                if (ledgerId != null && !ledgerId.equals(entry.getLedgerId() != null
+                        ? entry.getLedgerId() : LedgerRegistry.DEFAULT_ID)) continue;
+                YearMonth period = periodOf(entry);
+                if (from != null && period.isBefore(from)) continue;
+                if (to != null && period.isAfter(to)) continue;
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void add(ReportDto entry) {
+        entries.add(entry);
+        byId.put(entry.getId(), entry);
+        if (entry.getFilePath() != null) {
+            byPath.put(pathKey(entry.getFilePath()), entry);
+        }
+    }
+
+    private static String pathKey(String filePath) {
+        return filePath == null ? null : Paths.get(filePath).toAbsolutePath().normalize().toString();
+    }
+
+    private static YearMonth periodOf(ReportDto entry) {
+        if (entry.getYear() != null && entry.getMonth() != null) {
+            return YearMonth.of(entry.getYear(), entry.getMonth());
+        }
+        return YearMonth.from(entry.getCreatedAt());
+    }
+
+    private static boolean endsWithoutNewline(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            if (channel.size() == 0) return false;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) != '\n';
+        }
+    }
+
+    /**
+     * 索引を読み込む (書き込み途中で終わった行など、読めない行は読み飛ばす)
+     */
+    private void loadAll() {
+        if (!Files.exists(indexFile)) return;
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            needsNewline = endsWithoutNewline(indexFile);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    add(objectMapper.readValue(line, ReportDto.class));
+                } catch (IOException e) {
+                    skipped++;
+                }
+            }
+            log.info("リポート索引読み込み {}件 (読み飛ばし {}件)", entries.size(), skipped);
+        } catch (IOException e) {
+            log.warn("リポート索引の読み込みに失敗しました: {}", e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,30 @@
 package com.tohyama.accountbook.service;
 
+import com.tohyama.accountbook.dto.ReportDto;
+
+import java.nio.file.Path;
+
 public interface ReportFileService {
   
     String saveReportToFile(String content, String fileName, String directory) throws Exception;
+
+    /**
+     * 保存先のパス (ディレクトリがなければ作成する)。逐次書き込む場合に使う
+     */
+    Path resolveReportPath(String fileName, String directory) throws Exception;
+
+    /**
+     * リポートを保存し、保管庫の索引に登録する (reportには種別・対象年月・モデルを入れる)
+     */
+    ReportDto saveReport(String content, String fileName, String directory, ReportDto report) throws Exception;
+
+    /**
+     * 逐次書き込みを終えた一時ファイル (partFileOfのパス) を保存先に移し、保管庫の索引に登録する
+     */
+    ReportDto archiveReport(Path partFile, Path filePath, ReportDto report) throws Exception;
+
+    /**
+     * 逐次書き込み中の一時ファイルのパス (保存先と同じディレクトリ)
+     */
+    Path partFileOf(Path filePath);
 }
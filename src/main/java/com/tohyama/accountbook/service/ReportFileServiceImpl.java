@@ -1,41 +1,128 @@
 package com.tohyama.accountbook.service;
 
+import com.tohyama.accountbook.dto.ReportDto;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class ReportFileServiceImpl implements ReportFileService {
+    private static final DateTimeFormatter FILE_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Timer saveTimer;
+    private final DistributionSummary saveSize;
+    private final ReportArchive reportArchive;
+    private final ReportWriter reportWriter;
+
+    public ReportFileServiceImpl(MeterRegistry meterRegistry, ReportArchive reportArchive, ReportWriter reportWriter) {
+        this.reportArchive = reportArchive;
+        this.reportWriter = reportWriter;
+        this.saveTimer = Timer.builder("report.save")
+                .description("リポートファイルの保存時間")
+                .register(meterRegistry);
+        this.saveSize = DistributionSummary.builder("report.save.size")
+                .baseUnit("bytes")
+                .description("保存したリポートのサイズ")
+                .register(meterRegistry);
+    }
 
     @Override
     public String saveReportToFile(String content, String fileName, String directory) throws Exception {
+        long start = System.nanoTime();
+        try {
+            ReportWriter.Written written = reportWriter.write(Paths.get(directory).resolve(fileName), content);
+            saveSize.record(written.size());
+            return written.path().toString();
+        } catch (IOException e) {
+            throw new Exception(e.getMessage(), e);
+        } finally {
+            saveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public ReportDto saveReport(String content, String fileName, String directory, ReportDto report) throws Exception {
+        long start = System.nanoTime();
+        try {
+            ReportWriter.Written written = reportWriter.write(Paths.get(directory).resolve(fileName), content);
+            saveSize.record(written.size());
+            return register(report, written);
+        } catch (IOException e) {
+            throw new Exception(e.getMessage(), e);
+        } finally {
+            saveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public ReportDto archiveReport(Path partFile, Path filePath, ReportDto report) throws Exception {
+        try {
+            ReportWriter.Written written = reportWriter.commit(partFile, filePath);
+            saveSize.record(written.size());
+            return register(report, written);
+        } catch (IOException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Path partFileOf(Path filePath) {
+        return filePath.resolveSibling(filePath.getFileName() + ".part");
+    }
+
+    private ReportDto register(ReportDto report, ReportWriter.Written written) throws IOException {
+        report.setCreatedAt(report.getCreatedAt() != null ? report.getCreatedAt() : LocalDateTime.now());
+        report.setFilePath(written.path().toAbsolutePath().toString());
+        report.setSize(written.size());
+        report.setChecksum(written.checksum());
+        return reportArchive.register(report);
+    }
+
+    @Override
+    public Path resolveReportPath(String fileName, String directory) throws Exception {
         try {
             Path dirPath = Paths.get(directory);
-            
-            if (!Files.exists(dirPath)) {
-                Files.createDirectories(dirPath);
-            }
-            
-            Path filePath = dirPath.resolve(fileName);
-            
-            Files.writeString(filePath, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            
-            return filePath.toString();
-            
+            Files.createDirectories(dirPath);
+            return dirPath.resolve(fileName);
         } catch (IOException e) {
             throw new Exception(e.getMessage(), e);
         }
     }
-    
+
+    public static String generateDailyFileName() {
+        return String.format("daily-report-%s.md", uniqueSuffix());
+    }
+
+    public static String generateWeeklyFileName() {
+        return String.format("weekly-report-%s.md", uniqueSuffix());
+    }
+
     public static String generateFileName(int year, int month) {
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
-        return String.format("monthly-report-%04d-%02d-%s.md", year, month, now.format(dateFormatter));
+        return String.format("monthly-report-%04d-%02d-%s.md", year, month, uniqueSuffix());
+    }
+
+    /**
+     * 一括作成用 (同じ月を複数モデルで作成してもファイル名が重ならないようモデル名を含める)
+     */
+    public static String generateFileName(int year, int month, String modelName) {
+        return String.format("monthly-report-%04d-%02d-%s-%s.md", year, month, modelName, uniqueSuffix());
+    }
+
+    /**
+     * 作成日時 (ミリ秒まで) と短い乱数。同じミリ秒に同じ種類のリポートを保存してもファイル名が重ならない
+     */
+    private static String uniqueSuffix() {
+        return LocalDateTime.now().format(FILE_NAME_FORMATTER)
+                + "-" + String.format("%06x", ThreadLocalRandom.current().nextInt(1 << 24));
     }
 }
@@ -1,9 +1,47 @@
 package com.tohyama.accountbook.service;
 
+import java.util.function.Consumer;
+
+/**
+ * excelFilePathは台帳のワークブック (LedgerRegistry#pathOf で台帳IDから引く)
+ */
 public interface ReportGenerator {
-    String generateDailyReport() throws Exception;
-    String generateWeeklyReport() throws Exception;
-    String generateMonthlyReport() throws Exception;
+    String generateDailyReport(String excelFilePath) throws Exception;
+    String generateWeeklyReport(String excelFilePath) throws Exception;
+    String generateMonthlyReport(String excelFilePath) throws Exception;
     
-    String generateMonthlyReport(int year, int month, String modelName) throws Exception;
+    String generateMonthlyReport(String excelFilePath, int year, int month, String modelName) throws Exception;
+
+    /**
+     * 作成を始める直前に取る実行枠 (closeで返す)
+     */
+    @FunctionalInterface
+    interface Admission {
+        Admission NONE = () -> () -> { };
+
+        LedgerRegistry.Permit acquire() throws InterruptedException;
+    }
+
+    /**
+     * 種別 (daily・weekly・monthly) のリポートを、admissionで実行枠を取ってから作成する
+     * year・monthは月別の対象月指定時のみ (省略時は今月)。
+     */
+    default String generateReport(String excelFilePath, String type, Integer year, Integer month, String modelName,
+                                  Admission admission) throws Exception {
+        try (LedgerRegistry.Permit ignored = admission.acquire()) {
+            return switch (type) {
+                case "daily" -> generateDailyReport(excelFilePath);
+                case "weekly" -> generateWeeklyReport(excelFilePath);
+                default -> year != null && month != null
+                        ? generateMonthlyReport(excelFilePath, year, month, modelName)
+                        : generateMonthlyReport(excelFilePath);
+            };
+        }
+    }
+
+    /**
+     * リポートを生成しながらテキストを届いた順にonTextへ渡す (year・monthは月別の対象月指定時のみ)
+     */
+    void generateReportStream(String excelFilePath, String type, Integer year, Integer month, String modelName,
+                              Consumer<String> onText) throws Exception;
 }
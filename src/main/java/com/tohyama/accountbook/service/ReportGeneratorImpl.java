@@ -1,20 +1,29 @@
 package com.tohyama.accountbook.service;
 
+import com.tohyama.accountbook.dto.AccountDto;
 import com.tohyama.accountbook.dto.GeminiDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import com.tohyama.accountbook.ledger.ItemAggregation;
+import com.tohyama.accountbook.ledger.ItemMaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public class ReportGeneratorImpl implements ReportGenerator {
     private static final Logger log = LoggerFactory.getLogger(ReportGeneratorImpl.class);
 
-    @Value("${ai.excel.path}")
-    private String excelFilePath;
-    
+    // trueの場合、日別・週別は明細の代わりに期間の分析結果 (上位品目・大きな買い物・日ごとの分布) を渡す
+    @Value("${ai.prompt.summary:true}")
+    private boolean summary;
+
     private final ExcelParser excelParser;
     private final GeminiProxy geminiProxy;
 
@@ -24,33 +33,28 @@ public class ReportGeneratorImpl implements ReportGenerator {
     }
 
     @Override
-    public String generateDailyReport() throws Exception {
-        List<?> dailyData = getDailyReportData(excelFilePath);
+    public String generateDailyReport(String excelFilePath) throws Exception {
+        Object dailyData = getDailyReportData(excelFilePath);
         GeminiDto.GeminiProxyRequest request = new GeminiDto.GeminiProxyRequest("daily", dailyData);
         GeminiDto.GeminiProxyResponse response = geminiProxy.analyze(request);
         return response.getReport();
     }
 
     @Override
-    public String generateWeeklyReport() throws Exception {
-        List<?> weeklyData = getWeeklyReportData(excelFilePath);
+    public String generateWeeklyReport(String excelFilePath) throws Exception {
+        Object weeklyData = getWeeklyReportData(excelFilePath);
         GeminiDto.GeminiProxyRequest request = new GeminiDto.GeminiProxyRequest("weekly", weeklyData);
         GeminiDto.GeminiProxyResponse response = geminiProxy.analyze(request);
         return response.getReport();
     }
 
     @Override
-    public String generateMonthlyReport() throws Exception {
+    public String generateMonthlyReport(String excelFilePath) throws Exception {
         java.time.LocalDate now = java.time.LocalDate.now();
         int year = now.getYear();
         int month = now.getMonthValue();
         
-        @SuppressWarnings("unchecked")
-        List<com.tohyama.accountbook.dto.AccountDto> allData = 
-            (List<com.tohyama.accountbook.dto.AccountDto>) excelParser.extractAccountData(excelFilePath, "month");
-        
-        com.tohyama.accountbook.dto.SummaryDto.MonthlySummary summary = 
-            excelParser.aggregateByYearMonth(allData, year, month);
+        SummaryDto.MonthlyBreakdown summary = getMonthlySummary(excelFilePath, year, month);
         
         GeminiDto.GeminiProxyRequest request = new GeminiDto.GeminiProxyRequest("monthly", summary);
         GeminiDto.GeminiProxyResponse response = geminiProxy.analyze(request);
@@ -59,12 +63,8 @@ public class ReportGeneratorImpl implements ReportGenerator {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public String generateMonthlyReport(int year, int month, String modelName) throws Exception {
-        List<?> allData = excelParser.extractAccountData(excelFilePath, "month");
-        
-        com.tohyama.accountbook.dto.SummaryDto.MonthlySummary summary = 
-            excelParser.aggregateByYearMonth((java.util.List<com.tohyama.accountbook.dto.AccountDto>) allData, year, month);
+    public String generateMonthlyReport(String excelFilePath, int year, int month, String modelName) throws Exception {
+        SummaryDto.MonthlyBreakdown summary = getMonthlySummary(excelFilePath, year, month);
         
         GeminiDto.GeminiProxyRequest request = new GeminiDto.GeminiProxyRequest("monthly", summary, modelName);
         GeminiDto.GeminiProxyResponse response = geminiProxy.analyze(request);
@@ -72,11 +72,64 @@ public class ReportGeneratorImpl implements ReportGenerator {
         return response.getReport();
     }
 
-    private List<?> getDailyReportData(String excelFilePath) throws Exception {
-        return excelParser.extractAccountData(excelFilePath, "day");
+    @Override
+    public void generateReportStream(String excelFilePath, String type, Integer year, Integer month, String modelName,
+                                     Consumer<String> onText) throws Exception {
+        GeminiDto.GeminiProxyRequest request = switch (type) {
+            case "daily" -> new GeminiDto.GeminiProxyRequest("daily", getDailyReportData(excelFilePath), modelName);
+            case "weekly" -> new GeminiDto.GeminiProxyRequest("weekly", getWeeklyReportData(excelFilePath), modelName);
+            default -> {
+                java.time.LocalDate now = java.time.LocalDate.now();
+                yield new GeminiDto.GeminiProxyRequest("monthly", getMonthlySummary(excelFilePath,
+                        year != null ? year : now.getYear(), month != null ? month : now.getMonthValue()), modelName);
+            }
+        };
+        geminiProxy.analyzeStream(request, onText);
+    }
+
+    /**
+     * 月の合計と、品目マスタと突き合わせた場所別・品目別の内訳、月の分析結果 (今月は今日まで)
+     */
+    @SuppressWarnings("unchecked")
+    private SummaryDto.MonthlyBreakdown getMonthlySummary(String excelFilePath, int year, int month) throws Exception {
+        List<AccountDto> allData = (List<AccountDto>) excelParser.extractAccountData(excelFilePath, "month");
+        return monthlyBreakdown(excelParser, allData, excelParser.extractItemMaster(excelFilePath), year, month);
+    }
+
+    static SummaryDto.MonthlyBreakdown monthlyBreakdown(ExcelParser excelParser, List<AccountDto> allData,
+                                                        ItemMaster master, int year, int month) {
+        List<AccountDto> entries = excelParser.filterByYearMonth(allData, year, month);
+        SummaryDto.MonthlySummary summary = excelParser.aggregateByYearMonth(allData, year, month);
+        ItemAggregation items = excelParser.aggregateByItem(entries, master);
+        YearMonth target = YearMonth.of(year, month);
+        LocalDate today = LocalDate.now();
+        LocalDate to = target.equals(YearMonth.from(today)) ? today : target.atEndOfMonth();
+        return new SummaryDto.MonthlyBreakdown(year, month, summary.getTotalAmount(), entries.size(),
+                items.locations(), items.items(), excelParser.analyzePeriod(entries, target.atDay(1), to, master));
+    }
+
+    private Object getDailyReportData(String excelFilePath) throws Exception {
+        if (!summary) {
+            return excelParser.extractAccountData(excelFilePath, "day");
+        }
+        LocalDate today = LocalDate.now();
+        return analyzePeriod(excelFilePath, today, today);
     }
     
-    private List<?> getWeeklyReportData(String excelFilePath) throws Exception {
-        return excelParser.extractAccountData(excelFilePath, "week");
+    /**
+     * 月曜～本日まで
+     */
+    private Object getWeeklyReportData(String excelFilePath) throws Exception {
+        if (!summary) {
+            return excelParser.extractAccountData(excelFilePath, "week");
+        }
+        LocalDate today = LocalDate.now();
+        return analyzePeriod(excelFilePath, today.with(DayOfWeek.MONDAY), today);
+    }
+
+    @SuppressWarnings("unchecked")
+    private SummaryDto.PeriodAnalytics analyzePeriod(String excelFilePath, LocalDate from, LocalDate to) throws Exception {
+        List<AccountDto> allData = (List<AccountDto>) excelParser.extractAccountData(excelFilePath, "month");
+        return excelParser.analyzePeriod(allData, from, to, excelParser.extractItemMaster(excelFilePath));
     }
 }
@@ -0,0 +1,436 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+/**
+ * リポート作成をジョブとして仮想スレッドで実行する
+ * 同時に実行するジョブ数はSemaphoreで制限し、超えた分は実行待ちになる。
+ * 台帳ごとの実行枠 (LedgerRegistry) を空くまで待ってから全体の枠を取り、
+ * 混み合っている台帳の実行待ちのジョブが全体の枠を塞いで他の台帳のジョブを待たせないようにする。
+ * 実行枠はリポートを実際に作成する直前に取るので、同じ条件で実行中の作成 (CoalescingReportGenerator) の
+ * 結果を待つ要求は枠を取らない。
+ * 完了したジョブの状態は保持期間を過ぎたら定期的に削除する。
+ * 一括作成 (BatchReportService) もジョブとして登録し、Gemini呼び出しの枠は一括作成側で制限する。
+ */
+@Service
+public class ReportJobService implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ReportJobService.class);
+
+    // ファイル名とGemini APIのURLの一部になるので、区切り文字や..を含まない名前に限る
+    private static final Pattern MODEL_NAME_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,63}");
+
+    private final ReportGenerator reportGenerator;
+    private final ReportFileService reportFileService;
+    private final ReportPregenerator reportPregenerator;
+    private final LedgerRegistry ledgerRegistry;
+    private final BatchReportService batchReportService;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    @Value("${report.save.directory:C:/Temp/reports}")
+    private String defaultSaveDirectory;
+
+    @Value("${ai.report.jobs.retention:1h}")
+    private Duration retention;
+
+    public ReportJobService(ReportGenerator reportGenerator, ReportFileService reportFileService,
+                            ReportPregenerator reportPregenerator, LedgerRegistry ledgerRegistry,
+                            BatchReportService batchReportService,
+                            @Value("${ai.report.jobs.max-concurrent:2}") int maxConcurrent) {
+        this.reportGenerator = reportGenerator;
+        this.reportFileService = reportFileService;
+        this.reportPregenerator = reportPregenerator;
+        this.ledgerRegistry = ledgerRegistry;
+        this.batchReportService = batchReportService;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    /**
+     * 状態は実行スレッドが書き込み、照会側はスナップショットを返す
+     */
+    private static class Job {
+        private final String jobId;
+        private final ReportJobDto.JobRequest request;
+        private final LocalDateTime queuedAt = LocalDateTime.now();
+        private final long queuedNanos = System.nanoTime();
+        private volatile ReportJobDto.Status status = ReportJobDto.Status.QUEUED;
+        private volatile LocalDateTime startedAt;
+        private volatile long startNanos;
+        private volatile LocalDateTime finishedAt;
+        private volatile long waitNanos;
+        private volatile long runNanos;
+        private volatile String filePath;
+        private volatile String reportId;
+        private volatile String message;
+        private volatile String error;
+        private volatile ReportJobDto.BatchManifest manifest;
+
+        private Job(String jobId, ReportJobDto.JobRequest request) {
+            this.jobId = jobId;
+            this.request = request;
+        }
+
+        private ReportJobDto.JobStatus toStatus() {
+            return new ReportJobDto.JobStatus(jobId, request.getType(), status, queuedAt, startedAt, finishedAt,
+                    waitNanos / 1_000_000, runNanos / 1_000_000, filePath, reportId, message, error, manifest);
+        }
+    }
+
+    /**
+     * ジョブを登録してすぐに状態を返す
+     */
+    public ReportJobDto.JobStatus submit(ReportJobDto.JobRequest request) {
+        validate(request);
+        ledgerRegistry.pathOf(request.getLedgerId());
+        purgeFinished();
+        Job job = new Job(UUID.randomUUID().toString(), request);
+        jobs.put(job.jobId, job);
+        executor.submit(() -> run(job));
+        return job.toStatus();
+    }
+
+    /**
+     * 複数月・複数モデルの月別リポートの一括作成をジョブとして登録し、すぐに状態を返す
+     * 条件が不正な場合はIllegalArgumentException。結果の一覧はジョブの状態 (manifest) で返す。
+     */
+    public ReportJobDto.JobStatus submitBatch(YearMonth from, YearMonth to, List<String> models,
+                                              String directory, String ledgerId) {
+        BatchReportService.Plan plan = batchReportService.plan(from, to, models, directory, ledgerId);
+        purgeFinished();
+        Job job = new Job(UUID.randomUUID().toString(),
+                new ReportJobDto.JobRequest("batch", null, null, null, directory, ledgerId));
+        jobs.put(job.jobId, job);
+        executor.submit(() -> runBatch(job, plan));
+        return job.toStatus();
+    }
+
+    /**
+     * ジョブの状態。存在しない (期限切れを含む) 場合はnull
+     */
+    public ReportJobDto.JobStatus getStatus(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.toStatus();
+    }
+
+    /**
+     * リポートを作成して保存し、保管庫に登録する (同期版のエンドポイントと共通の処理)
+     * 条件が不正な場合はIllegalArgumentException。事前作成したリポートが使える場合は作成せずにそれを返す。
+     * 作成する場合は台帳の実行枠を取り、空かなければ LedgerBusyException (実行中の同じ条件の作成を待つ場合は枠を取らない)。
+     */
+    public ReportDto generateAndSave(ReportJobDto.JobRequest request) throws Exception {
+        validate(request);
+        ReportPregenerator.Pregenerated pregenerated = reportPregenerator.findFresh(request);
+        if (pregenerated != null) {
+            log.info("事前作成したリポートを使用 type={} path={}", request.getType(), pregenerated.report().getFilePath());
+            return pregenerated.report();
+        }
+        String excelFilePath = ledgerRegistry.pathOf(request.getLedgerId());
+        return generate(request, excelFilePath, () -> ledgerRegistry.acquire(request.getLedgerId()));
+    }
+
+    private ReportDto generate(ReportJobDto.JobRequest request, String excelFilePath,
+                               ReportGenerator.Admission admission) throws Exception {
+        String report = reportGenerator.generateReport(excelFilePath, request.getType(), request.getYear(),
+                request.getMonth(), request.getModelName(), admission);
+        return reportFileService.saveReport(report, fileNameOf(request), saveDirectoryOf(request), reportOf(request));
+    }
+
+    /**
+     * 生成されたテキストを届いた順にファイルへ追記しながらlistenerへ渡す (同時実行数はジョブと共通)
+     */
+    public void submitStream(ReportJobDto.JobRequest request, StreamListener listener) {
+        validate(request);
+        String excelFilePath = ledgerRegistry.pathOf(request.getLedgerId());
+        executor.submit(() -> {
+            try {
+                ReportPregenerator.Pregenerated pregenerated = reportPregenerator.findFresh(request);
+                if (pregenerated != null) {
+                    listener.onText(pregenerated.content());
+                    listener.onComplete(pregenerated.report().getFilePath(), pregenerated.report().getId(),
+                            messageOf(request));
+                    return;
+                }
+            } catch (Exception e) {
+                log.warn("事前作成したリポートを確認できませんでした: {}", e.getMessage());
+            }
+            try (LedgerRegistry.Permit ignored = acquireJobPermits(request.getLedgerId())) {
+                stream(request, excelFilePath, listener);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                listener.onError("中断されました。");
+            }
+        });
+    }
+
+    private void stream(ReportJobDto.JobRequest request, String excelFilePath, StreamListener listener) {
+        long start = System.nanoTime();
+        Path partFile = null;
+        try {
+            Path filePath = reportFileService.resolveReportPath(fileNameOf(request), saveDirectoryOf(request));
+            // 書き終えるまでは一時ファイルに書き、完了後に保存先へ移す
+            partFile = reportFileService.partFileOf(filePath);
+            try (BufferedWriter writer = Files.newBufferedWriter(partFile)) {
+                reportGenerator.generateReportStream(excelFilePath, request.getType(), request.getYear(),
+                        request.getMonth(), request.getModelName(), text -> {
+                            try {
+                                writer.write(text);
+                                writer.flush();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            listener.onText(text);
+                        });
+            }
+            ReportDto archived = reportFileService.archiveReport(partFile, filePath, reportOf(request));
+            log.info("リポートストリーム完了 type={} ledger={} {}ms", request.getType(),
+                    LedgerRegistry.idOf(request.getLedgerId()), (System.nanoTime() - start) / 1_000_000);
+            listener.onComplete(archived.getFilePath(), archived.getId(), messageOf(request));
+        } catch (Exception e) {
+            log.error("リポートストリーム失敗 type={}: {}", request.getType(), e.getMessage(), e);
+            deleteQuietly(partFile);
+            listener.onError("エラー発生: " + e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("一時ファイルを削除できませんでした: {}", file);
+        }
+    }
+
+    public interface StreamListener {
+        void onText(String text);
+
+        void onComplete(String filePath, String reportId, String message);
+
+        void onError(String error);
+    }
+
+    /**
+     * 保存するファイル名 (既定以外の台帳は先頭に台帳IDを付ける)
+     */
+    static String fileNameOf(ReportJobDto.JobRequest request) {
+        String fileName = switch (request.getType()) {
+            case "daily" -> ReportFileServiceImpl.generateDailyFileName();
+            case "weekly" -> ReportFileServiceImpl.generateWeeklyFileName();
+            default -> {
+                if (request.getYear() != null && request.getMonth() != null) {
+                    yield ReportFileServiceImpl.generateFileName(request.getYear(), request.getMonth());
+                }
+                LocalDate now = LocalDate.now();
+                yield ReportFileServiceImpl.generateFileName(now.getYear(), now.getMonthValue());
+            }
+        };
+        return LedgerRegistry.isDefault(request.getLedgerId()) ? fileName : request.getLedgerId() + "-" + fileName;
+    }
+
+    /**
+     * 保管庫の索引に載せる種別・対象年月・モデル・台帳ID (年月を省略した月別は今月)
+     */
+    static ReportDto reportOf(ReportJobDto.JobRequest request) {
+        ReportDto report = new ReportDto();
+        report.setType(request.getType());
+        report.setModelUsed(request.getModelName());
+        report.setLedgerId(LedgerRegistry.idOf(request.getLedgerId()));
+        if ("monthly".equals(request.getType())) {
+            LocalDate now = LocalDate.now();
+            report.setYear(request.getYear() != null ? request.getYear() : now.getYear());
+            report.setMonth(request.getMonth() != null ? request.getMonth() : now.getMonthValue());
+        }
+        return report;
+    }
+
+    private String saveDirectoryOf(ReportJobDto.JobRequest request) {
+        String directory = request.getDirectory();
+        return (directory != null && !directory.trim().isEmpty()) ? directory : defaultSaveDirectory;
+    }
+
+    private void run(Job job) {
+        if (finishPregenerated(job)) return;
+        execute(job);
+    }
+
+    /**
+     * 台帳の実行枠 → 全体の実行枠の順に取る (全体の枠を持ったまま台帳の枠を待たない)
+     * 台帳の枠は空くまで待ち、その間ジョブは実行待ちのまま (LedgerBusyExceptionで失敗にしない)。
+     * 全体の枠を待つ間に中断された場合は台帳の枠を返す。
+     */
+    private LedgerRegistry.Permit acquireJobPermits(String ledgerId) throws InterruptedException {
+        LedgerRegistry.Permit ledgerPermit = ledgerRegistry.acquireWaiting(ledgerId);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            ledgerPermit.close();
+            throw e;
+        }
+        return () -> {
+            permits.release();
+            ledgerPermit.close();
+        };
+    }
+
+    /**
+     * 実行枠を取れたら実行中にする。同じ条件で実行中の作成の結果を受け取った場合は、受け取った時点で実行中にする
+     */
+    private void execute(Job job) {
+        try {
+            ReportDto report = generate(job.request, ledgerRegistry.pathOf(job.request.getLedgerId()), () -> {
+                LedgerRegistry.Permit permit = acquireJobPermits(job.request.getLedgerId());
+                start(job);
+                return permit;
+            });
+            start(job);
+            job.runNanos = System.nanoTime() - job.startNanos;
+            job.reportId = report.getId();
+            finish(job, ReportJobDto.Status.SUCCEEDED, report.getFilePath(), messageOf(job.request), null);
+            log.info("リポートジョブ完了 id={} type={} ledger={} wait={}ms run={}ms", job.jobId, job.request.getType(),
+                    LedgerRegistry.idOf(job.request.getLedgerId()), job.waitNanos / 1_000_000, job.runNanos / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(job, ReportJobDto.Status.FAILED, null, null, "中断されました。");
+        } catch (Exception e) {
+            start(job);
+            job.runNanos = System.nanoTime() - job.startNanos;
+            log.error("リポートジョブ失敗 id={} type={}: {}", job.jobId, job.request.getType(), e.getMessage(), e);
+            finish(job, ReportJobDto.Status.FAILED, null, null, "エラー発生: " + e.getMessage());
+        }
+    }
+
+    private static void start(Job job) {
+        if (job.startedAt != null) return;
+        job.startNanos = System.nanoTime();
+        job.startedAt = LocalDateTime.now();
+        job.waitNanos = job.startNanos - job.queuedNanos;
+        job.status = ReportJobDto.Status.RUNNING;
+    }
+
+    /**
+     * 一括作成はGemini呼び出しごとに一括作成側の枠を取るので、ジョブ全体の枠は取らない
+     */
+    private void runBatch(Job job, BatchReportService.Plan plan) {
+        job.startedAt = LocalDateTime.now();
+        job.waitNanos = System.nanoTime() - job.queuedNanos;
+        job.status = ReportJobDto.Status.RUNNING;
+        long start = System.nanoTime();
+        try {
+            ReportJobDto.BatchManifest manifest = batchReportService.generate(plan);
+            job.runNanos = System.nanoTime() - start;
+            job.manifest = manifest;
+            finish(job, ReportJobDto.Status.SUCCEEDED, null,
+                    "一括作成が完了しました。成功 " + manifest.getSucceeded() + "件 / 失敗 " + manifest.getFailed() + "件", null);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            job.runNanos = System.nanoTime() - start;
+            log.error("一括リポート作成失敗 id={}: {}", job.jobId, e.getMessage(), e);
+            finish(job, ReportJobDto.Status.FAILED, null, null, "エラー発生: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 事前作成したリポートが使える場合は、実行枠を待たずに完了にする
+     */
+    private boolean finishPregenerated(Job job) {
+        try {
+            ReportPregenerator.Pregenerated pregenerated = reportPregenerator.findFresh(job.request);
+            if (pregenerated == null) return false;
+            job.startedAt = LocalDateTime.now();
+            job.waitNanos = System.nanoTime() - job.queuedNanos;
+            job.reportId = pregenerated.report().getId();
+            finish(job, ReportJobDto.Status.SUCCEEDED, pregenerated.report().getFilePath(), messageOf(job.request), null);
+            log.info("リポートジョブ完了 (事前作成) id={} type={}", job.jobId, job.request.getType());
+            return true;
+        } catch (Exception e) {
+            log.warn("事前作成したリポートを確認できませんでした: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static void finish(Job job, ReportJobDto.Status status, String filePath, String message, String error) {
+        job.filePath = filePath;
+        job.message = message;
+        job.error = error;
+        job.finishedAt = LocalDateTime.now();
+        job.status = status;
+    }
+
+    public static String messageOf(ReportJobDto.JobRequest request) {
+        if (request.getYear() != null) {
+            return "ファイルを保存しました。";
+        }
+        return switch (request.getType()) {
+            case "daily" -> "日別分析を保存しました。";
+            case "weekly" -> "週別分析を保存しました。";
+            default -> "月別分析を保存しました。";
+        };
+    }
+
+    private static void validate(ReportJobDto.JobRequest request) {
+        String type = request.getType();
+        if (!"daily".equals(type) && !"weekly".equals(type) && !"monthly".equals(type)) {
+            throw new IllegalArgumentException("不明なリポート種別です: " + type);
+        }
+        if ((request.getYear() == null) != (request.getMonth() == null)) {
+            throw new IllegalArgumentException("yearとmonthは両方指定してください。");
+        }
+        if (request.getMonth() != null && (request.getMonth() < 1 || request.getMonth() > 12)) {
+            throw new IllegalArgumentException("monthは1～12で指定してください。");
+        }
+        if (request.getModelName() != null) {
+            validateModelName(request.getModelName());
+        }
+    }
+
+    /**
+     * モデル名が英数字・.・_・-の64文字以内でなければIllegalArgumentException
+     */
+    static void validateModelName(String modelName) {
+        if (modelName == null || !MODEL_NAME_PATTERN.matcher(modelName).matches()) {
+            throw new IllegalArgumentException("モデル名は英数字・.・_・-の64文字以内で指定してください: " + modelName);
+        }
+    }
+
+    /**
+     * 完了から保持期間を過ぎたジョブを削除する (登録時と、ai.report.jobs.purge-interval ごとに実行する)
+     */
+    @Scheduled(fixedDelayString = "${ai.report.jobs.purge-interval:5m}")
+    void purgeFinished() {
+        LocalDateTime limit = LocalDateTime.now().minus(retention);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(limit));
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 日別・週別・月別の標準リポートを定期的に作成しておき、ボタンが押されたときはそれを返す
+ * 作成前に台帳を解析しておくので、集計もキャッシュに載る。台帳の版と対象期間が前回と同じなら作成しない。
+ * 対象期間は日別・週別が今日 (週別は月曜～今日の集計のため)、月別が今月。
+ * 事前作成するのは既定の台帳 (ai.excel.path) のみ。cronの既定値は "-" (作成しない) で、設定した場合だけ作成する。
+ * 読み込みと作成は画面からの要求と同じく既定の台帳の実行枠を待って取る。
+ */
+@Service
+public class ReportPregenerator {
+    private static final Logger log = LoggerFactory.getLogger(ReportPregenerator.class);
+
+    private final ReportGenerator reportGenerator;
+    private final ReportFileService reportFileService;
+    private final ExcelParser excelParser;
+    private final LedgerCache ledgerCache;
+    private final LedgerRegistry ledgerRegistry;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Pregenerated> reports = new ConcurrentHashMap<>();
+
+    @Value("${ai.excel.path}")
+    private String excelFilePath;
+
+    @Value("${report.save.directory:C:/Temp/reports}")
+    private String defaultSaveDirectory;
+
+    public ReportPregenerator(ReportGenerator reportGenerator, ReportFileService reportFileService,
+                              ExcelParser excelParser, LedgerCache ledgerCache, LedgerRegistry ledgerRegistry,
+                              MeterRegistry meterRegistry) {
+        this.reportGenerator = reportGenerator;
+        this.reportFileService = reportFileService;
+        this.excelParser = excelParser;
+        this.ledgerCache = ledgerCache;
+        this.ledgerRegistry = ledgerRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 作成したときの台帳の版・対象期間と、保管庫に登録したリポート (本文はSSEでそのまま返すために保持する)
+     */
+    public record Pregenerated(String ledgerVersion, String period, ReportDto report, String content) {
+    }
+
+    @Scheduled(cron = "${ai.report.pregenerate.cron.daily:-}")
+    public void pregenerateDaily() {
+        pregenerate("daily");
+    }
+
+    @Scheduled(cron = "${ai.report.pregenerate.cron.weekly:-}")
+    public void pregenerateWeekly() {
+        pregenerate("weekly");
+    }
+
+    @Scheduled(cron = "${ai.report.pregenerate.cron.monthly:-}")
+    public void pregenerateMonthly() {
+        pregenerate("monthly");
+    }
+
+    /**
+     * 作成済みのリポートが使える条件 (既定の台帳・標準の種別・モデル・保存先で、台帳の版と対象期間が作成時と同じ) なら返す。なければnull
+     */
+    public Pregenerated findFresh(ReportJobDto.JobRequest request) throws Exception {
+        if (!LedgerRegistry.isDefault(request.getLedgerId())) return null;
+        if (request.getModelName() != null) return null;
+        String directory = request.getDirectory();
+        if (directory != null && !directory.trim().isEmpty() && !directory.equals(defaultSaveDirectory)) return null;
+        if (request.getYear() != null && request.getMonth() != null && !YearMonth.of(request.getYear(), request.getMonth()).equals(YearMonth.now())) {
+            return null;
+        }
+        Pregenerated pregenerated = reports.get(request.getType());
+        if (pregenerated == null
+                || !pregenerated.period().equals(periodOf(request.getType()))
+                || !pregenerated.ledgerVersion().equals(ledgerCache.versionOf(excelFilePath))) {
+            return null;
+        }
+        return pregenerated;
+    }
+
+    void pregenerate(String type) {
+        try {
+            String version = ledgerCache.versionOf(excelFilePath);
+            String period = periodOf(type);
+            Pregenerated previous = reports.get(type);
+            if (previous != null && previous.ledgerVersion().equals(version) && previous.period().equals(period)) {
+                count(type, "skipped");
+                log.debug("台帳に変更がないためリポートの事前作成を省略 type={} period={}", type, period);
+                return;
+            }
+
+            long start = System.nanoTime();
+            // 台帳・品目マスタを先に読み込んでおく (リポート作成と画面からの要求はキャッシュを使う)
+            try (LedgerRegistry.Permit ignored = ledgerRegistry.acquireWaiting(LedgerRegistry.DEFAULT_ID)) {
+                excelParser.extractAccountData(excelFilePath, "month");
+                excelParser.extractItemMaster(excelFilePath);
+            }
+            // 作成の枠は実際に作成する場合だけ取る (枠を持ったまま、枠を待っている同じ条件の作成の完了を待たない)
+            String content = reportGenerator.generateReport(excelFilePath, type, null, null, null,
+                    () -> ledgerRegistry.acquireWaiting(LedgerRegistry.DEFAULT_ID));
+            ReportJobDto.JobRequest request = new ReportJobDto.JobRequest(type, null, null, null, null, null);
+            ReportDto report = reportFileService.saveReport(content, ReportJobService.fileNameOf(request),
+                    defaultSaveDirectory, ReportJobService.reportOf(request));
+            // 作成中に台帳が変わった場合は、作成前の版で登録して次回に作り直す
+            reports.put(type, new Pregenerated(version, period, report, content));
+            count(type, "generated");
+            log.info("リポート事前作成 type={} period={} path={} {}ms", type, period, report.getFilePath(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            count(type, "failed");
+            log.error("リポート事前作成失敗 type={}: {}", type, e.getMessage(), e);
+        }
+    }
+
+    private void count(String type, String result) {
+        Counter.builder("report.pregenerate")
+                .description("標準リポートの事前作成")
+                .tags("type", type, "result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static String periodOf(String type) {
+        return "monthly".equals(type) ? YearMonth.now().toString() : LocalDate.now().toString();
+    }
+}
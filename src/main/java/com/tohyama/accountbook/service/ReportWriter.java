@@ -0,0 +1,270 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.utils.DigestUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * リポートのファイル書き込みを専用スレッドで行う
+ * 一時ファイルに書いてから (設定に応じてfsyncし) 原子的に置き換えるので、途中で落ちても書きかけのファイルは残らない。
+ * 書き込み待ちは上限付きのキューに積み、満杯の間は呼び出し側を待たせる (待ちが上限時間を超えたらエラー)。
+ * 書き込みの完了はCompletableFutureで返し、同期版は上限時間まで待つ。停止時に残っている書き込みは全て失敗にする。
+ */
+@Component
+public class ReportWriter implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ReportWriter.class);
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * none: fsyncしない / file: 置き換え前にファイルをfsyncする / directory: 置き換え後にディレクトリもfsyncする
+     */
+    public enum Durability {
+        NONE, FILE, DIRECTORY
+    }
+
+    public record Written(Path path, long size, String checksum) {
+    }
+
+    private record Task(Path target, byte[] content, Path source, CompletableFuture<Written> result) {
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final Duration offerTimeout;
+    private final Duration writeTimeout;
+    private final Durability durability;
+    private final boolean gzip;
+    private final Timer writeTimer;
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public ReportWriter(MeterRegistry meterRegistry,
+                        @Value("${ai.report.writer.queue-capacity:64}") int queueCapacity,
+                        @Value("${ai.report.writer.offer-timeout:30s}") Duration offerTimeout,
+                        @Value("${ai.report.writer.write-timeout:60s}") Duration writeTimeout,
+                        @Value("${ai.report.writer.durability:file}") String durability,
+                        @Value("${ai.report.writer.gzip:false}") boolean gzip) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.offerTimeout = offerTimeout;
+        this.writeTimeout = writeTimeout;
+        this.durability = Durability.valueOf(durability.toUpperCase());
+        this.gzip = gzip;
+        this.writeTimer = Timer.builder("report.write")
+                .description("リポートファイルの書き込み時間 (fsync・置き換えを含む)")
+                .tag("durability", this.durability.name().toLowerCase())
+                .register(meterRegistry);
+        Gauge.builder("report.write.queue", queue, BlockingQueue::size)
+                .description("書き込み待ちのリポート数")
+                .register(meterRegistry);
+        this.thread = Thread.ofPlatform().name("report-writer").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * 内容を保存先に書き込み、書き込み後のパス・サイズ・チェックサム (ファイルのバイト列のもの) を返す
+     * gzipで保存する設定の場合、保存先の名前に.gzを付ける。完了を待つのは ai.report.writer.write-timeout まで。
+     */
+    public Written write(Path target, String content) throws Exception {
+        return await(writeAsync(target, content));
+    }
+
+    /**
+     * 書き終えた一時ファイルを保存先に移す (逐次書き込みしたリポート用。一時ファイルは保存先と同じディレクトリに置く)
+     */
+    public Written commit(Path source, Path target) throws Exception {
+        return await(commitAsync(source, target));
+    }
+
+    /**
+     * 書き込みをキューに積み、完了を待たずに返す (キューが満杯の間は offer-timeout まで待つ)
+     */
+    public CompletableFuture<Written> writeAsync(Path target, String content) throws Exception {
+        return submit(new Task(target, content.getBytes(StandardCharsets.UTF_8), null, new CompletableFuture<>()));
+    }
+
+    public CompletableFuture<Written> commitAsync(Path source, Path target) throws Exception {
+        return submit(new Task(target, null, source, new CompletableFuture<>()));
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private CompletableFuture<Written> submit(Task task) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("リポートの書き込みを停止しました。");
+        }
+        if (!queue.offer(task, offerTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new RuntimeException("リポートの書き込み待ちが上限に達しました。");
+        }
+        // 積んでいる間に停止した場合、書き込みスレッドはもう取り出さないので、ここで失敗にする
+        if (!running) {
+            failPending();
+        }
+        return task.result;
+    }
+
+    private Written await(CompletableFuture<Written> result) throws Exception {
+        try {
+            return result.get(writeTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } catch (TimeoutException e) {
+            throw new IOException("リポートの書き込みが" + writeTimeout.toSeconds() + "秒以内に終わりませんでした。", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            long start = System.nanoTime();
+            try {
+                task.result.complete(execute(task));
+            } catch (Throwable e) {
+                // Errorでもスレッドを止めず、待っている呼び出し側に返す
+                log.error("リポート書き込み失敗 path={}: {}", task.target, e.getMessage(), e);
+                task.result.completeExceptionally(e);
+            } finally {
+                writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+        failPending();
+    }
+
+    /**
+     * キューに残っている書き込みを全て失敗として返す
+     */
+    private void failPending() {
+        for (Task task; (task = queue.poll()) != null; ) {
+            task.result.completeExceptionally(new IllegalStateException("リポートの書き込みを停止しました。"));
+        }
+    }
+
+    private Written execute(Task task) throws IOException {
+        Path target = gzip ? task.target.resolveSibling(task.target.getFileName() + GZIP_SUFFIX) : task.target;
+        Path directory = target.toAbsolutePath().getParent();
+        boolean created = false;
+        if (!createdDirectories.contains(directory)) {
+            Files.createDirectories(directory);
+            createdDirectories.add(directory);
+            created = true;
+        }
+        try {
+            return write(task, target, directory);
+        } catch (NoSuchFileException e) {
+            // 作成済みとして覚えていたディレクトリが実行中に削除された場合は、作り直してもう一度書く
+            createdDirectories.remove(directory);
+            if (created || Files.isDirectory(directory)) {
+                throw e;
+            }
+            log.warn("保存先のディレクトリがないため作り直します: {}", directory);
+            Files.createDirectories(directory);
+            createdDirectories.add(directory);
+            return write(task, target, directory);
+        }
+    }
+
+    private Written write(Task task, Path target, Path directory) throws IOException {
+        // 圧縮しない逐次書き込みのファイルは、fsyncしてそのまま移す
+        if (task.source != null && !gzip) {
+            if (durability != Durability.NONE) {
+                try (FileChannel channel = FileChannel.open(task.source, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            String checksum = DigestUtils.sha256Hex(task.source);
+            long size = Files.size(task.source);
+            move(task.source, target, directory);
+            return new Written(target, size, checksum);
+        }
+
+        Path temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+        try {
+            MessageDigest digest = DigestUtils.sha256();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream os = new DigestOutputStream(Channels.newOutputStream(channel), digest);
+                OutputStream out = gzip ? new GZIPOutputStream(os, 8192) : os;
+                if (task.content != null) {
+                    out.write(task.content);
+                } else {
+                    try (InputStream in = Files.newInputStream(task.source)) {
+                        in.transferTo(out);
+                    }
+                }
+                if (out instanceof GZIPOutputStream gzipOut) {
+                    gzipOut.finish();
+                }
+                os.flush();
+                if (durability != Durability.NONE) {
+                    channel.force(true);
+                }
+            }
+            long size = Files.size(temp);
+            move(temp, target, directory);
+            if (task.source != null) {
+                Files.deleteIfExists(task.source);
+            }
+            return new Written(target, size, HexFormat.of().formatHex(digest.digest()));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void move(Path source, Path target, Path directory) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (durability == Durability.DIRECTORY) {
+            // ディレクトリを開けないOS (Windows) では何もしない
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                log.debug("ディレクトリのfsyncを省略しました: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 書き込みスレッドを止め、キューに残っている書き込みを失敗にする (書き込み中のものはスレッドの終了を待つ間に完了する)
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        failPending();
+    }
+}
@@ -0,0 +1,188 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 月シートの解析を並列に実行し、結果をシート順に結合する
+ * 並列に解析できるのは、シートごとに独立して読めるタスク (イベントAPIのシート単位の読み込み) だけ。
+ * 1つのXSSFWorkbookを共有するタスクはPOIの制約でスレッドをまたげないので、parseAllSequentiallyを使う。
+ */
+@Component
+public class SheetParseExecutor implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(SheetParseExecutor.class);
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final Timer sheetParseTimer;
+
+    public record SheetTask(String sheetName, Callable<List<AccountDto>> parser) {
+    }
+
+    /**
+     * 解析の進み具合を受け取る (sheetParsedは解析を終えたスレッドから、終わった順に呼ばれる)
+     */
+    public interface Progress {
+        Progress NONE = new Progress() {
+            @Override
+            public void start(int sheets) {
+            }
+
+            @Override
+            public void sheetParsed(String sheetName, int rows) {
+            }
+        };
+
+        void start(int sheets);
+
+        void sheetParsed(String sheetName, int rows);
+    }
+
+    /**
+     * @param parallelism 同時に解析するシート数 (1以下は逐次、0はCPUコア数)
+     */
+    public SheetParseExecutor(@Value("${ai.excel.parallelism:1}") int parallelism, MeterRegistry meterRegistry) {
+        this.parallelism = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+        this.sheetParseTimer = Timer.builder("ledger.sheet.parse")
+                .description("月シート1枚の解析時間")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 全シートを解析し、tasksの順序どおりに明細を結合して返す (実行順によらず結果は同じ)
+     * シートごとの台帳は列のまま結合し、AccountDtoは生成しない。
+     */
+    public List<AccountDto> parseAll(List<SheetTask> tasks) throws Exception {
+        return concat(tasks, parseEach(tasks, Progress.NONE, true));
+    }
+
+    /**
+     * parseAllと同じ。並列度によらず呼び出し元のスレッドで1枚ずつ解析する
+     */
+    public List<AccountDto> parseAllSequentially(List<SheetTask> tasks) throws Exception {
+        return concat(tasks, parseEach(tasks, Progress.NONE, false));
+    }
+
+    private static List<AccountDto> concat(List<SheetTask> tasks, List<List<AccountDto>> results) {
+        List<ColumnarLedger> parts = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            List<AccountDto> entries = results.get(i);
+            if (entries == null || entries.isEmpty()) {
+                log.warn("'{}'にデータがありません！", tasks.get(i).sheetName());
+                continue;
+            }
+            parts.add(ColumnarLedger.of(entries));
+        }
+        return ColumnarLedger.concat(parts);
+    }
+
+    /**
+     * 全シートを解析し、シートごとの明細をtasksと同じ順序で返す
+     */
+    public List<List<AccountDto>> parseEach(List<SheetTask> tasks) throws Exception {
+        return parseEach(tasks, Progress.NONE);
+    }
+
+    /**
+     * parseEachと同じ。シートを1枚解析し終えるごとにprogressへ知らせる
+     */
+    public List<List<AccountDto>> parseEach(List<SheetTask> tasks, Progress progress) throws Exception {
+        return parseEach(tasks, progress, true);
+    }
+
+    private List<List<AccountDto>> parseEach(List<SheetTask> tasks, Progress progress, boolean parallel)
+            throws Exception {
+        progress.start(tasks.size());
+        List<List<AccountDto>> results = new ArrayList<>(tasks.size());
+        if (!parallel || pool == null || tasks.size() <= 1) {
+            for (SheetTask task : tasks) {
+                try {
+                    results.add(parse(task, progress));
+                } catch (Exception e) {
+                    log.error("エラー発生");
+                    throw new Exception("データ抽出失敗", e);
+                }
+            }
+            return results;
+        }
+
+        List<Future<List<AccountDto>>> futures = new ArrayList<>(tasks.size());
+        AtomicBoolean aborted = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(tasks.size());
+        for (SheetTask task : tasks) {
+            futures.add(pool.submit(() -> {
+                try {
+                    // 失敗した後に順番が来たシートは解析しない
+                    return aborted.get() ? null : parse(task, progress);
+                } finally {
+                    finished.countDown();
+                }
+            }));
+        }
+        try {
+            for (Future<List<AccountDto>> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    log.error("エラー発生");
+                    throw new Exception("データ抽出失敗", e.getCause());
+                }
+            }
+        } finally {
+            // 失敗時は残りのシート解析を打ち切り、実行中の解析が終わるまで待つ
+            // (cancelでは実行中のタスクは止まらず、呼び出し元が閉じたパッケージを読み続けてしまう)
+            aborted.set(true);
+            awaitUninterruptibly(finished);
+        }
+        return results;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<AccountDto> parse(SheetTask task, Progress progress) throws Exception {
+        List<AccountDto> entries = sheetParseTimer.recordCallable(task.parser());
+        progress.sheetParsed(task.sheetName(), entries == null ? 0 : entries.size());
+        return entries;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}
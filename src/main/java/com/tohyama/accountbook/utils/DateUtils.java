@@ -0,0 +1,118 @@
+package com.tohyama.accountbook.utils;
+
+/**
+ * エポック日 (1970-01-01からの日数) を使った日付計算 (LocalDateを生成しない)
+ */
+public class DateUtils {
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+
+    /**
+     * その週の月曜日のエポック日
+     */
+    public static int mondayOf(int epochDay) {
+        // 1970-01-01は木曜日
+        return epochDay - Math.floorMod(epochDay + 3, 7);
+    }
+
+    /**
+     * 年月キー (year * 12 + (month - 1))
+     */
+    public static int yearMonthKey(int epochDay) {
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097L);
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        return yearMonthKey(year, month);
+    }
+
+    public static int yearMonthKey(int year, int month) {
+        return year * 12 + (month - 1);
+    }
+
+    public static int yearOf(int yearMonthKey) {
+        return Math.floorDiv(yearMonthKey, 12);
+    }
+
+    public static int monthOf(int yearMonthKey) {
+        return Math.floorMod(yearMonthKey, 12) + 1;
+    }
+
+    /**
+     * 年月日からエポック日を求める (日付の妥当性は確認しない)
+     */
+    public static int epochDayOf(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400L);
+        long yoe = y - era * 400;
+        long doy = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return (int) (era * 146097 + doe - 719468);
+    }
+
+    public static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * "yyyy-MM-dd" または "yyyy/M/d" の文字列をエポック日にする。解析できなければ INVALID_DAY
+     * (DateTimeFormatterのSMARTと同じく、1～31日で月末を超える日は月末に丸める)
+     */
+    public static int parseEpochDay(CharSequence text) {
+        int length = text.length();
+        if (length < 8) return INVALID_DAY;
+        int year = 0;
+        int i = 0;
+        for (; i < 4; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return INVALID_DAY;
+            year = year * 10 + digit;
+        }
+        // yyyyは西暦 (紀元) なので0年はない
+        if (year == 0) return INVALID_DAY;
+        char separator = text.charAt(4);
+        // "-" は月・日とも2桁、"/" は1～2桁
+        int minDigits = separator == '-' ? 2 : 1;
+        if (separator != '-' && separator != '/') return INVALID_DAY;
+
+        int month = 0;
+        int start = ++i;
+        for (; i < length && i - start < 2; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) break;
+            month = month * 10 + digit;
+        }
+        if (i - start < minDigits || i >= length || text.charAt(i) != separator) return INVALID_DAY;
+
+        int day = 0;
+        start = ++i;
+        for (; i < length && i - start < 2; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return INVALID_DAY;
+            day = day * 10 + digit;
+        }
+        if (i - start < minDigits || i != length) return INVALID_DAY;
+        if (month < 1 || month > 12 || day < 1 || day > 31) return INVALID_DAY;
+        return epochDayOf(year, month, Math.min(day, lengthOfMonth(year, month)));
+    }
+
+    /**
+     * Excelの日付シリアル値をエポック日にする (時刻は切り捨て)。負の値は INVALID_DAY
+     */
+    public static int epochDayOfSerial(double serial, boolean use1904Windowing) {
+        if (!(serial >= 0)) return INVALID_DAY;
+        int days = (int) serial;
+        if (use1904Windowing) {
+            return days - 24107;
+        }
+        // 1900年方式は存在しない1900-02-29 (60) を含むため、それより前は1日ずらす
+        return days < 61 ? days - 25568 : days - 25569;
+    }
+}
@@ -0,0 +1,117 @@
+package com.tohyama.accountbook.utils;
+
+import java.util.Arrays;
+
+/**
+ * intキーごとに合計と件数を保持するオープンアドレス法のマップ (加算時にボクシングしない)
+ */
+public class IntSumMap {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private long[] sums;
+    private int[] counts;
+    private int size;
+
+    public IntSumMap() {
+        this(16);
+    }
+
+    public IntSumMap(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedKeys * 2 - 1)) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        sums = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    public void add(int key, long amount) {
+        add(key, amount, 1);
+    }
+
+    public void add(int key, long amount, int count) {
+        int slot = slotOf(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+            if (size * 2 > keys.length) {
+                grow();
+                slot = slotOf(key);
+            }
+        }
+        sums[slot] += amount;
+        counts[slot] += count;
+    }
+
+    /**
+     * 別の集計結果を合算する
+     */
+    public void merge(IntSumMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.sums[i], other.counts[i]);
+            }
+        }
+    }
+
+    public long sum(int key) {
+        int slot = slotOf(key);
+        return keys[slot] == EMPTY ? 0 : sums[slot];
+    }
+
+    public int count(int key) {
+        int slot = slotOf(key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * キーを昇順で返す
+     */
+    public int[] sortedKeys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != EMPTY) {
+                result[n++] = key;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldSums = sums;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        sums = new long[keys.length];
+        counts = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                sums[slot] = oldSums[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
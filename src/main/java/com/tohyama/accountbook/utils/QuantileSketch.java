@@ -0,0 +1,121 @@
+package com.tohyama.accountbook.utils;
+
+/**
+ * 値の分布を対数幅のバケットで数える分位点スケッチ (分位点は相対誤差 relativeAccuracy 以内の近似値)
+ * バケット数が上限を超えたら小さい側のバケットをまとめるので、メモリは値の件数によらず上限までで済む。
+ * 0以下の値は1つのバケットで数え、分位点は0として返す (件数・合計・最小・最大は正確な値)。
+ */
+public class QuantileSketch {
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBuckets;
+    // バケット番号 i の件数は counts[floorMod(i, maxBuckets)] (minIndex～maxIndexの幅は maxBuckets 以下)
+    private final long[] counts;
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = Integer.MIN_VALUE;
+    private long zeroCount;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relativeAccuracyは0より大きく1未満で指定してください: " + relativeAccuracy);
+        }
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = Math.max(1, maxBuckets);
+        this.counts = new long[this.maxBuckets];
+    }
+
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    /**
+     * 同じ値をn件まとめて加える
+     */
+    public void add(long value, long n) {
+        if (n <= 0) return;
+        count += n;
+        sum += value * n;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (value <= 0) {
+            zeroCount += n;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        if (minIndex > maxIndex) {
+            minIndex = index;
+            maxIndex = index;
+        } else if (index > maxIndex) {
+            if ((long) index - minIndex >= maxBuckets) {
+                collapseBelow(index - maxBuckets + 1);
+            }
+            maxIndex = index;
+        } else if (index < minIndex) {
+            // 幅が上限に達していれば、いちばん小さいバケットに入れる
+            index = Math.max(index, maxIndex - maxBuckets + 1);
+            minIndex = Math.min(minIndex, index);
+        }
+        counts[slot(index)] += n;
+    }
+
+    /**
+     * q (0～1) の分位点。値がなければ0
+     */
+    public long quantile(double q) {
+        if (count == 0) return 0;
+        double rank = Math.min(Math.max(q, 0), 1) * (count - 1);
+        long seen = zeroCount;
+        if (seen > rank) return 0;
+        for (int index = minIndex; index <= maxIndex; index++) {
+            seen += counts[slot(index)];
+            if (seen > rank) {
+                // バケット (gamma^(i-1), gamma^i] の代表値。実際の最小・最大からははみ出さない
+                long estimate = Math.round(2 * Math.pow(gamma, index) / (gamma + 1));
+                return Math.min(Math.max(estimate, min), max);
+            }
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * 保持しているバケット数
+     */
+    public int buckets() {
+        return minIndex > maxIndex ? 0 : maxIndex - minIndex + 1;
+    }
+
+    private void collapseBelow(int newMinIndex) {
+        long collapsed = 0;
+        for (int index = minIndex; index < newMinIndex && index <= maxIndex; index++) {
+            collapsed += counts[slot(index)];
+            counts[slot(index)] = 0;
+        }
+        minIndex = newMinIndex;
+        counts[slot(newMinIndex)] += collapsed;
+    }
+
+    private int slot(int index) {
+        return Math.floorMod(index, maxBuckets);
+    }
+}
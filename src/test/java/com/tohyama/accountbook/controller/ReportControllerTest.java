@@ -0,0 +1,360 @@
+package com.tohyama.accountbook.controller;
+
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import com.tohyama.accountbook.service.CoalescingReportGenerator;
+import com.tohyama.accountbook.service.GeminiResponseCache;
+import com.tohyama.accountbook.service.ReportArchive;
+import com.tohyama.accountbook.service.ReportJobService;
+import com.tohyama.accountbook.utils.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class ReportControllerTest {
+
+    private static final String CONTENT = "# 2024年1月の月別リポート\n\n合計: 1,200円\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private ReportJobService reportJobService;
+
+    @Mock
+    private GeminiResponseCache responseCache;
+
+    @Mock
+    private CoalescingReportGenerator coalescingReportGenerator;
+
+    private ReportArchive reportArchive;
+    private ReportController controller;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        reportArchive = new ReportArchive(tempDir.resolve("report-index.jsonl").toString());
+        controller = new ReportController(reportJobService, responseCache, coalescingReportGenerator, reportArchive);
+        ReflectionTestUtils.setField(controller, "streamTimeout", Duration.ofSeconds(10));
+        ReflectionTestUtils.setField(controller, "archiveGzip", true);
+        ReflectionTestUtils.setField(controller, "archiveGzipMinBytes", 1024L);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    /**
+     * ファイルを書いて保管庫に登録する
+     */
+    private ReportDto archive(String fileName, byte[] bytes, Integer month) throws Exception {
+        Path file = tempDir.resolve(fileName);
+        Files.write(file, bytes);
+        return reportArchive.register(new ReportDto(LocalDateTime.of(2024, 2, 1, 9, 0), "monthly", null, 2024, month,
+                "model-a", null, file.toString(), bytes.length, DigestUtils.sha256Hex(file), null));
+    }
+
+    private ReportDto archive(String fileName, String content) throws Exception {
+        return archive(fileName, content.getBytes(StandardCharsets.UTF_8), 1);
+    }
+
+    private static byte[] gzip(String content) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws Exception {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void listArchive_filters_returnsMatchingReportsNewestFirst() throws Exception {
+        ReportDto january = archive("2024-01.md", CONTENT.getBytes(StandardCharsets.UTF_8), 1);
+        ReportDto february = archive("2024-02.md", CONTENT.getBytes(StandardCharsets.UTF_8), 2);
+
+        mockMvc.perform(get("/api/reports/archive"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(february.getId()))
+                .andExpect(jsonPath("$[1].id").value(january.getId()));
+        mockMvc.perform(get("/api/reports/archive").param("from", "2024-01").param("to", "2024-01"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(january.getId()));
+    }
+
+    @Test
+    void downloadArchive_unknownId_returns404() throws Exception {
+        mockMvc.perform(get("/api/reports/archive/{id}", "missing"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value(containsString("missing")));
+    }
+
+    @Test
+    void downloadArchive_fileChangedAfterRegister_returns409() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+        Files.writeString(Path.of(report.getFilePath()), CONTENT + "追記");
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId()))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void downloadArchive_plain_returnsFileWithETag() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + report.getChecksum() + "\""))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().bytes(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void downloadArchive_ifNoneMatchSameETag_returns304() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + report.getChecksum() + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void downloadArchive_range_returns206WithPartialContent() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+        byte[] bytes = CONTENT.getBytes(StandardCharsets.UTF_8);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-1"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-1/" + bytes.length))
+                .andExpect(content().bytes(new byte[]{bytes[0], bytes[1]}));
+    }
+
+    @Test
+    void downloadArchive_ifRangeMismatch_returnsWholeFile() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-1")
+                        .header(HttpHeaders.IF_RANGE, "\"old\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void downloadArchive_acceptsGzipAboveMinBytes_returnsCompressedWithOwnETag() throws Exception {
+        String large = CONTENT.repeat(100);
+        ReportDto report = archive("2024-01.md", large);
+
+        MvcResult result = mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + report.getChecksum() + "-gzip\""))
+                .andReturn();
+
+        assertThat(gunzip(result.getResponse().getContentAsByteArray())).isEqualTo(large);
+    }
+
+    @Test
+    void downloadArchive_acceptsGzipBelowMinBytes_returnsIdentity() throws Exception {
+        ReportDto report = archive("2024-01.md", CONTENT);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().bytes(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void downloadArchive_storedGzip_sendsAsIsOrDecompressed() throws Exception {
+        byte[] compressed = gzip(CONTENT);
+        ReportDto report = archive("2024-01.md.gz", compressed, 1);
+
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId())
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + report.getChecksum() + "\""))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("2024-01.md\"")))
+                .andExpect(content().bytes(compressed));
+        // gzipを受け付けないクライアントには展開して送る
+        mockMvc.perform(get("/api/reports/archive/{id}", report.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + report.getChecksum() + "-identity\""))
+                .andExpect(content().bytes(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ReportJobDto.JobStatus queued(String jobId, String type) {
+        return new ReportJobDto.JobStatus(jobId, type, ReportJobDto.Status.QUEUED, LocalDateTime.of(2024, 2, 1, 9, 0),
+                null, null, 0, 0, null, null, null, null, null);
+    }
+
+    @Test
+    void submitJob_validRequest_returns202WithJobId() throws Exception {
+        when(reportJobService.submit(new ReportJobDto.JobRequest("monthly", 2024, 1, "model-a", null, "shop")))
+                .thenReturn(queued("job-1", "monthly"));
+
+        mockMvc.perform(post("/api/reports/jobs").param("type", "monthly").param("year", "2024")
+                        .param("month", "1").param("modelName", "model-a").param("ledgerId", "shop"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.jobId").value("job-1"))
+                .andExpect(jsonPath("$.status").value("QUEUED"));
+    }
+
+    @Test
+    void submitJob_invalidRequest_returns400() throws Exception {
+        when(reportJobService.submit(new ReportJobDto.JobRequest("yearly", null, null, null, null, null)))
+                .thenThrow(new IllegalArgumentException("不明なリポート種別です: yearly"));
+
+        mockMvc.perform(post("/api/reports/jobs").param("type", "yearly"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("不明なリポート種別です: yearly"));
+    }
+
+    @Test
+    void getJob_unknownOrKnown_returns404Or200() throws Exception {
+        when(reportJobService.getStatus("job-1")).thenReturn(queued("job-1", "daily"));
+
+        mockMvc.perform(get("/api/reports/jobs/{jobId}", "job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.type").value("daily"));
+        mockMvc.perform(get("/api/reports/jobs/{jobId}", "missing"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value(containsString("missing")));
+    }
+
+    /**
+     * /stream を呼び、非同期の応答が閉じるまでに送られたイベントを返す
+     */
+    private String streamEvents(ReportJobDto.JobRequest jobRequest) throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/reports/stream").param("type", jobRequest.getType())
+                        .param("year", String.valueOf(jobRequest.getYear()))
+                        .param("month", String.valueOf(jobRequest.getMonth())))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void streamReport_generated_sendsChunksThenDone() throws Exception {
+        ReportJobDto.JobRequest request = new ReportJobDto.JobRequest("monthly", 2024, 1, null, null, null);
+        doAnswer(invocation -> {
+            ReportJobService.StreamListener listener = invocation.getArgument(1);
+            listener.onText("# 2024年");
+            listener.onText("1月");
+            listener.onComplete("/reports/2024-01.md", "report-1", "ファイルを保存しました。");
+            return null;
+        }).when(reportJobService).submitStream(eq(request), any());
+
+        String events = streamEvents(request);
+
+        assertThat(events).containsSubsequence(
+                "event:chunk", "\"text\":\"# 2024年\"",
+                "event:chunk", "\"text\":\"1月\"",
+                "event:done", "\"reportId\":\"report-1\"");
+        assertThat(events).doesNotContain("event:failed");
+    }
+
+    @Test
+    void streamReport_generatorFails_sendsChunksThenFailed() throws Exception {
+        ReportJobDto.JobRequest request = new ReportJobDto.JobRequest("monthly", 2024, 1, null, null, null);
+        doAnswer(invocation -> {
+            ReportJobService.StreamListener listener = invocation.getArgument(1);
+            listener.onText("# 2024年");
+            listener.onError("エラー発生: Geminiの応答が途切れました");
+            return null;
+        }).when(reportJobService).submitStream(eq(request), any());
+
+        String events = streamEvents(request);
+
+        assertThat(events).containsSubsequence("event:chunk", "event:failed", "Geminiの応答が途切れました");
+        assertThat(events).doesNotContain("event:done");
+    }
+
+    @Test
+    void streamReport_invalidRequest_sendsFailed() throws Exception {
+        ReportJobDto.JobRequest request = new ReportJobDto.JobRequest("monthly", 2024, 13, null, null, null);
+        doThrow(new IllegalArgumentException("monthは1～12で指定してください。"))
+                .when(reportJobService).submitStream(eq(request), any());
+
+        assertThat(streamEvents(request)).contains("event:failed", "monthは1～12で指定してください。");
+    }
+
+    @Test
+    void saveBatchReports_validRequest_returns202() throws Exception {
+        when(reportJobService.submitBatch(YearMonth.of(2024, 1), YearMonth.of(2024, 3), List.of("model-a", "model-b"),
+                null, "shop")).thenReturn(queued("job-b", "batch"));
+
+        mockMvc.perform(post("/api/reports/batch").param("from", "2024-01").param("to", "2024-03")
+                        .param("models", "model-a", "model-b").param("ledgerId", "shop"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.jobId").value("job-b"))
+                .andExpect(jsonPath("$.type").value("batch"));
+    }
+
+    @Test
+    void saveBatchReports_invalidPlan_returns400() throws Exception {
+        when(reportJobService.submitBatch(YearMonth.of(2024, 3), YearMonth.of(2024, 1), null, null, null))
+                .thenThrow(new IllegalArgumentException("fromはto以前の年月を指定してください。"));
+
+        mockMvc.perform(post("/api/reports/batch").param("from", "2024-03").param("to", "2024-01"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("fromはto以前の年月を指定してください。"));
+    }
+
+    @Test
+    void saveBatchReports_malformedMonth_returns400() throws Exception {
+        mockMvc.perform(post("/api/reports/batch").param("from", "2024-13").param("to", "2024-01"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,184 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarLedgerTest {
+
+    private static final LocalDate BASE = LocalDate.of(2024, 1, 1);
+
+    private static List<AccountDto> randomEntries(int n, int days, long seed) {
+        Random random = new Random(seed);
+        List<AccountDto> entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            entries.add(new AccountDto(BASE.plusDays(random.nextInt(days)), "品目" + random.nextInt(20),
+                    "ID" + random.nextInt(5), random.nextInt(5), random.nextInt(20_000) - 1_000,
+                    random.nextBoolean() ? null : "メモ" + i));
+        }
+        return entries;
+    }
+
+    private static List<AccountDto> sorted(List<AccountDto> entries) {
+        // 日付順で、同日内は元の順 (安定ソート)
+        List<AccountDto> copy = new ArrayList<>(entries);
+        copy.sort(Comparator.comparing(AccountDto::getDate));
+        return copy;
+    }
+
+    @Test
+    void of_entries_returnsEqualEntriesIncludingNulls() {
+        List<AccountDto> entries = List.of(
+                new AccountDto(BASE, "りんご", "A", 2, 240, null),
+                new AccountDto(BASE, null, null, 0, -50, "返品"),
+                new AccountDto(BASE.plusDays(1), "りんご", "A", 1, 120, "メモ"));
+
+        ColumnarLedger ledger = ColumnarLedger.of(entries);
+
+        assertThat(ledger).containsExactlyElementsOf(entries);
+        assertThat(ledger.epochDay(2)).isEqualTo(BASE.plusDays(1).toEpochDay());
+        assertThat(ledger.price(1)).isEqualTo(-50);
+        assertThat(ledger.count(0)).isEqualTo(2);
+    }
+
+    @Test
+    void of_repeatedStrings_sharesDictionaryCodes() {
+        List<AccountDto> entries = randomEntries(500, 1, 1);
+
+        ColumnarLedger ledger = ColumnarLedger.of(entries);
+
+        // 名前・IDは種類の数だけ辞書に入り、同じ文字列は同じコードになる
+        assertThat(ledger.names().size()).isLessThanOrEqualTo(20);
+        assertThat(ledger.ids().size()).isLessThanOrEqualTo(5);
+        for (int i = 0; i < ledger.size(); i++) {
+            assertThat(ledger.names().get(ledger.nameCode(i))).isEqualTo(ledger.get(i).getName());
+            assertThat(ledger.ids().get(ledger.idCode(i))).isEqualTo(ledger.get(i).getId());
+        }
+        // 備考のnullは辞書に入れず、NULL_CODEで表す
+        assertThat(IntStream.range(0, ledger.size()).filter(i -> ledger.noteCode(i) == StringDictionary.NULL_CODE)
+                .count()).isEqualTo(entries.stream().filter(e -> e.getNote() == null).count());
+    }
+
+    @Test
+    void of_columnarLedger_returnsSameInstance() {
+        ColumnarLedger ledger = ColumnarLedger.of(randomEntries(10, 5, 2));
+
+        assertThat(ColumnarLedger.of(ledger)).isSameAs(ledger);
+    }
+
+    @Test
+    void get_outOfRange_throwsIndexOutOfBoundsException() {
+        ColumnarLedger ledger = ColumnarLedger.of(randomEntries(3, 5, 3));
+
+        assertThatThrownBy(() -> ledger.get(3)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> ledger.price(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void estimatedBytes_moreRows_grows() {
+        assertThat(ColumnarLedger.of(randomEntries(1_000, 30, 4)).estimatedBytes())
+                .isGreaterThan(ColumnarLedger.of(randomEntries(10, 30, 4)).estimatedBytes());
+    }
+
+    @Test
+    void of_unsortedEntries_sortsByDateKeepingInsertionOrderWithinDay() {
+        List<AccountDto> entries = randomEntries(500, 40, 1);
+
+        assertThat(ColumnarLedger.of(entries)).containsExactlyElementsOf(sorted(entries));
+    }
+
+    @Test
+    void range_variousRanges_matchesFilterIncludingBothEnds() {
+        List<AccountDto> entries = randomEntries(1_000, 90, 2);
+        ColumnarLedger ledger = ColumnarLedger.of(entries);
+        List<AccountDto> expectedAll = sorted(entries);
+        int[][] ranges = {{0, 0}, {0, 89}, {10, 20}, {-5, 3}, {85, 120}, {30, 29}, {200, 300}, {-20, -1}};
+        for (int[] range : ranges) {
+            LocalDate from = BASE.plusDays(range[0]);
+            LocalDate to = BASE.plusDays(range[1]);
+            List<AccountDto> expected = expectedAll.stream()
+                    .filter(e -> !e.getDate().isBefore(from) && !e.getDate().isAfter(to))
+                    .toList();
+            assertThat(ledger.range(from, to)).as("%s～%s", from, to).containsExactlyElementsOf(expected);
+            assertThat(ledger.sumPrice(from, to)).as("%s～%s", from, to)
+                    .isEqualTo(expected.stream().mapToLong(AccountDto::getPrice).sum());
+        }
+    }
+
+    @Test
+    void sumPrice_onView_excludesEntriesOutsideView() {
+        List<AccountDto> entries = randomEntries(300, 30, 3);
+        ColumnarLedger view = ColumnarLedger.of(entries).range(BASE.plusDays(5), BASE.plusDays(24));
+
+        // ビューからさらに範囲を絞っても、ビューの外の明細は含まない
+        assertThat(view.sumPrice(BASE.minusDays(10), BASE.plusDays(100)))
+                .isEqualTo(view.stream().mapToLong(AccountDto::getPrice).sum());
+        ColumnarLedger inner = view.range(BASE.plusDays(10), BASE.plusDays(12));
+        assertThat(inner).allMatch(e -> !e.getDate().isBefore(BASE.plusDays(10))
+                && !e.getDate().isAfter(BASE.plusDays(12)));
+        assertThat(view.sumPrice(BASE.plusDays(10), BASE.plusDays(12)))
+                .isEqualTo(inner.stream().mapToLong(AccountDto::getPrice).sum());
+        assertThat(view.range(Integer.MIN_VALUE, Integer.MAX_VALUE)).containsExactlyElementsOf(view);
+    }
+
+    @Test
+    void sumPrice_overIntMax_returnsLongSum() {
+        List<AccountDto> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entries.add(new AccountDto(BASE, "品目", "ID", 1, Integer.MAX_VALUE, null));
+        }
+
+        assertThat(ColumnarLedger.of(entries).sumPrice(BASE, BASE)).isEqualTo(4L * Integer.MAX_VALUE);
+    }
+
+    @Test
+    void range_emptyLedger_returnsEmpty() {
+        ColumnarLedger ledger = ColumnarLedger.of(List.of());
+
+        assertThat(ledger).isEmpty();
+        assertThat(ledger.range(BASE, BASE.plusDays(10))).isEmpty();
+        assertThat(ledger.sumPrice(BASE, BASE.plusDays(10))).isZero();
+    }
+
+    @Test
+    void concat_separateLedgers_keepsArgumentOrderWithinDay() {
+        List<AccountDto> a = randomEntries(100, 10, 4);
+        List<AccountDto> b = randomEntries(100, 10, 5);
+        List<AccountDto> all = new ArrayList<>(a);
+        all.addAll(b);
+
+        ColumnarLedger joined = ColumnarLedger.concat(List.of(ColumnarLedger.of(a), ColumnarLedger.of(b)));
+
+        assertThat(joined).containsExactlyElementsOf(sorted(all));
+        assertThat(joined.sumPrice(BASE, BASE.plusDays(9))).isEqualTo(all.stream().mapToLong(AccountDto::getPrice).sum());
+    }
+
+    @Test
+    void concat_viewsOfSameLedger_joinsWithSharedDictionaries() {
+        ColumnarLedger ledger = ColumnarLedger.of(randomEntries(300, 30, 6));
+        ColumnarLedger early = ledger.range(BASE, BASE.plusDays(9));
+        ColumnarLedger late = ledger.range(BASE.plusDays(20), BASE.plusDays(29));
+
+        ColumnarLedger joined = ColumnarLedger.concat(List.of(early, late));
+
+        List<AccountDto> expected = new ArrayList<>(early);
+        expected.addAll(late);
+        assertThat(joined).containsExactlyElementsOf(expected);
+        assertThat(joined.names()).isSameAs(ledger.names());
+        assertThat(joined.sumPrice(BASE.plusDays(10), BASE.plusDays(19))).isZero();
+    }
+
+    @Test
+    void concat_noParts_returnsEmpty() {
+        assertThat(ColumnarLedger.concat(List.of())).isEmpty();
+    }
+}
@@ -0,0 +1,137 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.ItemCodeDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LedgerAnalyticsTest {
+
+    private static final LocalDate BASE = LocalDate.of(2024, 1, 1);
+    private static final ItemMaster MASTER = ItemMaster.of(List.of(
+            new ItemCodeDto("A", "りんご", "青果", 120),
+            new ItemCodeDto("B", "牛乳", "日配", 200)));
+
+    private static AccountDto entry(int day, String id, int cnt, int price) {
+        return new AccountDto(BASE.plusDays(day), "品目" + id, id, cnt, price, null);
+    }
+
+    private static SummaryDto.PeriodAnalytics analyze(List<AccountDto> entries, int fromDay, int toDay, int k) {
+        return LedgerAnalytics.of(entries, BASE.plusDays(fromDay), BASE.plusDays(toDay), MASTER, k).toSummary();
+    }
+
+    @Test
+    void daysWithoutEntriesCountAsZeroInsideThePeriod() {
+        List<AccountDto> entries = List.of(
+                entry(2, "A", 1, 100),
+                entry(4, "A", 1, 200),
+                entry(4, "B", 1, 300));
+        SummaryDto.DailyDistribution daily = analyze(entries, 0, 9, 3).getDaily();
+        // 10日のうち明細があるのは2日 (合計100と500)、残りの8日は0
+        assertThat(daily.getDays()).isEqualTo(10);
+        assertThat(daily.getActiveDays()).isEqualTo(2);
+        assertThat(daily.getMean()).isEqualTo(60);
+        assertThat(daily.getMedian()).isZero();
+        assertThat(daily.getP90()).isEqualTo(100);
+        assertThat(daily.getMax()).isEqualTo(500);
+    }
+
+    @Test
+    void zeroDaysAreFilledAtBothEndsOfThePeriod() {
+        // 期間の前後の明細は含まない
+        List<AccountDto> entries = List.of(
+                entry(-1, "A", 1, 9_999),
+                entry(3, "A", 1, 400),
+                entry(10, "B", 1, 9_999));
+        SummaryDto.PeriodAnalytics analytics = analyze(entries, 0, 6, 3);
+        SummaryDto.DailyDistribution daily = analytics.getDaily();
+        // 先頭の3日と末尾の3日が0
+        assertThat(daily.getDays()).isEqualTo(7);
+        assertThat(daily.getActiveDays()).isEqualTo(1);
+        assertThat(daily.getMean()).isEqualTo(400 / 7);
+        assertThat(daily.getMedian()).isZero();
+        assertThat(daily.getMax()).isEqualTo(400);
+        assertThat(analytics.getRows()).isEqualTo(1);
+        assertThat(analytics.getTotalAmount()).isEqualTo(400);
+    }
+
+    @Test
+    void entriesOnFirstAndLastDayAreIncluded() {
+        List<AccountDto> entries = List.of(
+                entry(0, "A", 1, 100),
+                entry(4, "B", 1, 300));
+        SummaryDto.DailyDistribution daily = analyze(entries, 0, 4, 3).getDaily();
+        assertThat(daily.getDays()).isEqualTo(5);
+        assertThat(daily.getActiveDays()).isEqualTo(2);
+        assertThat(daily.getMean()).isEqualTo(80);
+        assertThat(daily.getMedian()).isZero();
+        assertThat(daily.getMax()).isEqualTo(300);
+    }
+
+    @Test
+    void emptyPeriodCountsEveryDayAsZero() {
+        List<AccountDto> entries = List.of(entry(20, "A", 1, 100));
+        SummaryDto.PeriodAnalytics analytics = analyze(entries, 0, 4, 3);
+        assertThat(analytics.getDaily()).isEqualTo(new SummaryDto.DailyDistribution(5, 0, 0, 0, 0, 0));
+        assertThat(analytics.getRows()).isZero();
+        assertThat(analytics.getTotalAmount()).isZero();
+        assertThat(analytics.getTopByAmount()).isEmpty();
+        assertThat(analytics.getTopByCount()).isEmpty();
+        assertThat(analytics.getLargest()).isEmpty();
+
+        // 終了日が開始日より前なら日数も0
+        assertThat(analyze(entries, 4, 0, 3).getDaily())
+                .isEqualTo(new SummaryDto.DailyDistribution(0, 0, 0, 0, 0, 0));
+        assertThat(analyze(List.of(), 0, 2, 3).getDaily().getDays()).isEqualTo(3);
+    }
+
+    @Test
+    void topItemsBreakTiesByFirstAppearance() {
+        // B・A・Dは金額の合計が同じ (500) で、台帳に先に出てくる順に上位
+        List<AccountDto> entries = List.of(
+                entry(0, "B", 2, 500),
+                entry(1, "A", 1, 200),
+                entry(1, "A", 1, 300),
+                entry(2, "D", 2, 500),
+                entry(3, "C", 5, 100));
+        SummaryDto.PeriodAnalytics analytics = analyze(entries, 0, 3, 2);
+
+        assertThat(analytics.getTopByAmount()).extracting(SummaryDto.ItemSummary::getId).containsExactly("B", "A");
+        SummaryDto.ItemSummary b = analytics.getTopByAmount().get(0);
+        assertThat(b.getName()).isEqualTo("牛乳");
+        assertThat(b.getLocation()).isEqualTo("日配");
+        assertThat(b.getReferencePrice()).isEqualTo(200);
+        SummaryDto.ItemSummary a = analytics.getTopByAmount().get(1);
+        assertThat(a.getTotalAmount()).isEqualTo(500);
+        assertThat(a.getCnt()).isEqualTo(2);
+        assertThat(a.getRows()).isEqualTo(2);
+
+        // 個数はCが最大で、B・A・Dの同数 (2) はBが上位
+        assertThat(analytics.getTopByCount()).extracting(SummaryDto.ItemSummary::getId).containsExactly("C", "B");
+        // マスタにない品目は明細の品名を使う
+        SummaryDto.ItemSummary c = analytics.getTopByCount().get(0);
+        assertThat(c.getName()).isEqualTo("品目C");
+        assertThat(c.getLocation()).isNull();
+        assertThat(c.getReferencePrice()).isZero();
+    }
+
+    @Test
+    void largestRowsBreakTiesByDateThenLedgerOrder() {
+        List<AccountDto> entries = List.of(
+                entry(2, "A", 1, 500),
+                entry(1, "B", 1, 500),
+                entry(1, "C", 1, 500),
+                entry(0, "D", 1, 100));
+        List<AccountDto> largest = analyze(entries, 0, 3, 2).getLargest();
+        assertThat(largest).extracting(AccountDto::getId).containsExactly("B", "C");
+
+        assertThat(analyze(entries, 0, 3, 0).getLargest()).isEmpty();
+        assertThat(analyze(entries, 0, 3, 10).getLargest()).extracting(AccountDto::getId)
+                .containsExactly("B", "C", "A", "D");
+    }
+}
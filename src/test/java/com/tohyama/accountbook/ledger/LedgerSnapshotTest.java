@@ -0,0 +1,109 @@
+package com.tohyama.accountbook.ledger;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LedgerSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private static ColumnarLedger ledgerOf(int month, int rows) {
+        List<AccountDto> entries = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            entries.add(new AccountDto(LocalDate.of(2024, month, 1 + i % 28), "品目" + (i % 7),
+                    i % 3 == 0 ? null : "ID" + (i % 4), i % 5, (i * 137) % 10_000 - 500,
+                    i % 2 == 0 ? null : "メモ" + month + "-" + i));
+        }
+        return ColumnarLedger.of(entries);
+    }
+
+    @Test
+    void write_withWorkbookState_readsBackLedgerAndSegments() throws IOException {
+        WorkbookState state = new WorkbookState(List.of(
+                new SheetSegment("1月", "digest-1", ledgerOf(1, 50)),
+                new SheetSegment("2月", "digest-2", ledgerOf(2, 0)),
+                new SheetSegment("3月", null, ledgerOf(3, 80))),
+                "styles", List.of("共有1", "", "共有2"), 3);
+        ColumnarLedger ledger = state.toLedger();
+        LedgerSnapshot.Header header = new LedgerSnapshot.Header(1_700_000_000_000L, 12345, "abc123");
+        Path file = directory.resolve("ledger.snapshot");
+
+        LedgerSnapshot.write(file, header, ledger, state);
+
+        assertThat(LedgerSnapshot.readHeader(file)).isEqualTo(header);
+        LedgerSnapshot.Loaded loaded = LedgerSnapshot.read(file);
+        assertThat(loaded.header()).isEqualTo(header);
+        assertThat(loaded.ledger()).containsExactlyElementsOf(ledger);
+        assertThat(loaded.state().stylesDigest()).isEqualTo("styles");
+        assertThat(loaded.state().sharedStrings()).containsExactly("共有1", "", "共有2");
+        assertThat(loaded.state().segments()).hasSize(3);
+        for (int i = 0; i < 3; i++) {
+            SheetSegment expected = state.segments().get(i);
+            SheetSegment actual = loaded.state().segments().get(i);
+            assertThat(actual.sheetName()).isEqualTo(expected.sheetName());
+            assertThat(actual.digest()).isEqualTo(expected.digest());
+            assertThat(actual.entries()).containsExactlyElementsOf(expected.entries());
+        }
+        assertThat(loaded.ledger().sumPrice(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31)))
+                .isEqualTo(ledger.sumPrice(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31)));
+    }
+
+    @Test
+    void write_withoutState_readsBackLedgerOnly() throws IOException {
+        ColumnarLedger ledger = ledgerOf(5, 100);
+        LedgerSnapshot.Header header = new LedgerSnapshot.Header(42, 7, null);
+        Path file = directory.resolve("ledger.snapshot");
+
+        LedgerSnapshot.write(file, header, ledger, null);
+
+        assertThat(LedgerSnapshot.readHeader(file)).isEqualTo(header);
+        LedgerSnapshot.Loaded loaded = LedgerSnapshot.read(file);
+        assertThat(loaded.state()).isNull();
+        assertThat(loaded.ledger()).containsExactlyElementsOf(ledger);
+    }
+
+    @Test
+    void write_overwrite_leavesNoTemporaryFiles() throws IOException {
+        Path file = directory.resolve("ledger.snapshot");
+        LedgerSnapshot.write(file, new LedgerSnapshot.Header(1, 1, "a"), ledgerOf(1, 10), null);
+        LedgerSnapshot.write(file, new LedgerSnapshot.Header(2, 2, "b"), ledgerOf(2, 20), null);
+
+        assertThat(LedgerSnapshot.read(file).ledger()).hasSize(20);
+        try (var files = Files.list(directory)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+
+    @Test
+    void read_truncatedOrForeignFile_throwsIOException() throws IOException {
+        Path file = directory.resolve("ledger.snapshot");
+        LedgerSnapshot.write(file, new LedgerSnapshot.Header(1, 1, "hash"), ledgerOf(1, 30), null);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = directory.resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 10));
+        assertThatThrownBy(() -> LedgerSnapshot.read(truncated)).isInstanceOf(IOException.class);
+
+        Path shortHeader = directory.resolve("short.snapshot");
+        Files.write(shortHeader, Arrays.copyOf(bytes, 12));
+        assertThatThrownBy(() -> LedgerSnapshot.readHeader(shortHeader)).isInstanceOf(IOException.class);
+
+        Path foreign = directory.resolve("foreign.snapshot");
+        Files.writeString(foreign, "PK not a snapshot at all");
+        assertThatThrownBy(() -> LedgerSnapshot.readHeader(foreign)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> LedgerSnapshot.read(foreign)).isInstanceOf(IOException.class);
+    }
+}
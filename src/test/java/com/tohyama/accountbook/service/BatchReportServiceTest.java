@@ -0,0 +1,193 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import com.tohyama.accountbook.dto.GeminiDto;
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import com.tohyama.accountbook.dto.SummaryDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BatchReportServiceTest {
+
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private GeminiProxy geminiProxy;
+
+    @Mock
+    private ReportFileService reportFileService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SheetParseExecutor sheetParseExecutor = new SheetParseExecutor(1, meterRegistry);
+    private LedgerCache ledgerCache;
+    private LedgerRegistry ledgerRegistry;
+    private BatchReportService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path ledger = writeWorkbook(tempDir.resolve("default.xlsx"));
+        ledgerRegistry = new LedgerRegistry(new MockEnvironment());
+        ReflectionTestUtils.setField(ledgerRegistry, "excelFilePath", ledger.toString());
+        ReflectionTestUtils.setField(ledgerRegistry, "directory", tempDir.resolve("ledgers").toString());
+        ReflectionTestUtils.setField(ledgerRegistry, "defaultMaxConcurrent", 1);
+        ReflectionTestUtils.setField(ledgerRegistry, "acquireTimeout", Duration.ofMillis(50));
+        ledgerCache = new LedgerCache(new LedgerSnapshotStore());
+        ReflectionTestUtils.setField(ledgerCache, "maxBytes", Long.MAX_VALUE);
+        ExcelParserImpl excelParser = new ExcelParserImpl(new ExcelStreamReader(sheetParseExecutor, meterRegistry),
+                ledgerCache, sheetParseExecutor, meterRegistry);
+        ReflectionTestUtils.setField(excelParser, "readMode", "dom");
+        ReflectionTestUtils.setField(excelParser, "topK", 10);
+        service = new BatchReportService(excelParser, geminiProxy, reportFileService, new MockEnvironment(),
+                ledgerRegistry, 2);
+        ReflectionTestUtils.setField(service, "defaultSaveDirectory", tempDir.resolve("reports").toString());
+        ReflectionTestUtils.setField(service, "defaultRequestsPerMinute", 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sheetParseExecutor.destroy();
+    }
+
+    /**
+     * 2024年1月・2月の月シートとitem-codeシートを持つワークブック
+     */
+    private static Path writeWorkbook(Path path) throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet itemCodes = workbook.createSheet(consts.itemCodeSheetName);
+            itemCodes.createRow(0).createCell(0).setCellValue("ID");
+            Row item = itemCodes.createRow(1);
+            item.createCell(0).setCellValue("A");
+            item.createCell(1).setCellValue("りんご");
+            item.createCell(2).setCellValue("青果");
+            item.createCell(3).setCellValue(120);
+            for (YearMonth ym : List.of(JANUARY, JANUARY.plusMonths(1))) {
+                Sheet month = workbook.createSheet(ym.getYear() + "-" + ym.getMonthValue());
+                month.createRow(0).createCell(0).setCellValue("日付");
+                for (int day = 1; day <= 3; day++) {
+                    Row row = month.createRow(day);
+                    row.createCell(0).setCellValue(ym.atDay(day).toString());
+                    row.createCell(1).setCellValue("りんご");
+                    row.createCell(2).setCellValue("A");
+                    row.createCell(3).setCellValue(1);
+                    row.createCell(4).setCellValue(100 * day);
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(path)) {
+                workbook.write(out);
+            }
+        }
+        return path;
+    }
+
+    @Test
+    void plan_fromAfterTo_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> service.plan(JANUARY, JANUARY.minusMonths(1), null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("from");
+    }
+
+    @Test
+    void plan_invalidModelName_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> service.plan(JANUARY, JANUARY, List.of("model-a", "../model"), null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("モデル名");
+    }
+
+    @Test
+    void plan_overMaxItems_throwsIllegalArgumentException() {
+        // 120件 (120か月 × 1モデル) までは受け付ける
+        assertThat(service.plan(JANUARY, JANUARY.plusMonths(119), null, null, null).months()).hasSize(120);
+
+        assertThatThrownBy(() -> service.plan(JANUARY, JANUARY.plusMonths(120), null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("120件");
+        assertThatThrownBy(() -> service.plan(JANUARY, JANUARY.plusMonths(59), List.of("a", "b", "c"), null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void plan_duplicateOrOmittedModels_usesDistinctOrDefault() {
+        BatchReportService.Plan plan = service.plan(JANUARY, JANUARY.plusMonths(2), List.of("b", "a", "b"), " ", null);
+
+        assertThat(plan.months()).containsExactly(JANUARY, JANUARY.plusMonths(1), JANUARY.plusMonths(2));
+        assertThat(plan.models()).containsExactly("b", "a");
+        assertThat(plan.saveDir()).isEqualTo(tempDir.resolve("reports").toString());
+        assertThat(service.plan(JANUARY, JANUARY, List.of(), null, null).models()).containsExactly(consts.geminiFlash3);
+    }
+
+    @Test
+    void plan_unknownLedger_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> service.plan(JANUARY, JANUARY, null, null, "shop"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("shop");
+    }
+
+    @Test
+    void generate_oneItemFails_parsesOnceAndReportsEachItem() throws Exception {
+        when(geminiProxy.analyze(any())).thenAnswer(invocation -> {
+            GeminiDto.GeminiProxyRequest request = invocation.getArgument(0);
+            SummaryDto.MonthlyBreakdown summary = (SummaryDto.MonthlyBreakdown) request.getSummaryData();
+            if ("model-b".equals(request.getModelName()) && summary.getMonth() == 2) {
+                throw new IllegalStateException("Gemini呼び出し失敗");
+            }
+            return new GeminiDto.GeminiProxyResponse("# " + summary.getMonth() + "月 " + request.getModelName());
+        });
+        when(reportFileService.saveReport(anyString(), anyString(), anyString(), any())).thenAnswer(invocation -> {
+            ReportDto report = invocation.getArgument(3);
+            return new ReportDto(null, "monthly", null, report.getYear(), report.getMonth(), report.getModelUsed(),
+                    "id-" + invocation.getArgument(1), invocation.getArgument(1), 10, "sum", report.getLedgerId());
+        });
+        BatchReportService.Plan plan = service.plan(JANUARY, JANUARY.plusMonths(1), List.of("model-a", "model-b"),
+                null, null);
+
+        ReportJobDto.BatchManifest manifest = service.generate(plan);
+
+        assertThat(manifest.getSucceeded()).isEqualTo(3);
+        assertThat(manifest.getFailed()).isEqualTo(1);
+        assertThat(manifest.getItems())
+                .extracting(ReportJobDto.BatchItem::getMonth, ReportJobDto.BatchItem::getModelName,
+                        ReportJobDto.BatchItem::getStatus)
+                .containsExactly(
+                        tuple(1, "model-a", ReportJobDto.Status.SUCCEEDED),
+                        tuple(1, "model-b", ReportJobDto.Status.SUCCEEDED),
+                        tuple(2, "model-a", ReportJobDto.Status.SUCCEEDED),
+                        tuple(2, "model-b", ReportJobDto.Status.FAILED));
+        assertThat(manifest.getItems().get(3).getError()).isEqualTo("エラー発生: Gemini呼び出し失敗");
+        assertThat(manifest.getItems().get(0).getReportId()).isNotNull();
+        // 台帳は全ての月・モデルで共有して1回だけ読む
+        assertThat(ledgerCache.getStats().getLoads()).isEqualTo(1);
+        try (LedgerRegistry.Permit permit = ledgerRegistry.acquire(null)) {
+            assertThat(permit).isNotNull();
+        }
+    }
+}
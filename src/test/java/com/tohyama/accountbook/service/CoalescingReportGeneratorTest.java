@@ -0,0 +1,190 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportJobDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CoalescingReportGeneratorTest {
+
+    private static final String LEDGER = "/ledgers/default.xlsx";
+
+    @Mock
+    private ReportGeneratorImpl delegate;
+
+    @Mock
+    private LedgerCache ledgerCache;
+
+    private CoalescingReportGenerator generator;
+    private ExecutorService executor;
+    // 実行中の作成を止めておき、後から来た呼び出しが合流してから完了させる
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        generator = new CoalescingReportGenerator(delegate, ledgerCache);
+        ReflectionTestUtils.setField(generator, "waitTimeout", Duration.ofSeconds(10));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private void blockDailyReport(String report) throws Exception {
+        when(delegate.generateDailyReport(LEDGER)).thenAnswer(invocation -> {
+            started.countDown();
+            assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            return report;
+        });
+    }
+
+    private Future<String> submitDaily() {
+        return executor.submit(() -> generator.generateDailyReport(LEDGER));
+    }
+
+    private void awaitCoalesced(long count) {
+        await().atMost(Duration.ofSeconds(10)).until(() -> generator.getStats().getCoalesced() == count);
+    }
+
+    @Test
+    void generateDailyReport_concurrentSameKey_callsDelegateOnce() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1");
+        blockDailyReport("# 日別");
+
+        Future<String> leader = submitDaily();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        Future<String> follower = submitDaily();
+        awaitCoalesced(1);
+        release.countDown();
+
+        assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        assertThat(follower.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        verify(delegate, times(1)).generateDailyReport(LEDGER);
+        assertThat(generator.getStats()).isEqualTo(new ReportJobDto.CoalescingStats(1, 1, 0, 0));
+    }
+
+    @Test
+    void generateDailyReport_differentLedgerVersion_callsDelegateTwice() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1", "v2");
+        blockDailyReport("# 日別");
+
+        Future<String> first = submitDaily();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        // 台帳が更新された後の要求は、実行中の古い版の作成に合流しない
+        Future<String> second = submitDaily();
+        await().atMost(Duration.ofSeconds(10)).until(() -> generator.getStats().getExecutions() == 2);
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        verify(delegate, times(2)).generateDailyReport(LEDGER);
+        assertThat(generator.getStats()).isEqualTo(new ReportJobDto.CoalescingStats(2, 0, 0, 0));
+    }
+
+    @Test
+    void generateDailyReport_waiterExceedsTimeout_throwsAndCountsTimeout() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1");
+        blockDailyReport("# 日別");
+        ReflectionTestUtils.setField(generator, "waitTimeout", Duration.ofMillis(50));
+
+        Future<String> leader = submitDaily();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> generator.generateDailyReport(LEDGER))
+                .hasMessageContaining("タイムアウト");
+        assertThat(generator.getStats().getTimeouts()).isEqualTo(1);
+        assertThat(generator.getStats().getInFlight()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        assertThat(generator.getStats()).isEqualTo(new ReportJobDto.CoalescingStats(1, 1, 1, 0));
+    }
+
+    @Test
+    void generateDailyReport_leaderFails_waiterReceivesSameError() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1");
+        when(delegate.generateDailyReport(LEDGER)).thenAnswer(invocation -> {
+            started.countDown();
+            assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            throw new IllegalStateException("Gemini呼び出し失敗");
+        });
+
+        Future<String> leader = submitDaily();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        Future<String> follower = submitDaily();
+        awaitCoalesced(1);
+        release.countDown();
+
+        for (Future<String> future : List.of(leader, follower)) {
+            assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasRootCauseMessage("Gemini呼び出し失敗");
+        }
+        // 失敗した作成は実行中から外れ、次の要求は新しく実行する
+        assertThat(generator.getStats().getInFlight()).isZero();
+    }
+
+    @Test
+    void generateReport_waiterJoinsInFlight_onlyLeaderAcquiresAdmission() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1");
+        doCallRealMethod().when(delegate).generateReport(anyString(), anyString(), any(), any(), any(), any());
+        blockDailyReport("# 日別");
+        AtomicInteger acquired = new AtomicInteger();
+        ReportGenerator.Admission admission = () -> {
+            acquired.incrementAndGet();
+            return () -> { };
+        };
+
+        Future<String> leader = executor.submit(
+                () -> generator.generateReport(LEDGER, "daily", null, null, null, admission));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        Future<String> follower = executor.submit(
+                () -> generator.generateReport(LEDGER, "daily", null, null, null, admission));
+        awaitCoalesced(1);
+        release.countDown();
+
+        assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        assertThat(follower.get(10, TimeUnit.SECONDS)).isEqualTo("# 日別");
+        assertThat(acquired).hasValue(1);
+    }
+
+    @Test
+    void generateMonthlyReport_differentModels_doNotCoalesce() throws Exception {
+        when(ledgerCache.versionOf(LEDGER)).thenReturn("v1");
+        when(delegate.generateMonthlyReport(LEDGER, 2024, 1, "model-a")).thenReturn("# A");
+        when(delegate.generateMonthlyReport(LEDGER, 2024, 1, "model-b")).thenReturn("# B");
+
+        assertThat(generator.generateMonthlyReport(LEDGER, 2024, 1, "model-a")).isEqualTo("# A");
+        assertThat(generator.generateMonthlyReport(LEDGER, 2024, 1, "model-b")).isEqualTo("# B");
+        assertThat(generator.getStats()).isEqualTo(new ReportJobDto.CoalescingStats(2, 0, 0, 0));
+    }
+}
@@ -0,0 +1,241 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.ledger.SheetSegment;
+import com.tohyama.accountbook.ledger.WorkbookState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExcelStreamReaderTest {
+
+    private static final LocalDate BASE = LocalDate.of(2024, 1, 1);
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SheetParseExecutor sheetParseExecutor = new SheetParseExecutor(1, meterRegistry);
+    private final ExcelStreamReader reader = new ExcelStreamReader(sheetParseExecutor, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        sheetParseExecutor.destroy();
+    }
+
+    /**
+     * 1か月分の月シート (日付セルは日付書式の数値、30行目だけ文字列) とitem-codeシートを書く
+     */
+    private Path writeWorkbook(String fileName, boolean date1904) throws Exception {
+        Path path = tempDir.resolve(fileName);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            if (date1904) {
+                CTWorkbook ctWorkbook = workbook.getCTWorkbook();
+                (ctWorkbook.isSetWorkbookPr() ? ctWorkbook.getWorkbookPr() : ctWorkbook.addNewWorkbookPr()).setDate1904(true);
+            }
+            assertThat(workbook.isDate1904()).isEqualTo(date1904);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy/m/d"));
+            Sheet itemCodes = workbook.createSheet(consts.itemCodeSheetName);
+            itemCodes.createRow(0).createCell(0).setCellValue("ID");
+            Row item = itemCodes.createRow(1);
+            item.createCell(0).setCellValue("A");
+            item.createCell(1).setCellValue("りんご");
+            item.createCell(2).setCellValue("青果");
+            item.createCell(3).setCellValue(120);
+
+            Sheet month = workbook.createSheet("2024-1");
+            month.createRow(0).createCell(0).setCellValue("日付");
+            for (int i = 1; i <= 31; i++) {
+                Row row = month.createRow(i);
+                Cell date = row.createCell(0);
+                if (i == 30) {
+                    date.setCellValue(BASE.plusDays(i - 1).toString());
+                } else {
+                    // 数値はワークブックの日付方式でシリアル値になる
+                    date.setCellValue(BASE.plusDays(i - 1));
+                    date.setCellStyle(dateStyle);
+                }
+                row.createCell(1).setCellValue("りんご");
+                row.createCell(2).setCellValue("A");
+                row.createCell(3).setCellValue(1);
+                row.createCell(4).setCellValue(100 + i);
+            }
+            try (OutputStream out = Files.newOutputStream(path)) {
+                workbook.write(out);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * 2024年1月・2月の月シート (日付は文字列) とitem-codeシートを書く
+     * 2月の末尾にextraRows行の「みかん」を足すと、共有文字列は末尾に追加される。
+     */
+    private Path writeLedger(String fileName, String category, boolean boldHeader, int extraRows) throws Exception {
+        Path path = tempDir.resolve(fileName);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet itemCodes = workbook.createSheet(consts.itemCodeSheetName);
+            Cell header = itemCodes.createRow(0).createCell(0);
+            header.setCellValue("ID");
+            if (boldHeader) {
+                Font bold = workbook.createFont();
+                bold.setBold(true);
+                CellStyle style = workbook.createCellStyle();
+                style.setFont(bold);
+                header.setCellStyle(style);
+            }
+            Row item = itemCodes.createRow(1);
+            item.createCell(0).setCellValue("A");
+            item.createCell(1).setCellValue("りんご");
+            item.createCell(2).setCellValue(category);
+            item.createCell(3).setCellValue(120);
+            for (int month = 1; month <= 2; month++) {
+                Sheet sheet = workbook.createSheet("2024-" + month);
+                sheet.createRow(0).createCell(0).setCellValue("日付");
+                int rows = month == 2 ? 3 + extraRows : 3;
+                for (int i = 1; i <= rows; i++) {
+                    Row row = sheet.createRow(i);
+                    row.createCell(0).setCellValue(LocalDate.of(2024, month, i).toString());
+                    row.createCell(1).setCellValue(i > 3 ? "みかん" : "りんご");
+                    row.createCell(2).setCellValue("A");
+                    row.createCell(3).setCellValue(1);
+                    row.createCell(4).setCellValue(100 * i);
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(path)) {
+                workbook.write(out);
+            }
+        }
+        return path;
+    }
+
+    @Test
+    void read_date1904Workbook_readsDatesWithoutShift() throws Exception {
+        Path path = writeWorkbook("ledger-1904.xlsx", true);
+
+        List<AccountDto> entries = reader.read(path.toString());
+
+        assertThat(entries).hasSize(31);
+        assertThat(entries).extracting(AccountDto::getDate)
+                .containsExactlyElementsOf(BASE.datesUntil(BASE.plusDays(31)).toList());
+    }
+
+    @Test
+    void read_date1904Workbook_matchesDomRead() throws Exception {
+        Path path = writeWorkbook("ledger-1904.xlsx", true);
+        ExcelParserImpl parser = new ExcelParserImpl(reader, new LedgerCache(new LedgerSnapshotStore()),
+                sheetParseExecutor, meterRegistry);
+        ReflectionTestUtils.setField(parser, "readMode", "dom");
+
+        List<?> dom = parser.extractAccountData(path.toString(), "month");
+
+        assertThat(reader.read(path.toString())).containsExactlyElementsOf(
+                dom.stream().map(AccountDto.class::cast).toList());
+    }
+
+    @Test
+    void readIncremental_date1904Workbook_readsDatesWithoutShift() throws Exception {
+        Path path = writeWorkbook("ledger-1904.xlsx", true);
+
+        List<AccountDto> entries = reader.readIncremental(path.toString(), null).segments().get(0).entries();
+
+        assertThat(entries).extracting(AccountDto::getDate).first().isEqualTo(BASE);
+        assertThat(entries).extracting(AccountDto::getDate).last().isEqualTo(BASE.plusDays(30));
+    }
+
+    @Test
+    void read_date1900Workbook_readsDates() throws Exception {
+        Path path = writeWorkbook("ledger-1900.xlsx", false);
+
+        assertThat(reader.read(path.toString())).extracting(AccountDto::getDate)
+                .containsExactlyElementsOf(BASE.datesUntil(BASE.plusDays(31)).toList());
+    }
+
+    @Test
+    void readIncremental_noPrevious_parsesAllMonthSheets() throws Exception {
+        Path path = writeLedger("ledger.xlsx", "青果", false, 0);
+
+        WorkbookState state = reader.readIncremental(path.toString(), null);
+
+        assertThat(state.parsedSheets()).isEqualTo(2);
+        assertThat(state.segments()).extracting(SheetSegment::sheetName).containsExactly("2024-1", "2024-2");
+        assertThat(state.toLedger()).hasSize(6);
+    }
+
+    @Test
+    void readIncremental_unchangedWorkbook_reusesAllSegments() throws Exception {
+        WorkbookState previous = reader.readIncremental(
+                writeLedger("before.xlsx", "青果", false, 0).toString(), null);
+
+        WorkbookState state = reader.readIncremental(
+                writeLedger("after.xlsx", "青果", false, 0).toString(), previous);
+
+        assertThat(state.parsedSheets()).isZero();
+        assertThat(state.segments().get(0)).isSameAs(previous.segments().get(0));
+        assertThat(state.segments().get(1)).isSameAs(previous.segments().get(1));
+    }
+
+    @Test
+    void readIncremental_rowsAppendedToOneSheet_parsesOnlyChangedSheet() throws Exception {
+        WorkbookState previous = reader.readIncremental(
+                writeLedger("before.xlsx", "青果", false, 0).toString(), null);
+
+        WorkbookState state = reader.readIncremental(
+                writeLedger("after.xlsx", "青果", false, 2).toString(), previous);
+
+        // 共有文字列は末尾への追加だけなので、1月のシートはそのまま使う
+        assertThat(state.sharedStrings()).startsWith(previous.sharedStrings().toArray(String[]::new));
+        assertThat(state.parsedSheets()).isEqualTo(1);
+        assertThat(state.segments().get(0)).isSameAs(previous.segments().get(0));
+        assertThat(state.segments().get(1).entries()).extracting(AccountDto::getName)
+                .containsExactly("りんご", "りんご", "りんご", "みかん", "みかん");
+        assertThat(state.toLedger()).hasSize(8);
+    }
+
+    @Test
+    void readIncremental_sharedStringsNotAppendOnly_parsesAllSheets() throws Exception {
+        WorkbookState previous = reader.readIncremental(
+                writeLedger("before.xlsx", "青果", false, 0).toString(), null);
+
+        // item-codeシートの文字列だけ変える (月シートのXMLは同じでも、文字列の番号の意味が変わりうる)
+        WorkbookState state = reader.readIncremental(
+                writeLedger("after.xlsx", "果物", false, 0).toString(), previous);
+
+        assertThat(state.parsedSheets()).isEqualTo(2);
+        assertThat(state.segments().get(0)).isNotSameAs(previous.segments().get(0));
+        assertThat(state.segments().get(0).digest()).isEqualTo(previous.segments().get(0).digest());
+        assertThat(state.toLedger()).hasSize(6);
+    }
+
+    @Test
+    void readIncremental_stylesChanged_parsesAllSheets() throws Exception {
+        WorkbookState previous = reader.readIncremental(
+                writeLedger("before.xlsx", "青果", false, 0).toString(), null);
+
+        WorkbookState state = reader.readIncremental(
+                writeLedger("after.xlsx", "青果", true, 0).toString(), previous);
+
+        assertThat(state.stylesDigest()).isNotEqualTo(previous.stylesDigest());
+        assertThat(state.parsedSheets()).isEqualTo(2);
+        assertThat(state.segments().get(1)).isNotSameAs(previous.segments().get(1));
+    }
+}
@@ -0,0 +1,177 @@
+package com.tohyama.accountbook.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class GeminiResponseCacheTest {
+
+    // 1件10バイトの応答
+    private static final String REPORT_A = "report-A..";
+    private static final String REPORT_B = "report-B..";
+    private static final String REPORT_C = "report-C..";
+
+    @TempDir
+    Path tempDir;
+
+    private GeminiResponseCache cache(long maxBytes) {
+        return cache(maxBytes, Duration.ZERO);
+    }
+
+    private GeminiResponseCache cache(long maxBytes, Duration monthlyTtl) {
+        return new GeminiResponseCache(true, maxBytes, tempDir.toString(), Duration.ZERO, Duration.ZERO, monthlyTtl);
+    }
+
+    private Path fileOf(String key) {
+        return tempDir.resolve(key + ".cache");
+    }
+
+    @Test
+    void keyOf_differentModel_returnsDifferentKey() {
+        assertThat(GeminiResponseCache.keyOf("model-a", "prompt"))
+                .isEqualTo(GeminiResponseCache.keyOf("model-a", "prompt"))
+                .isNotEqualTo(GeminiResponseCache.keyOf("model-b", "prompt"))
+                .hasSize(64);
+    }
+
+    @Test
+    void get_disabled_returnsNullWithoutWriting() throws Exception {
+        GeminiResponseCache cache = new GeminiResponseCache(false, 100, tempDir.toString(),
+                Duration.ZERO, Duration.ZERO, Duration.ZERO);
+
+        cache.put("a", "monthly", REPORT_A);
+
+        assertThat(cache.get("a")).isNull();
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void get_afterPut_returnsReportAndCountsHits() {
+        GeminiResponseCache cache = cache(100);
+        cache.put("a", "monthly", REPORT_A);
+
+        assertThat(cache.get("a")).isEqualTo(REPORT_A);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.getStats().getHits()).isEqualTo(1);
+        assertThat(cache.getStats().getMisses()).isEqualTo(1);
+        assertThat(cache.getStats().getBytes()).isEqualTo(10);
+        assertThat(fileOf("a")).exists();
+    }
+
+    @Test
+    void put_overMaxBytes_evictsLeastRecentlyUsed() {
+        // 2件分だけ入る上限
+        GeminiResponseCache cache = cache(25);
+        cache.put("a", "monthly", REPORT_A);
+        cache.put("b", "monthly", REPORT_B);
+        // aを参照し直したので、最後の参照が古いのはb
+        cache.get("a");
+
+        cache.put("c", "monthly", REPORT_C);
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo(REPORT_A);
+        assertThat(cache.get("c")).isEqualTo(REPORT_C);
+        assertThat(cache.getStats().getEvictions()).isEqualTo(1);
+        assertThat(cache.getStats().getBytes()).isEqualTo(20);
+        assertThat(fileOf("b")).doesNotExist();
+    }
+
+    @Test
+    void put_singleReportOverMaxBytes_isNotCached() {
+        GeminiResponseCache cache = cache(5);
+
+        cache.put("a", "monthly", REPORT_A);
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.getStats().getEntries()).isZero();
+        assertThat(fileOf("a")).doesNotExist();
+    }
+
+    @Test
+    void put_sameKey_replacesReportAndBytes() throws Exception {
+        GeminiResponseCache cache = cache(100);
+        cache.put("a", "monthly", REPORT_A);
+
+        cache.put("a", "monthly", "new");
+
+        assertThat(cache.get("a")).isEqualTo("new");
+        assertThat(cache.getStats().getBytes()).isEqualTo(3);
+        assertThat(Files.readString(fileOf("a"))).endsWith("\nnew");
+    }
+
+    @Test
+    void get_expired_removesEntryAndFile() {
+        GeminiResponseCache cache = cache(100, Duration.ofMillis(1));
+        cache.put("monthly", "MONTHLY", REPORT_A);
+        // 日次は有効期限なし (0)
+        cache.put("daily", null, REPORT_B);
+
+        await().atMost(Duration.ofSeconds(10)).until(() -> cache.get("monthly") == null);
+
+        assertThat(fileOf("monthly")).doesNotExist();
+        assertThat(cache.get("daily")).isEqualTo(REPORT_B);
+        assertThat(cache.getStats().getBytes()).isEqualTo(10);
+    }
+
+    @Test
+    void constructor_existingFiles_reloadsEntries() {
+        GeminiResponseCache first = cache(100);
+        first.put("a", "monthly", REPORT_A);
+        first.put("b", "weekly", "複数行の\n応答");
+
+        GeminiResponseCache reloaded = cache(100);
+
+        assertThat(reloaded.get("a")).isEqualTo(REPORT_A);
+        assertThat(reloaded.get("b")).isEqualTo("複数行の\n応答");
+        assertThat(reloaded.getStats().getEntries()).isEqualTo(2);
+    }
+
+    @Test
+    void constructor_overMaxBytes_evictsOldestModified() throws Exception {
+        GeminiResponseCache first = cache(100);
+        first.put("a", "monthly", REPORT_A);
+        first.put("b", "monthly", REPORT_B);
+        first.put("c", "monthly", REPORT_C);
+        // 更新日時を最終参照日時として扱う (b → a → c の順に参照した)
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(fileOf("b"), FileTime.fromMillis(now - 3_000));
+        Files.setLastModifiedTime(fileOf("a"), FileTime.fromMillis(now - 2_000));
+        Files.setLastModifiedTime(fileOf("c"), FileTime.fromMillis(now - 1_000));
+
+        GeminiResponseCache reloaded = cache(25);
+
+        assertThat(reloaded.getStats().getEntries()).isEqualTo(2);
+        assertThat(fileOf("b")).doesNotExist();
+        assertThat(reloaded.get("a")).isEqualTo(REPORT_A);
+        assertThat(reloaded.get("c")).isEqualTo(REPORT_C);
+
+        // 読み込み後も参照順は引き継がれ、次に追い出されるのは最後の参照が古いa
+        reloaded.get("c");
+        reloaded.put("d", "monthly", REPORT_A);
+        assertThat(reloaded.get("a")).isNull();
+    }
+
+    @Test
+    void constructor_expiredOrBrokenFiles_deletesThem() throws Exception {
+        Files.writeString(fileOf("old"), "monthly\t" + (System.currentTimeMillis() - 60_000) + "\n" + REPORT_A);
+        Files.writeString(fileOf("broken"), "ヘッダーなし");
+        Files.writeString(fileOf("fresh"), "monthly\t" + System.currentTimeMillis() + "\n" + REPORT_B);
+
+        GeminiResponseCache cache = cache(100, Duration.ofSeconds(30));
+
+        assertThat(cache.getStats().getEntries()).isEqualTo(1);
+        assertThat(cache.get("fresh")).isEqualTo(REPORT_B);
+        assertThat(fileOf("old")).doesNotExist();
+        assertThat(fileOf("broken")).doesNotExist();
+    }
+}
@@ -0,0 +1,220 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import com.tohyama.accountbook.dto.ItemCodeDto;
+import com.tohyama.accountbook.ledger.ColumnarLedger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(MockitoExtension.class)
+class LedgerCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private LedgerSnapshotStore snapshotStore;
+
+    private LedgerCache cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        cache = new LedgerCache(snapshotStore);
+        ReflectionTestUtils.setField(cache, "verifyHash", false);
+        ReflectionTestUtils.setField(cache, "verifyHashInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(cache, "maxBytes", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(cache, "readMode", "dom");
+    }
+
+    private static List<AccountDto> entries(int n) {
+        List<AccountDto> entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            entries.add(new AccountDto(LocalDate.of(2024, 1, 1).plusDays(i % 31), "品目" + i, "A", 1, 100 + i, null));
+        }
+        return entries;
+    }
+
+    private String ledgerFile(String name) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, new byte[]{1, 2, 3});
+        return file.toString();
+    }
+
+    private ColumnarLedger get(String path) throws Exception {
+        return cache.get(path, p -> {
+            loads.incrementAndGet();
+            return new LedgerCache.LoadedWorkbook(entries(100), null);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> locks() {
+        return (Map<String, ?>) ReflectionTestUtils.getField(cache, "locks");
+    }
+
+    @Test
+    void get_unchangedFile_returnsCachedWithoutLoading() throws Exception {
+        String path = ledgerFile("a.xlsx");
+
+        ColumnarLedger first = get(path);
+        ColumnarLedger second = get(path);
+
+        assertThat(second).isSameAs(first);
+        assertThat(loads).hasValue(1);
+        assertThat(cache.getStats().getHits()).isEqualTo(1);
+        assertThat(cache.getStats().getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void get_fileModified_loadsAgain() throws Exception {
+        String path = ledgerFile("a.xlsx");
+        get(path);
+
+        Path file = Path.of(path);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2_000));
+        get(path);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void get_overMaxBytes_evictsLeastRecentlyUsed() throws Exception {
+        long bytes = ColumnarLedger.of(entries(100)).estimatedBytes();
+        // 2台帳分だけ入る上限
+        ReflectionTestUtils.setField(cache, "maxBytes", bytes * 2 + bytes / 2);
+        String a = ledgerFile("a.xlsx");
+        String b = ledgerFile("b.xlsx");
+        String c = ledgerFile("c.xlsx");
+        get(a);
+        get(b);
+        // aを参照し直したので、最後の参照が古いのはb
+        get(a);
+
+        get(c);
+
+        assertThat(cache.getStats().getEvictions()).isEqualTo(1);
+        assertThat(cache.getStats().getCachedBytes()).isEqualTo(bytes * 2);
+        assertThat(cache.getStats().getCachedLedgers()).isEqualTo(2);
+        assertThat(loads).hasValue(3);
+        get(a);
+        get(c);
+        assertThat(loads).hasValue(3);
+        get(b);
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void get_singleLedgerOverMaxBytes_keepsJustRegistered() throws Exception {
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L);
+        String a = ledgerFile("a.xlsx");
+
+        get(a);
+        get(a);
+
+        // 登録したばかりのものは破棄しない
+        assertThat(loads).hasValue(1);
+        assertThat(cache.getStats().getEvictions()).isZero();
+    }
+
+    @Test
+    void get_evicted_removesLockAndItemMaster() throws Exception {
+        long bytes = ColumnarLedger.of(entries(100)).estimatedBytes();
+        ReflectionTestUtils.setField(cache, "maxBytes", bytes + bytes / 2);
+        String a = ledgerFile("a.xlsx");
+        String b = ledgerFile("b.xlsx");
+        cache.get(a, p -> new LedgerCache.LoadedWorkbook(entries(100),
+                List.of(new ItemCodeDto("A", "りんご", "青果", 120))));
+        long withMaster = cache.getStats().getCachedBytes();
+        assertThat(withMaster).isGreaterThan(bytes);
+        assertThat(locks()).containsKey(Path.of(a).toAbsolutePath().normalize().toString());
+
+        get(b);
+
+        assertThat(cache.getStats().getEvictions()).isEqualTo(1);
+        assertThat(locks()).doesNotContainKey(Path.of(a).toAbsolutePath().normalize().toString());
+        // 品目マスタも一緒に破棄したので、残るのはbの明細の分だけ
+        assertThat(cache.getStats().getCachedBytes()).isEqualTo(bytes);
+        AtomicInteger masterLoads = new AtomicInteger();
+        cache.getItemMaster(a, p -> {
+            masterLoads.incrementAndGet();
+            return List.of(new ItemCodeDto("A", "りんご", "青果", 120));
+        });
+        assertThat(masterLoads).hasValue(1);
+    }
+
+    @Test
+    void invalidate_cached_releasesBytes() throws Exception {
+        String a = ledgerFile("a.xlsx");
+        get(a);
+
+        cache.invalidate(a);
+
+        assertThat(cache.getStats().getCachedBytes()).isZero();
+        get(a);
+        assertThat(loads).hasValue(2);
+    }
+
+    /**
+     * 更新日時・サイズを変えずに内容だけ書き換える
+     */
+    private static void rewriteKeepingMetadata(String path, byte[] bytes) throws Exception {
+        Path file = Path.of(path);
+        FileTime lastModified = Files.getLastModifiedTime(file);
+        Files.write(file, bytes);
+        Files.setLastModifiedTime(file, lastModified);
+    }
+
+    @Test
+    void get_verifyHashWithinInterval_reusesHashWhileMetadataUnchanged() throws Exception {
+        ReflectionTestUtils.setField(cache, "verifyHash", true);
+        String path = ledgerFile("a.xlsx");
+        get(path);
+
+        // 間隔内で更新日時・サイズが同じ間はハッシュを計算し直さないので、内容の変更には気づかない
+        rewriteKeepingMetadata(path, new byte[]{4, 5, 6});
+        get(path);
+        assertThat(loads).hasValue(1);
+
+        // 更新日時が変われば計算し直す
+        Path file = Path.of(path);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2_000));
+        get(path);
+        assertThat(loads).hasValue(2);
+        rewriteKeepingMetadata(path, new byte[]{1, 2, 3});
+        get(path);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void get_verifyHashIntervalElapsed_detectsContentChange() throws Exception {
+        ReflectionTestUtils.setField(cache, "verifyHash", true);
+        ReflectionTestUtils.setField(cache, "verifyHashInterval", Duration.ZERO);
+        String path = ledgerFile("a.xlsx");
+        get(path);
+        get(path);
+        assertThat(loads).hasValue(1);
+
+        rewriteKeepingMetadata(path, new byte[]{4, 5, 6});
+        get(path);
+
+        assertThat(loads).hasValue(2);
+    }
+}
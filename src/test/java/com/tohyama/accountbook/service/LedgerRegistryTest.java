@@ -0,0 +1,142 @@
+package com.tohyama.accountbook.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class LedgerRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MockEnvironment environment = new MockEnvironment();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private LedgerRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new LedgerRegistry(environment);
+        ReflectionTestUtils.setField(registry, "excelFilePath", tempDir.resolve("default.xlsx").toString());
+        ReflectionTestUtils.setField(registry, "directory", tempDir.resolve("ledgers").toString());
+        ReflectionTestUtils.setField(registry, "defaultMaxConcurrent", 1);
+        ReflectionTestUtils.setField(registry, "acquireTimeout", Duration.ofMillis(50));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Semaphore semaphoreOf(String ledgerId) {
+        return ((Map<String, Semaphore>) ReflectionTestUtils.getField(registry, "permits")).get(ledgerId);
+    }
+
+    @Test
+    void idOf_nullOrBlank_returnsDefault() {
+        assertThat(LedgerRegistry.idOf(null)).isEqualTo(LedgerRegistry.DEFAULT_ID);
+        assertThat(LedgerRegistry.idOf(" ")).isEqualTo(LedgerRegistry.DEFAULT_ID);
+        assertThat(LedgerRegistry.idOf("shop_2024-a")).isEqualTo("shop_2024-a");
+    }
+
+    @Test
+    void idOf_pathCharactersOrTooLong_throwsIllegalArgumentException() {
+        for (String id : new String[]{"..", "../secret", "a/b", "a\\b", "C:", "台帳", "a".repeat(65)}) {
+            assertThatThrownBy(() -> LedgerRegistry.idOf(id))
+                    .as(id)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThat(LedgerRegistry.idOf("a".repeat(64))).hasSize(64);
+    }
+
+    @Test
+    void isDefault_defaultOrOmitted_returnsTrue() {
+        assertThat(LedgerRegistry.isDefault(null)).isTrue();
+        assertThat(LedgerRegistry.isDefault("")).isTrue();
+        assertThat(LedgerRegistry.isDefault(LedgerRegistry.DEFAULT_ID)).isTrue();
+        assertThat(LedgerRegistry.isDefault("shop")).isFalse();
+    }
+
+    @Test
+    void resolve_configuredOrDirectory_returnsPath() {
+        environment.setProperty("ai.ledgers.path.shop", tempDir.resolve("elsewhere/shop-book.xlsx").toString());
+
+        assertThat(registry.resolve(null)).isEqualTo(tempDir.resolve("default.xlsx").toString());
+        assertThat(registry.resolve("shop")).isEqualTo(tempDir.resolve("elsewhere/shop-book.xlsx").toString());
+        assertThat(registry.resolve("home")).isEqualTo(tempDir.resolve("ledgers").resolve("home.xlsx").toString());
+        assertThatThrownBy(() -> registry.resolve("../home"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void pathOf_missingFile_throwsIllegalArgumentException() throws Exception {
+        assertThatThrownBy(() -> registry.pathOf("home"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("home");
+
+        Path file = Files.createDirectories(tempDir.resolve("ledgers")).resolve("home.xlsx");
+        Files.write(file, new byte[]{1});
+        assertThat(registry.pathOf("home")).isEqualTo(file.toString());
+    }
+
+    @Test
+    void acquire_permitsExhausted_throwsLedgerBusyException() throws Exception {
+        environment.setProperty("ai.ledgers.max-concurrent.shop", "2");
+
+        LedgerRegistry.Permit first = registry.acquire("shop");
+        LedgerRegistry.Permit second = registry.acquire("shop");
+        assertThatThrownBy(() -> registry.acquire("shop"))
+                .isInstanceOf(LedgerRegistry.LedgerBusyException.class)
+                .hasMessageContaining("shop");
+        // 他の台帳の実行枠は別に数える
+        try (LedgerRegistry.Permit other = registry.acquire("home")) {
+            assertThat(other).isNotNull();
+        }
+
+        first.close();
+        try (LedgerRegistry.Permit third = registry.acquire("shop")) {
+            assertThat(third).isNotNull();
+        }
+        second.close();
+        assertThat(semaphoreOf("shop").availablePermits()).isEqualTo(2);
+    }
+
+    @Test
+    void acquire_defaultMaxConcurrent_limitsToOne() throws Exception {
+        try (LedgerRegistry.Permit ignored = registry.acquire(null)) {
+            assertThatThrownBy(() -> registry.acquire(LedgerRegistry.DEFAULT_ID))
+                    .isInstanceOf(LedgerRegistry.LedgerBusyException.class);
+        }
+        assertThat(semaphoreOf(LedgerRegistry.DEFAULT_ID).availablePermits()).isEqualTo(1);
+    }
+
+    @Test
+    void acquireWaiting_permitsExhausted_waitsUntilReleased() throws Exception {
+        LedgerRegistry.Permit held = registry.acquire("shop");
+
+        Future<LedgerRegistry.Permit> waiting = executor.submit(() -> registry.acquireWaiting("shop"));
+        await().atMost(Duration.ofSeconds(10)).until(() -> semaphoreOf("shop").hasQueuedThreads());
+        assertThat(waiting).isNotDone();
+
+        held.close();
+        waiting.get(10, TimeUnit.SECONDS).close();
+        assertThat(semaphoreOf("shop").availablePermits()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,70 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.utils.DateUtils;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LedgerRowDecoderTest {
+
+    @Test
+    void parseIntAcceptsSignsAndFullWidthDigits() {
+        assertThat(LedgerRowDecoder.parseInt("0")).isZero();
+        assertThat(LedgerRowDecoder.parseInt("1234")).isEqualTo(1234);
+        assertThat(LedgerRowDecoder.parseInt("+56")).isEqualTo(56);
+        assertThat(LedgerRowDecoder.parseInt("-78")).isEqualTo(-78);
+        assertThat(LedgerRowDecoder.parseInt("００７")).isEqualTo(7);
+        assertThat(LedgerRowDecoder.parseInt("-１２")).isEqualTo(-12);
+    }
+
+    @Test
+    void parseIntDetectsOverflowAtIntBounds() {
+        assertThat(LedgerRowDecoder.parseInt("2147483647")).isEqualTo(Integer.MAX_VALUE);
+        assertThat(LedgerRowDecoder.parseInt("-2147483648")).isEqualTo(Integer.MIN_VALUE);
+        assertThat(LedgerRowDecoder.parseInt("2147483648")).isEqualTo(LedgerRowDecoder.INVALID_INT);
+        assertThat(LedgerRowDecoder.parseInt("-2147483649")).isEqualTo(LedgerRowDecoder.INVALID_INT);
+        assertThat(LedgerRowDecoder.parseInt("99999999999999999999999")).isEqualTo(LedgerRowDecoder.INVALID_INT);
+    }
+
+    @Test
+    void parseIntRejectsBadInput() {
+        for (String text : new String[]{"", "-", "+", "1.5", "1,000", " 1", "1 ", "--1", "+-1", "12a", "0x10", "１.０"}) {
+            assertThat(LedgerRowDecoder.parseInt(text)).as(text).isEqualTo(LedgerRowDecoder.INVALID_INT);
+        }
+    }
+
+    @Test
+    void parseIntMatchesIntegerParseInt() {
+        for (String text : new String[]{"0", "-0", "+0", "00012", "-2147483648", "2147483647", "314159"}) {
+            assertThat(LedgerRowDecoder.parseInt(text)).as(text).isEqualTo(Integer.parseInt(text));
+        }
+    }
+
+    @Test
+    void epochDayOfSerialUsesWorkbookDateSystem() {
+        // 2024-01-01は1900年方式で45292、1904年方式で43830
+        int expected = (int) LocalDate.of(2024, 1, 1).toEpochDay();
+        assertThat(new LedgerRowDecoder(1, false).epochDayOf(45292.0, 14, "m/d/yy")).isEqualTo(expected);
+        assertThat(new LedgerRowDecoder(1, true).epochDayOf(43830.0, 14, "m/d/yy")).isEqualTo(expected);
+        assertThat(new LedgerRowDecoder(1, false).epochDayOf(45292.75, 164, "yyyy/m/d")).isEqualTo(expected);
+    }
+
+    @Test
+    void epochDayOfSerialRejectsNonDateFormats() {
+        LedgerRowDecoder decoder = new LedgerRowDecoder(1, false);
+        assertThat(decoder.epochDayOf(45292.0, 0, "General")).isEqualTo(DateUtils.INVALID_DAY);
+        assertThat(decoder.epochDayOf(45292.0, 1, "0")).isEqualTo(DateUtils.INVALID_DAY);
+        assertThat(decoder.epochDayOf(45292.0, 0, null)).isEqualTo(DateUtils.INVALID_DAY);
+        assertThat(decoder.epochDayOf(-1.0, 14, "m/d/yy")).isEqualTo(DateUtils.INVALID_DAY);
+    }
+
+    @Test
+    void epochDayOfTextTreatsNullAsMissing() {
+        LedgerRowDecoder decoder = new LedgerRowDecoder(1, false);
+        assertThat(decoder.epochDayOf((String) null)).isEqualTo(LedgerRowDecoder.MISSING_DAY);
+        assertThat(decoder.epochDayOf("2024/1/31")).isEqualTo((int) LocalDate.of(2024, 1, 31).toEpochDay());
+        assertThat(decoder.epochDayOf("2024-13-01")).isEqualTo(DateUtils.INVALID_DAY);
+    }
+}
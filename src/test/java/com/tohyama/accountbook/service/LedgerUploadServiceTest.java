@@ -0,0 +1,247 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.constants.consts;
+import com.tohyama.accountbook.dto.LedgerDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class LedgerUploadServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SheetParseExecutor sheetParseExecutor = new SheetParseExecutor(1, meterRegistry);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private LedgerCache ledgerCache;
+    private LedgerUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        LedgerRegistry ledgerRegistry = new LedgerRegistry(new MockEnvironment());
+        ReflectionTestUtils.setField(ledgerRegistry, "excelFilePath", tempDir.resolve("default.xlsx").toString());
+        ReflectionTestUtils.setField(ledgerRegistry, "directory", tempDir.resolve("ledgers").toString());
+        ledgerCache = new LedgerCache(new LedgerSnapshotStore());
+        ReflectionTestUtils.setField(ledgerCache, "maxBytes", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(ledgerCache, "readMode", "stream");
+        service = new LedgerUploadService(new ExcelStreamReader(sheetParseExecutor, meterRegistry), ledgerCache,
+                ledgerRegistry, meterRegistry, 1);
+        ReflectionTestUtils.setField(service, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(service, "acquireTimeout", Duration.ofMillis(50));
+        ReflectionTestUtils.setField(service, "retention", Duration.ofHours(1));
+        ReflectionTestUtils.setField(service, "backups", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        service.destroy();
+        sheetParseExecutor.destroy();
+    }
+
+    /**
+     * 明細rows行の月シートと、指定があればitem-codeシートを持つワークブック
+     */
+    private static byte[] workbook(int rows, boolean itemCodes) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            if (itemCodes) {
+                Sheet sheet = workbook.createSheet(consts.itemCodeSheetName);
+                sheet.createRow(0).createCell(0).setCellValue("ID");
+                Row item = sheet.createRow(1);
+                item.createCell(0).setCellValue("A");
+                item.createCell(1).setCellValue("りんご");
+                item.createCell(2).setCellValue("青果");
+                item.createCell(3).setCellValue(120);
+            }
+            Sheet month = workbook.createSheet("2024-1");
+            month.createRow(0).createCell(0).setCellValue("日付");
+            for (int i = 1; i <= rows; i++) {
+                Row row = month.createRow(i);
+                row.createCell(0).setCellValue(LocalDate.of(2024, 1, 1).plusDays(i - 1).toString());
+                row.createCell(1).setCellValue("りんご");
+                row.createCell(2).setCellValue("A");
+                row.createCell(3).setCellValue(1);
+                row.createCell(4).setCellValue(100 + i);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private LedgerDto.UploadStatus upload(String ledgerId, byte[] bytes, long contentLength) throws IOException {
+        return service.submit("ledger.xlsx", ledgerId, contentLength, new ByteArrayInputStream(bytes));
+    }
+
+    private LedgerDto.UploadStatus awaitFinished(LedgerDto.UploadStatus submitted) {
+        await().atMost(Duration.ofSeconds(30))
+                .until(() -> service.getStatus(submitted.getUploadId()).getFinishedAt() != null);
+        return service.getStatus(submitted.getUploadId());
+    }
+
+    private static List<Path> backupsOf(Path file) throws IOException {
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            return files.filter(path -> path.getFileName().toString().startsWith(file.getFileName() + ".bak-"))
+                    .sorted().toList();
+        }
+    }
+
+    @Test
+    void submit_validWorkbook_replacesFileAndCachedLedger() throws Exception {
+        byte[] bytes = workbook(10, true);
+
+        LedgerDto.UploadStatus status = awaitFinished(upload("shop", bytes, bytes.length));
+
+        assertThat(status.getStatus()).isEqualTo(ReportJobDto.Status.SUCCEEDED);
+        assertThat(status.getLedgerId()).isEqualTo("shop");
+        assertThat(status.getRows()).isEqualTo(10);
+        Path file = tempDir.resolve("ledgers").resolve("shop.xlsx");
+        assertThat(Files.readAllBytes(file)).isEqualTo(bytes);
+        // 入れ替えた版で登録済みなので、参照しても解析し直さない
+        assertThat(ledgerCache.get(file.toString(), path -> {
+            throw new AssertionError("解析し直さない");
+        })).hasSize(10);
+        assertThat(ledgerCache.getItemMaster(file.toString(), path -> {
+            throw new AssertionError("読み直さない");
+        }).size()).isEqualTo(1);
+        assertThat(ledgerCache.getStats().getLoads()).isZero();
+    }
+
+    @Test
+    void submit_notXlsx_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> service.submit("ledger.csv", null, 10, new ByteArrayInputStream(new byte[10])))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void submit_contentLengthOverMax_rejectsBeforeReading() {
+        ReflectionTestUtils.setField(service, "maxBytes", 100L);
+        InputStream body = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("本文は読まない");
+            }
+        };
+
+        assertThatThrownBy(() -> service.submit("ledger.xlsx", null, 101, body))
+                .isInstanceOfSatisfying(LedgerUploadService.UploadRejectedException.class,
+                        e -> assertThat(e.isBusy()).isFalse());
+    }
+
+    @Test
+    void submit_unknownLengthOverMax_rejectsAndReleasesPermit() throws Exception {
+        byte[] bytes = workbook(10, true);
+        ReflectionTestUtils.setField(service, "maxBytes", (long) bytes.length - 1);
+
+        assertThatThrownBy(() -> upload(null, bytes, -1))
+                .isInstanceOfSatisfying(LedgerUploadService.UploadRejectedException.class,
+                        e -> assertThat(e.isBusy()).isFalse());
+
+        // ちょうど上限の大きさなら受け付ける (実行枠も返っている)
+        ReflectionTestUtils.setField(service, "maxBytes", (long) bytes.length);
+        assertThat(awaitFinished(upload(null, bytes, -1)).getStatus()).isEqualTo(ReportJobDto.Status.SUCCEEDED);
+        assertThat(Files.readAllBytes(tempDir.resolve("default.xlsx"))).isEqualTo(bytes);
+    }
+
+    @Test
+    void submit_uploadInProgress_throwsBusy() throws Exception {
+        byte[] bytes = workbook(10, true);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 本文の受け取り中は実行枠を持ったままになる
+        InputStream slowBody = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        Future<LedgerDto.UploadStatus> first = executor.submit(
+                () -> service.submit("ledger.xlsx", null, bytes.length, slowBody));
+        assertThat(reading.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> upload(null, bytes, bytes.length))
+                .isInstanceOfSatisfying(LedgerUploadService.UploadRejectedException.class,
+                        e -> assertThat(e.isBusy()).isTrue());
+
+        release.countDown();
+        assertThat(awaitFinished(first.get(10, TimeUnit.SECONDS)).getStatus())
+                .isEqualTo(ReportJobDto.Status.SUCCEEDED);
+    }
+
+    @Test
+    void submit_workbookWithoutRows_failsAndKeepsExistingFile() throws Exception {
+        Path file = tempDir.resolve("default.xlsx");
+        Files.write(file, new byte[]{1, 2, 3});
+
+        LedgerDto.UploadStatus status = awaitFinished(upload(null, workbook(0, true), -1));
+
+        assertThat(status.getStatus()).isEqualTo(ReportJobDto.Status.FAILED);
+        assertThat(status.getError()).contains("明細が1行もありません");
+        assertThat(Files.readAllBytes(file)).containsExactly(1, 2, 3);
+        assertThat(backupsOf(file)).isEmpty();
+    }
+
+    @Test
+    void submit_workbookWithoutItemCodeSheet_fails() throws Exception {
+        LedgerDto.UploadStatus status = awaitFinished(upload(null, workbook(10, false), -1));
+
+        assertThat(status.getStatus()).isEqualTo(ReportJobDto.Status.FAILED);
+        assertThat(status.getError()).contains("item-codeシート");
+        assertThat(tempDir.resolve("default.xlsx")).doesNotExist();
+    }
+
+    @Test
+    void submit_repeatedUploads_keepsNewestBackups() throws Exception {
+        Path file = tempDir.resolve("default.xlsx");
+        byte[] original = workbook(1, true);
+        Files.write(file, original);
+        byte[][] uploads = {workbook(2, true), workbook(3, true), workbook(4, true)};
+
+        for (byte[] bytes : uploads) {
+            assertThat(awaitFinished(upload(null, bytes, bytes.length)).getStatus())
+                    .isEqualTo(ReportJobDto.Status.SUCCEEDED);
+        }
+
+        // 世代数 (2) を超えた最も古いバックアップ (元のファイル) は削除される
+        List<Path> backups = backupsOf(file);
+        assertThat(backups).hasSize(2);
+        assertThat(Files.readAllBytes(backups.get(0))).isEqualTo(uploads[0]);
+        assertThat(Files.readAllBytes(backups.get(1))).isEqualTo(uploads[1]);
+        assertThat(Files.readAllBytes(file)).isEqualTo(uploads[2]);
+    }
+}
@@ -0,0 +1,144 @@
+package com.tohyama.accountbook.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class LedgerWatcherTest {
+
+    private static final long DEBOUNCE_MS = 200;
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private ExcelParser excelParser;
+
+    private LedgerCache ledgerCache;
+    private LedgerWatcher watcher;
+    private Path ledger;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ledger = tempDir.resolve("ledger.xlsx");
+        Files.write(ledger, new byte[]{1});
+        ledgerCache = new LedgerCache(new LedgerSnapshotStore());
+        watcher = new LedgerWatcher(ledgerCache, excelParser);
+        ReflectionTestUtils.setField(watcher, "excelFilePath", ledger.toString());
+        ReflectionTestUtils.setField(watcher, "enabled", true);
+        ReflectionTestUtils.setField(watcher, "debounceMs", DEBOUNCE_MS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.destroy();
+    }
+
+    @Test
+    void start_disabled_doesNotWatch() throws Exception {
+        ReflectionTestUtils.setField(watcher, "enabled", false);
+
+        watcher.start();
+
+        verify(excelParser, after(DEBOUNCE_MS * 3).never()).reloadLedger(ledger.toString());
+        verifyNoInteractions(excelParser);
+    }
+
+    @Test
+    void start_enabled_reloadsOnStartup() throws Exception {
+        watcher.start();
+
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+    }
+
+    @Test
+    void watch_fileModified_reloadsAfterDebounce() throws Exception {
+        watcher.start();
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+
+        Files.write(ledger, new byte[]{1, 2});
+
+        verify(excelParser, timeout(10_000).times(2)).reloadLedger(ledger.toString());
+    }
+
+    @Test
+    void watch_repeatedWrites_reloadsOnce() throws Exception {
+        watcher.start();
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+
+        // 保存中の書き込みが続く間は読み直さず、落ち着いてから1回だけ読み直す
+        for (int i = 2; i <= 5; i++) {
+            Files.write(ledger, new byte[i]);
+        }
+
+        verify(excelParser, timeout(10_000).times(2)).reloadLedger(ledger.toString());
+        verify(excelParser, after(DEBOUNCE_MS * 3).times(2)).reloadLedger(ledger.toString());
+    }
+
+    @Test
+    void watch_otherFileModified_doesNotReload() throws Exception {
+        watcher.start();
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+
+        Files.write(tempDir.resolve("other.xlsx"), new byte[]{1});
+
+        verify(excelParser, after(DEBOUNCE_MS * 3).times(1)).reloadLedger(ledger.toString());
+    }
+
+    @Test
+    void watch_staleDetectedByCache_reloads() throws Exception {
+        watcher.start();
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+
+        // 監視イベントを取りこぼしても、台帳キャッシュが変更を検知すれば読み直す
+        Runnable onStale = staleListener();
+        onStale.run();
+
+        verify(excelParser, timeout(10_000).times(2)).reloadLedger(ledger.toString());
+
+        watcher.destroy();
+        await().atMost(Duration.ofSeconds(10)).until(() -> staleListeners().isEmpty());
+    }
+
+    @Test
+    void watch_reloadFails_retriesOnNextChange() throws Exception {
+        doThrow(new Exception("保存途中")).doNothing().when(excelParser).reloadLedger(ledger.toString());
+        watcher.start();
+        verify(excelParser, timeout(10_000)).reloadLedger(ledger.toString());
+
+        Files.write(ledger, new byte[]{1, 2});
+
+        verify(excelParser, timeout(10_000).times(2)).reloadLedger(ledger.toString());
+    }
+
+    /**
+     * 監視開始後に台帳キャッシュへ登録される、変更検知時の処理
+     */
+    private Runnable staleListener() {
+        await().atMost(Duration.ofSeconds(10)).until(() -> !staleListeners().isEmpty());
+        return staleListeners().values().iterator().next();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Runnable> staleListeners() {
+        return (Map<String, Runnable>) ReflectionTestUtils.getField(ledgerCache, "staleListeners");
+    }
+}
@@ -0,0 +1,118 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReportArchiveTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path indexFile() {
+        return tempDir.resolve("report-index.jsonl");
+    }
+
+    private ReportArchive newArchive() {
+        return new ReportArchive(indexFile().toString());
+    }
+
+    private ReportDto report(String type, Integer year, Integer month, String model, String fileName,
+                             String ledgerId) {
+        return new ReportDto(LocalDateTime.of(2024, 3, 5, 9, 0), type, "# 本文", year, month, model, null,
+                tempDir.resolve(fileName).toString(), 10, "checksum-" + fileName, ledgerId);
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    void register_newReport_assignsIdAndPersistsWithoutContent() throws Exception {
+        ReportArchive archive = newArchive();
+
+        ReportDto entry = archive.register(report("monthly", 2024, 1, "model-a", "a.md", null));
+
+        assertThat(entry.getId()).isNotBlank();
+        assertThat(entry.getContent()).isNull();
+        assertThat(archive.get(entry.getId())).isEqualTo(entry);
+        assertThat(Files.readString(indexFile())).doesNotContain("# 本文").endsWith("\n");
+
+        ReportArchive reloaded = newArchive();
+        assertThat(reloaded.size()).isEqualTo(1);
+        assertThat(reloaded.get(entry.getId())).isEqualTo(entry);
+    }
+
+    @Test
+    void register_samePath_throwsIOException() throws Exception {
+        ReportArchive archive = newArchive();
+        ReportDto first = archive.register(report("monthly", 2024, 1, "model-a", "a.md", null));
+
+        // 表記が違っても同じファイルを指すパスは登録できない
+        ReportDto sameFile = report("monthly", 2024, 2, "model-b", "a.md", null);
+        sameFile.setFilePath(tempDir.resolve("sub").resolve("..").resolve("a.md").toString());
+        assertThatThrownBy(() -> archive.register(sameFile))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining(first.getId());
+        assertThat(archive.size()).isEqualTo(1);
+        assertThat(newArchive().size()).isEqualTo(1);
+    }
+
+    @Test
+    void loadAll_corruptAndPartialLines_skipsThem() throws Exception {
+        ReportDto valid = newArchive().register(report("monthly", 2024, 1, "model-a", "a.md", null));
+        // 壊れた行と、書き込み途中で終わった末尾の行 (改行なし)
+        append(indexFile(), "not json\n\n{\"type\":\"monthly\",\"filePa");
+
+        ReportArchive archive = newArchive();
+
+        assertThat(archive.size()).isEqualTo(1);
+        assertThat(archive.get(valid.getId())).isEqualTo(valid);
+    }
+
+    @Test
+    void register_afterPartialLine_startsNewLine() throws Exception {
+        newArchive().register(report("monthly", 2024, 1, "model-a", "a.md", null));
+        append(indexFile(), "{\"type\":\"monthly\",\"filePa");
+
+        ReportDto added = newArchive().register(report("monthly", 2024, 2, "model-a", "b.md", null));
+
+        // 途中の行に続けて書かれていれば、再読み込みで追加した行も読めなくなる
+        ReportArchive reloaded = newArchive();
+        assertThat(reloaded.size()).isEqualTo(2);
+        assertThat(reloaded.get(added.getId())).isEqualTo(added);
+    }
+
+    @Test
+    void list_filters_returnsNewestFirstWithinLimit() throws Exception {
+        ReportArchive archive = newArchive();
+        ReportDto january = archive.register(report("monthly", 2024, 1, "model-a", "1.md", null));
+        ReportDto february = archive.register(report("monthly", 2024, 2, "model-b", "2.md", null));
+        ReportDto march = archive.register(report("monthly", 2024, 3, "model-a", "3.md", "shop"));
+        // 対象年月のない日別リポートは作成日時 (2024-03) で比べる
+        ReportDto daily = archive.register(report("daily", null, null, "model-a", "d.md", null));
+
+        assertThat(archive.list(null, null, null, null, null, 100)).containsExactly(daily, march, february, january);
+        assertThat(archive.list(null, null, null, null, null, 2)).containsExactly(daily, march);
+        assertThat(archive.list("monthly", null, null, null, null, 100)).containsExactly(march, february, january);
+        assertThat(archive.list(null, null, null, "model-a", null, 100)).containsExactly(daily, march, january);
+        assertThat(archive.list(null, YearMonth.of(2024, 2), YearMonth.of(2024, 2), null, null, 100))
+                .containsExactly(february);
+        assertThat(archive.list(null, YearMonth.of(2024, 3), null, null, null, 100)).containsExactly(daily, march);
+        // 台帳IDのないリポートは既定の台帳のもの
+        assertThat(archive.list(null, null, null, null, LedgerRegistry.DEFAULT_ID, 100))
+                .containsExactly(daily, february, january);
+        assertThat(archive.list(null, null, null, null, "shop", 100)).containsExactly(march);
+    }
+}
@@ -0,0 +1,356 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.ReportDto;
+import com.tohyama.accountbook.dto.ReportJobDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReportJobServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private ReportGenerator reportGenerator;
+
+    @Mock
+    private ReportFileService reportFileService;
+
+    @Mock
+    private ReportPregenerator reportPregenerator;
+
+    @Mock
+    private BatchReportService batchReportService;
+
+    private LedgerRegistry ledgerRegistry;
+    private ReportJobService service;
+    private String ledgerPath;
+    // 作成中のジョブを止めておき、実行中の状態を確認してから完了させる
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ledgerPath = Files.write(tempDir.resolve("default.xlsx"), new byte[]{1}).toString();
+        ledgerRegistry = new LedgerRegistry(new MockEnvironment());
+        ReflectionTestUtils.setField(ledgerRegistry, "excelFilePath", ledgerPath);
+        ReflectionTestUtils.setField(ledgerRegistry, "directory", tempDir.resolve("ledgers").toString());
+        ReflectionTestUtils.setField(ledgerRegistry, "defaultMaxConcurrent", 1);
+        ReflectionTestUtils.setField(ledgerRegistry, "acquireTimeout", Duration.ofMillis(50));
+        service = new ReportJobService(reportGenerator, reportFileService, reportPregenerator, ledgerRegistry,
+                batchReportService, 2);
+        ReflectionTestUtils.setField(service, "defaultSaveDirectory", tempDir.resolve("reports").toString());
+        ReflectionTestUtils.setField(service, "retention", Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        service.destroy();
+    }
+
+    private static ReportJobDto.JobRequest monthly(Integer year, Integer month, String modelName) {
+        return new ReportJobDto.JobRequest("monthly", year, month, modelName, null, null);
+    }
+
+    private static ReportJobDto.JobRequest daily() {
+        return new ReportJobDto.JobRequest("daily", null, null, null, null, null);
+    }
+
+    /**
+     * 実行枠を取ってから作成し、releaseまで止まる月別リポートの作成
+     */
+    private void blockMonthlyReport() throws Exception {
+        when(reportGenerator.generateReport(eq(ledgerPath), eq("monthly"), eq(2024), eq(1), isNull(), any()))
+                .thenAnswer(invocation -> {
+                    ReportGenerator.Admission admission = invocation.getArgument(5);
+                    try (LedgerRegistry.Permit ignored = admission.acquire()) {
+                        started.countDown();
+                        assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+                        return "# 2024年1月";
+                    }
+                });
+    }
+
+    private void saveReturns(String filePath, String reportId) throws Exception {
+        when(reportFileService.saveReport(eq("# 2024年1月"), anyString(), anyString(), any()))
+                .thenReturn(new ReportDto(null, "monthly", null, 2024, 1, null, reportId, filePath, 10, "sum", null));
+    }
+
+    private ReportJobDto.JobStatus awaitStatus(String jobId, ReportJobDto.Status status) {
+        await().atMost(Duration.ofSeconds(10)).until(() -> service.getStatus(jobId).getStatus() == status);
+        return service.getStatus(jobId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Semaphore ledgerSemaphore() {
+        return ((Map<String, Semaphore>) ReflectionTestUtils.getField(ledgerRegistry, "permits"))
+                .get(LedgerRegistry.DEFAULT_ID);
+    }
+
+    @Test
+    void submit_ledgerBusy_queuedThenRunningThenSucceeded() throws Exception {
+        blockMonthlyReport();
+        saveReturns("/reports/2024-01.md", "report-1");
+        LedgerRegistry.Permit held = ledgerRegistry.acquire(null);
+
+        ReportJobDto.JobStatus submitted = service.submit(monthly(2024, 1, null));
+        assertThat(submitted.getStatus()).isEqualTo(ReportJobDto.Status.QUEUED);
+        // 台帳の実行枠が空くまでは実行待ちのまま (失敗にしない)
+        await().atMost(Duration.ofSeconds(10)).until(() -> ledgerSemaphore().hasQueuedThreads());
+        ReportJobDto.JobStatus queued = service.getStatus(submitted.getJobId());
+        assertThat(queued.getStatus()).isEqualTo(ReportJobDto.Status.QUEUED);
+        assertThat(queued.getStartedAt()).isNull();
+
+        held.close();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        ReportJobDto.JobStatus running = service.getStatus(submitted.getJobId());
+        assertThat(running.getStatus()).isEqualTo(ReportJobDto.Status.RUNNING);
+        assertThat(running.getStartedAt()).isNotNull();
+        assertThat(running.getFinishedAt()).isNull();
+
+        release.countDown();
+        ReportJobDto.JobStatus succeeded = awaitStatus(submitted.getJobId(), ReportJobDto.Status.SUCCEEDED);
+        assertThat(succeeded.getFilePath()).isEqualTo("/reports/2024-01.md");
+        assertThat(succeeded.getReportId()).isEqualTo("report-1");
+        assertThat(succeeded.getMessage()).isEqualTo("ファイルを保存しました。");
+        assertThat(succeeded.getError()).isNull();
+        assertThat(succeeded.getFinishedAt()).isAfterOrEqualTo(succeeded.getStartedAt());
+        assertThat(ledgerSemaphore().availablePermits()).isEqualTo(1);
+    }
+
+    @Test
+    void submit_generatorFails_finishesFailed() throws Exception {
+        when(reportGenerator.generateReport(eq(ledgerPath), eq("daily"), isNull(), isNull(), isNull(), any()))
+                .thenThrow(new IllegalStateException("Gemini呼び出し失敗"));
+
+        ReportJobDto.JobStatus submitted = service.submit(daily());
+
+        ReportJobDto.JobStatus failed = awaitStatus(submitted.getJobId(), ReportJobDto.Status.FAILED);
+        assertThat(failed.getError()).isEqualTo("エラー発生: Gemini呼び出し失敗");
+        assertThat(failed.getStartedAt()).isNotNull();
+        assertThat(failed.getFilePath()).isNull();
+    }
+
+    @Test
+    void submit_pregeneratedFresh_succeedsWithoutGenerating() throws Exception {
+        ReportJobDto.JobRequest request = new ReportJobDto.JobRequest("weekly", null, null, null, null, null);
+        ReportDto report = new ReportDto(null, "weekly", null, null, null, null, "report-w", "/reports/weekly.md", 10,
+                "sum", null);
+        when(reportPregenerator.findFresh(request))
+                .thenReturn(new ReportPregenerator.Pregenerated("v1", "2024-W01", report, "# 週別"));
+
+        ReportJobDto.JobStatus submitted = service.submit(request);
+
+        ReportJobDto.JobStatus succeeded = awaitStatus(submitted.getJobId(), ReportJobDto.Status.SUCCEEDED);
+        assertThat(succeeded.getFilePath()).isEqualTo("/reports/weekly.md");
+        assertThat(succeeded.getReportId()).isEqualTo("report-w");
+        assertThat(succeeded.getMessage()).isEqualTo("週別分析を保存しました。");
+        verifyNoInteractions(reportGenerator, reportFileService);
+    }
+
+    @Test
+    void submit_invalidRequest_throwsIllegalArgumentException() {
+        ReportJobDto.JobRequest[] invalid = {
+                new ReportJobDto.JobRequest("yearly", null, null, null, null, null),
+                monthly(2024, null, null),
+                monthly(null, 1, null),
+                monthly(2024, 13, null),
+                monthly(2024, 1, "../gemini"),
+                new ReportJobDto.JobRequest("daily", null, null, null, null, "../shop"),
+                // ファイルのない台帳
+                new ReportJobDto.JobRequest("daily", null, null, null, null, "shop"),
+        };
+        for (ReportJobDto.JobRequest request : invalid) {
+            assertThatThrownBy(() -> service.submit(request))
+                    .as(request.toString())
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        verifyNoInteractions(reportGenerator);
+    }
+
+    @Test
+    void getStatus_unknownJob_returnsNull() {
+        assertThat(service.getStatus("missing")).isNull();
+    }
+
+    @Test
+    void purgeFinished_afterRetention_removesOnlyFinishedJobs() throws Exception {
+        blockMonthlyReport();
+        saveReturns("/reports/2024-01.md", "report-1");
+        when(reportGenerator.generateReport(eq(ledgerPath), eq("daily"), isNull(), isNull(), isNull(), any()))
+                .thenThrow(new IllegalStateException("Gemini呼び出し失敗"));
+        ReportJobDto.JobStatus running = service.submit(monthly(2024, 1, null));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        ReportJobDto.JobStatus failed = service.submit(daily());
+        awaitStatus(failed.getJobId(), ReportJobDto.Status.FAILED);
+
+        // 保持期間内は残す
+        service.purgeFinished();
+        assertThat(service.getStatus(failed.getJobId())).isNotNull();
+
+        ReflectionTestUtils.setField(service, "retention", Duration.ZERO);
+        await().atMost(Duration.ofSeconds(10)).until(() -> {
+            service.purgeFinished();
+            return service.getStatus(failed.getJobId()) == null;
+        });
+        // 実行中のジョブは保持期間に関係なく残す
+        assertThat(service.getStatus(running.getJobId()).getStatus()).isEqualTo(ReportJobDto.Status.RUNNING);
+
+        release.countDown();
+        awaitStatus(running.getJobId(), ReportJobDto.Status.SUCCEEDED);
+    }
+
+    @Test
+    void generateAndSave_ledgerBusy_throwsLedgerBusyException() throws Exception {
+        when(reportGenerator.generateReport(eq(ledgerPath), eq("daily"), isNull(), isNull(), isNull(), any()))
+                .thenAnswer(invocation -> {
+                    ReportGenerator.Admission admission = invocation.getArgument(5);
+                    try (LedgerRegistry.Permit ignored = admission.acquire()) {
+                        return "# 日別";
+                    }
+                });
+
+        try (LedgerRegistry.Permit ignored = ledgerRegistry.acquire(null)) {
+            assertThatThrownBy(() -> service.generateAndSave(daily()))
+                    .isInstanceOf(LedgerRegistry.LedgerBusyException.class);
+        }
+        verifyNoInteractions(reportFileService);
+    }
+
+    /**
+     * 受け取ったイベントを順に記録し、完了 (done・failed) を待てるようにする
+     */
+    private static class RecordingListener implements ReportJobService.StreamListener {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onText(String text) {
+            events.add("chunk:" + text);
+        }
+
+        @Override
+        public void onComplete(String filePath, String reportId, String message) {
+            events.add("done:" + filePath + ":" + reportId);
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(String error) {
+            events.add("failed:" + error);
+            finished.countDown();
+        }
+
+        private List<String> awaitEvents() throws InterruptedException {
+            assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+            return events;
+        }
+    }
+
+    private Path streamTo(String fileName) throws Exception {
+        Path filePath = Files.createDirectories(tempDir.resolve("reports")).resolve(fileName);
+        Path partFile = filePath.resolveSibling("." + fileName + ".part");
+        when(reportFileService.resolveReportPath(anyString(), anyString())).thenReturn(filePath);
+        when(reportFileService.partFileOf(filePath)).thenReturn(partFile);
+        return filePath;
+    }
+
+    @Test
+    void submitStream_generated_sendsChunksInOrderThenDone() throws Exception {
+        Path filePath = streamTo("2024-01.md");
+        Path partFile = filePath.resolveSibling(".2024-01.md.part");
+        doAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(5);
+            onText.accept("# 2024年");
+            onText.accept("1月");
+            return null;
+        }).when(reportGenerator).generateReportStream(eq(ledgerPath), eq("monthly"), eq(2024), eq(1), isNull(), any());
+        when(reportFileService.archiveReport(eq(partFile), eq(filePath), any())).thenAnswer(invocation -> {
+            // 届いたテキストは全て一時ファイルに書き終えている
+            assertThat(Files.readString(partFile)).isEqualTo("# 2024年1月");
+            return new ReportDto(null, "monthly", null, 2024, 1, null, "report-1", filePath.toString(), 10, "sum", null);
+        });
+        RecordingListener listener = new RecordingListener();
+
+        service.submitStream(monthly(2024, 1, null), listener);
+
+        assertThat(listener.awaitEvents()).containsExactly("chunk:# 2024年", "chunk:1月",
+                "done:" + filePath + ":report-1");
+    }
+
+    @Test
+    void submitStream_generatorFails_sendsFailedAndRemovesPartFile() throws Exception {
+        Path filePath = streamTo("2024-01.md");
+        doAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(5);
+            onText.accept("# 2024年");
+            throw new IllegalStateException("Geminiの応答が途切れました");
+        }).when(reportGenerator).generateReportStream(eq(ledgerPath), eq("monthly"), eq(2024), eq(1), isNull(), any());
+        RecordingListener listener = new RecordingListener();
+
+        service.submitStream(monthly(2024, 1, null), listener);
+
+        assertThat(listener.awaitEvents()).containsExactly("chunk:# 2024年",
+                "failed:エラー発生: Geminiの応答が途切れました");
+        assertThat(filePath.resolveSibling(".2024-01.md.part")).doesNotExist();
+        assertThat(filePath).doesNotExist();
+        verify(reportFileService, never()).archiveReport(any(), any(), any());
+        // 台帳の実行枠は失敗を知らせた後に返される
+        await().atMost(Duration.ofSeconds(10)).until(() -> ledgerSemaphore().availablePermits() == 1);
+    }
+
+    @Test
+    void submitStream_pregeneratedFresh_sendsContentThenDone() throws Exception {
+        ReportJobDto.JobRequest request = daily();
+        ReportDto report = new ReportDto(null, "daily", null, null, null, null, "report-d", "/reports/daily.md", 10,
+                "sum", null);
+        when(reportPregenerator.findFresh(request))
+                .thenReturn(new ReportPregenerator.Pregenerated("v1", "2024-01-05", report, "# 日別"));
+        RecordingListener listener = new RecordingListener();
+
+        service.submitStream(request, listener);
+
+        assertThat(listener.awaitEvents()).containsExactly("chunk:# 日別", "done:/reports/daily.md:report-d");
+        verifyNoInteractions(reportGenerator);
+    }
+
+    @Test
+    void submitStream_invalidRequest_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> service.submitStream(monthly(2024, 13, null), new RecordingListener()))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(reportGenerator, reportFileService);
+    }
+}
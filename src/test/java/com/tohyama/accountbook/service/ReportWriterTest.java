@@ -0,0 +1,206 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.utils.DigestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReportWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ReportWriter writer;
+    // 書き込みスレッドを止めておき、キューに書き込みを溜める
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() throws Exception {
+        release.countDown();
+        if (writer != null) {
+            writer.destroy();
+        }
+    }
+
+    private ReportWriter newWriter(int queueCapacity, Duration offerTimeout, Duration writeTimeout, boolean gzip) {
+        writer = new ReportWriter(new SimpleMeterRegistry(), queueCapacity, offerTimeout, writeTimeout, "file", gzip);
+        return writer;
+    }
+
+    /**
+     * 保存先のパスを解決する所で止まる書き込みを積み、書き込みスレッドが取り出すまで待つ
+     */
+    private CompletableFuture<ReportWriter.Written> submitBlocking() throws Exception {
+        Path blocking = mock(Path.class);
+        when(blocking.toAbsolutePath()).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            throw new IllegalStateException("テスト用の失敗");
+        });
+        CompletableFuture<ReportWriter.Written> result = writer.writeAsync(blocking, "止める");
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        return result;
+    }
+
+    private static String read(Path file) throws Exception {
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+
+    private static long countTempFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count();
+        }
+    }
+
+    @Test
+    void write_newFile_writesContentWithChecksumOfFileBytes() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), false);
+        Path target = tempDir.resolve("reports").resolve("monthly.md");
+
+        ReportWriter.Written written = writer.write(target, "# 月次リポート");
+
+        assertThat(written.path()).isEqualTo(target);
+        assertThat(read(target)).isEqualTo("# 月次リポート");
+        assertThat(written.size()).isEqualTo(Files.size(target));
+        assertThat(written.checksum()).isEqualTo(DigestUtils.sha256Hex(target));
+        assertThat(countTempFiles(target.getParent())).isZero();
+    }
+
+    @Test
+    void write_existingFile_replacesContent() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), false);
+        Path target = tempDir.resolve("monthly.md");
+        Files.writeString(target, "# 古いリポート");
+
+        writer.write(target, "# 新しいリポート");
+
+        assertThat(read(target)).isEqualTo("# 新しいリポート");
+        assertThat(countTempFiles(tempDir)).isZero();
+    }
+
+    @Test
+    void write_gzip_appendsSuffixAndChecksumOfCompressedBytes() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), true);
+        Path target = tempDir.resolve("monthly.md");
+
+        ReportWriter.Written written = writer.write(target, "# 月次リポート");
+
+        Path gz = tempDir.resolve("monthly.md.gz");
+        assertThat(written.path()).isEqualTo(gz);
+        assertThat(target).doesNotExist();
+        assertThat(written.size()).isEqualTo(Files.size(gz));
+        assertThat(written.checksum()).isEqualTo(DigestUtils.sha256Hex(gz));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gz))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("# 月次リポート");
+        }
+    }
+
+    @Test
+    void commit_gzipSourceMissing_keepsExistingFileAndLeavesNoTempFile() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), true);
+        Path gz = tempDir.resolve("monthly.md.gz");
+        Files.writeString(gz, "前回の内容");
+
+        assertThatThrownBy(() -> writer.commit(tempDir.resolve("missing.part"), tempDir.resolve("monthly.md")))
+                .isInstanceOf(NoSuchFileException.class);
+
+        // 一時ファイルへの書き込みが途中で失敗しても、前回のファイルは置き換わらず一時ファイルも残らない
+        assertThat(read(gz)).isEqualTo("前回の内容");
+        assertThat(countTempFiles(tempDir)).isZero();
+    }
+
+    @Test
+    void commit_source_movesFileAndRemovesSource() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), false);
+        Path source = tempDir.resolve(".monthly.md.part");
+        Path target = tempDir.resolve("monthly.md");
+        Files.writeString(source, "# 逐次書き込み");
+
+        ReportWriter.Written written = writer.commit(source, target);
+
+        assertThat(source).doesNotExist();
+        assertThat(read(target)).isEqualTo("# 逐次書き込み");
+        assertThat(written.checksum()).isEqualTo(DigestUtils.sha256Hex(target));
+    }
+
+    @Test
+    void write_directoryDeletedAfterWrite_recreatesDirectory() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), false);
+        Path directory = tempDir.resolve("reports");
+        writer.write(directory.resolve("first.md"), "# 1回目");
+        FileSystemUtils.deleteRecursively(directory);
+
+        writer.write(directory.resolve("second.md"), "# 2回目");
+
+        assertThat(read(directory.resolve("second.md"))).isEqualTo("# 2回目");
+    }
+
+    @Test
+    void writeAsync_queueFull_throwsAfterOfferTimeout() throws Exception {
+        newWriter(1, Duration.ofMillis(50), Duration.ofSeconds(10), false);
+        submitBlocking();
+        CompletableFuture<ReportWriter.Written> queued = writer.writeAsync(tempDir.resolve("queued.md"), "# 待ち");
+        assertThat(writer.getQueueDepth()).isEqualTo(1);
+
+        assertThatThrownBy(() -> writer.writeAsync(tempDir.resolve("rejected.md"), "# 溢れ"))
+                .hasMessageContaining("上限");
+
+        // 止めていた書き込みが終われば、待っていた書き込みは続けて行われる
+        release.countDown();
+        assertThat(queued.get(10, TimeUnit.SECONDS).path()).isEqualTo(tempDir.resolve("queued.md"));
+        assertThat(tempDir.resolve("rejected.md")).doesNotExist();
+    }
+
+    @Test
+    void write_notFinishedWithinWriteTimeout_throwsIOException() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofMillis(50), false);
+        submitBlocking();
+
+        assertThatThrownBy(() -> writer.write(tempDir.resolve("late.md"), "# 遅延"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("終わりませんでした");
+    }
+
+    @Test
+    void destroy_pendingWrites_failsPendingAndRejectsNewWrites() throws Exception {
+        newWriter(4, Duration.ofSeconds(1), Duration.ofSeconds(10), false);
+        CompletableFuture<ReportWriter.Written> running = submitBlocking();
+        CompletableFuture<ReportWriter.Written> pending1 = writer.writeAsync(tempDir.resolve("a.md"), "# A");
+        CompletableFuture<ReportWriter.Written> pending2 = writer.writeAsync(tempDir.resolve("b.md"), "# B");
+
+        writer.destroy();
+
+        assertThat(running).isCompletedExceptionally();
+        for (CompletableFuture<ReportWriter.Written> pending : List.of(pending1, pending2)) {
+            assertThatThrownBy(() -> pending.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasRootCauseMessage("リポートの書き込みを停止しました。");
+        }
+        assertThat(tempDir.resolve("a.md")).doesNotExist();
+        assertThatThrownBy(() -> writer.write(tempDir.resolve("c.md"), "# C"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,110 @@
+package com.tohyama.accountbook.service;
+
+import com.tohyama.accountbook.dto.AccountDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class SheetParseExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SheetParseExecutor executor = new SheetParseExecutor(2, meterRegistry);
+    private final ExecutorService caller = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() {
+        caller.shutdownNow();
+        executor.destroy();
+    }
+
+    private static List<AccountDto> entries(int month, int rows) {
+        return LocalDate.of(2024, month, 1).datesUntil(LocalDate.of(2024, month, 1 + rows))
+                .map(date -> new AccountDto(date, "りんご", "A", 1, 100, null))
+                .toList();
+    }
+
+    @Test
+    void parseEach_parallel_returnsResultsInTaskOrder() throws Exception {
+        CountDownLatch secondDone = new CountDownLatch(1);
+        List<SheetParseExecutor.SheetTask> tasks = List.of(
+                new SheetParseExecutor.SheetTask("2024-1", () -> {
+                    // 後のシートが先に終わっても、結果はtasksの順序になる
+                    assertThat(secondDone.await(10, TimeUnit.SECONDS)).isTrue();
+                    return entries(1, 3);
+                }),
+                new SheetParseExecutor.SheetTask("2024-2", () -> {
+                    secondDone.countDown();
+                    return entries(2, 2);
+                }));
+
+        List<List<AccountDto>> results = executor.parseEach(tasks);
+
+        assertThat(results).containsExactly(entries(1, 3), entries(2, 2));
+        assertThat(executor.parseAll(tasks)).hasSize(5);
+    }
+
+    @Test
+    void parseEach_sheetFails_waitsForRunningSheetsBeforeThrowing() throws Exception {
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean secondFinished = new AtomicBoolean();
+        List<SheetParseExecutor.SheetTask> tasks = List.of(
+                new SheetParseExecutor.SheetTask("2024-1", () -> {
+                    assertThat(secondStarted.await(10, TimeUnit.SECONDS)).isTrue();
+                    throw new IllegalStateException("壊れたシート");
+                }),
+                new SheetParseExecutor.SheetTask("2024-2", () -> {
+                    secondStarted.countDown();
+                    // 実行中のタスクは割り込まれても解析を続ける (SAXの解析は割り込みを見ない)
+                    while (true) {
+                        try {
+                            if (release.await(10, TimeUnit.SECONDS)) break;
+                        } catch (InterruptedException ignored) {
+                            // 待ち続ける
+                        }
+                    }
+                    secondFinished.set(true);
+                    return entries(2, 2);
+                }));
+
+        Future<List<List<AccountDto>>> call = caller.submit(() -> executor.parseEach(tasks));
+
+        // 1枚目が失敗しても、2枚目の解析が終わるまでは戻らない
+        await().during(Duration.ofMillis(300)).atMost(Duration.ofSeconds(10)).until(() -> !call.isDone());
+        release.countDown();
+        assertThatThrownBy(() -> call.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .hasMessage("データ抽出失敗")
+                .hasRootCauseMessage("壊れたシート");
+        assertThat(secondFinished).isTrue();
+    }
+
+    @Test
+    void parseAllSequentially_sheetFails_throwsWithCause() {
+        List<SheetParseExecutor.SheetTask> tasks = List.of(
+                new SheetParseExecutor.SheetTask("2024-1", () -> entries(1, 3)),
+                new SheetParseExecutor.SheetTask("2024-2", () -> {
+                    throw new IllegalStateException("壊れたシート");
+                }));
+
+        assertThatThrownBy(() -> executor.parseAllSequentially(tasks))
+                .hasMessage("データ抽出失敗")
+                .hasRootCauseMessage("壊れたシート");
+    }
+}
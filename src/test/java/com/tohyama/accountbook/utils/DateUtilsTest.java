@@ -0,0 +1,50 @@
+package com.tohyama.accountbook.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DateUtilsTest {
+
+    private static int epochDay(int year, int month, int day) {
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    @Test
+    void parseEpochDayAcceptsBothFormats() {
+        assertThat(DateUtils.parseEpochDay("2024-03-05")).isEqualTo(epochDay(2024, 3, 5));
+        assertThat(DateUtils.parseEpochDay("2024/3/5")).isEqualTo(epochDay(2024, 3, 5));
+        assertThat(DateUtils.parseEpochDay("2024/03/05")).isEqualTo(epochDay(2024, 3, 5));
+        assertThat(DateUtils.parseEpochDay("1969-12-31")).isEqualTo(-1);
+    }
+
+    @Test
+    void parseEpochDayAtMonthAndYearBoundaries() {
+        assertThat(DateUtils.parseEpochDay("2023-12-31")).isEqualTo(epochDay(2023, 12, 31));
+        assertThat(DateUtils.parseEpochDay("2024-01-01")).isEqualTo(epochDay(2024, 1, 1));
+        assertThat(DateUtils.parseEpochDay("2024-04-30")).isEqualTo(epochDay(2024, 4, 30));
+        assertThat(DateUtils.parseEpochDay("2024/5/1")).isEqualTo(epochDay(2024, 5, 1));
+        // 月末を超える日は月末に丸める (DateTimeFormatterのSMARTと同じ)
+        assertThat(DateUtils.parseEpochDay("2024-04-31")).isEqualTo(epochDay(2024, 4, 30));
+    }
+
+    @Test
+    void parseEpochDayHandlesLeapDays() {
+        assertThat(DateUtils.parseEpochDay("2024-02-29")).isEqualTo(epochDay(2024, 2, 29));
+        assertThat(DateUtils.parseEpochDay("2000-02-29")).isEqualTo(epochDay(2000, 2, 29));
+        assertThat(DateUtils.parseEpochDay("2023-02-29")).isEqualTo(epochDay(2023, 2, 28));
+        assertThat(DateUtils.parseEpochDay("1900-02-29")).isEqualTo(epochDay(1900, 2, 28));
+        assertThat(DateUtils.parseEpochDay("2024-02-30")).isEqualTo(epochDay(2024, 2, 29));
+    }
+
+    @Test
+    void parseEpochDayRejectsBadInput() {
+        for (String text : new String[]{"", "2024-3-5", "2024-03-5", "2024/03-05", "2024.03.05", "0000-01-01",
+                "2024-00-10", "2024-13-01", "2024-01-00", "2024-01-32", "2024-01-011", "2024-01-01 ",
+                "20240101", "abcd-01-01", "2024-1a-01", "2024/1/"}) {
+            assertThat(DateUtils.parseEpochDay(text)).as(text).isEqualTo(DateUtils.INVALID_DAY);
+        }
+    }
+}
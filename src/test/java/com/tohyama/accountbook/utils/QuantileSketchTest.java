@@ -0,0 +1,116 @@
+package com.tohyama.accountbook.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class QuantileSketchTest {
+
+    private static final double ACCURACY = 0.01;
+
+    @Test
+    void quantilesAreWithinRelativeAccuracyOfExactValues() {
+        Random random = new Random(1);
+        int n = 20_000;
+        long[] values = new long[n];
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 2048);
+        for (int i = 0; i < n; i++) {
+            // 1～1千万くらいまで桁の違う値を混ぜる
+            values[i] = 1 + (long) Math.exp(random.nextDouble() * 16);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q = 0; q <= 1.0001; q += 0.05) {
+            long exact = values[(int) Math.floor(Math.min(q, 1) * (n - 1))];
+            // 代表値を整数に丸める分 (0.5) だけ余分に許す
+            assertThat((double) sketch.quantile(q)).as("q=%.2f", q)
+                    .isCloseTo(exact, offset(exact * ACCURACY + 0.5));
+        }
+        assertThat(sketch.count()).isEqualTo(n);
+        assertThat(sketch.sum()).isEqualTo(Arrays.stream(values).sum());
+        assertThat(sketch.min()).isEqualTo(values[0]);
+        assertThat(sketch.max()).isEqualTo(values[n - 1]);
+    }
+
+    @Test
+    void nonPositiveValuesAreCountedAsZero() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 64);
+        sketch.add(-5);
+        sketch.add(0, 2);
+        sketch.add(10);
+        sketch.add(20);
+        // 件数・合計・最小・最大は正確で、0以下の値の分位点は0
+        assertThat(sketch.count()).isEqualTo(5);
+        assertThat(sketch.sum()).isEqualTo(25);
+        assertThat(sketch.min()).isEqualTo(-5);
+        assertThat(sketch.max()).isEqualTo(20);
+        assertThat(sketch.quantile(0)).isZero();
+        assertThat(sketch.quantile(0.5)).isZero();
+        assertThat(sketch.quantile(0.75)).isBetween(9L, 11L);
+        assertThat(sketch.quantile(1)).isBetween(19L, 20L);
+        assertThat(sketch.buckets()).isLessThanOrEqualTo(64);
+    }
+
+    @Test
+    void onlyNonPositiveValuesUseNoBuckets() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 64);
+        sketch.add(0, 3);
+        sketch.add(-100);
+        sketch.add(7, 0);
+        assertThat(sketch.count()).isEqualTo(4);
+        assertThat(sketch.buckets()).isZero();
+        assertThat(sketch.quantile(0.9)).isZero();
+        assertThat(sketch.max()).isZero();
+        assertThat(sketch.min()).isEqualTo(-100);
+    }
+
+    @Test
+    void collapsesSmallestBucketsWhenRangeExceedsMaxBuckets() {
+        int maxBuckets = 8;
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, maxBuckets);
+        sketch.add(1, 100);
+        // 1000～1150でちょうど8バケットになるので、1のバケットはいちばん小さい1000のバケットにまとめられる
+        for (long value : new long[]{1000, 1050, 1100, 1150}) {
+            sketch.add(value, 100);
+        }
+        assertThat(sketch.buckets()).isLessThanOrEqualTo(maxBuckets);
+        assertThat(sketch.count()).isEqualTo(500);
+        assertThat(sketch.sum()).isEqualTo(100 + 100 * (1000 + 1050 + 1100 + 1150));
+        assertThat(sketch.min()).isEqualTo(1);
+        // 大きい側の分位点は精度を保つ
+        assertThat((double) sketch.quantile(0.5)).isCloseTo(1050, offset(1050 * ACCURACY + 0.5));
+        assertThat((double) sketch.quantile(0.9)).isCloseTo(1150, offset(1150 * ACCURACY + 0.5));
+        // まとめられた小さい値は、残ったいちばん小さいバケットの代表値になる
+        long collapsed = sketch.quantile(0.1);
+        assertThat((double) collapsed).isCloseTo(1000, offset(1000 * ACCURACY + 0.5));
+        assertThat(sketch.quantile(0)).isEqualTo(collapsed);
+
+        // 幅が上限に達した後の小さい値も、いちばん小さいバケットに入る
+        sketch.add(2, 100);
+        assertThat(sketch.buckets()).isLessThanOrEqualTo(maxBuckets);
+        assertThat(sketch.count()).isEqualTo(600);
+        assertThat(sketch.quantile(0.3)).isEqualTo(collapsed);
+        assertThat((double) sketch.quantile(1)).isCloseTo(1150, offset(1150 * ACCURACY + 0.5));
+    }
+
+    @Test
+    void emptySketch() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 16);
+        assertThat(sketch.count()).isZero();
+        assertThat(sketch.quantile(0.5)).isZero();
+        assertThat(sketch.min()).isZero();
+        assertThat(sketch.max()).isZero();
+        assertThat(sketch.buckets()).isZero();
+    }
+
+    @Test
+    void rejectsAccuracyOutOfRange() {
+        assertThatThrownBy(() -> new QuantileSketch(0, 16)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new QuantileSketch(1, 16)).isInstanceOf(IllegalArgumentException.class);
+    }
+}